@@ -0,0 +1,388 @@
+
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+
+import java.awt.Point;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Micro-benchmarks for each stage of the vertex pipeline, on test/test.tif and on synthetic
+ * skeletons of given sizes. For every stage it reports throughput and the allocation rate of
+ * the measured code (like JMH's gc profiler: MB/s and bytes per operation).
+ *
+ * Each invocation gets fresh inputs from an untimed setup, since most stages modify their
+ * inputs in place. Stages run on one thread.
+ *
+ * Usage: java -cp ij.jar:classes Benchmark_ [options]
+ */
+public class Benchmark_ {
+
+    private static final String USAGE =
+        "Usage: Benchmark_ [options]\n"
+        + "  --input FILE        Input image (default: ../test/test.tif), may be repeated\n"
+        + "  --size WxH          Also run a synthetic skeleton of this size, may be repeated (e.g. 4096x4096)\n"
+        + "  --stage NAME        Run only this stage, may be repeated\n"
+        + "  --warmup N          Warmup invocations per stage (default: 3)\n"
+        + "  --iterations N      Measured invocations per stage (default: 10)\n"
+        + "  --min-cell-size N   Minimum cell area (default: " + GetVertex_.MINIMAL_CELL_SIZE + ")\n"
+        + "  -h, --help          Show this message\n";
+
+    /**
+     * A measured operation. setup runs untimed before every invocation of run.
+     */
+    interface Stage {
+        void setup() throws Exception;
+        void run() throws Exception;
+    }
+
+    // Results of the stages before the measured one, computed once per input
+    private static class Prepared {
+        String name;
+        ImagePlus frame;
+        ImagePlus cropped;     // Before boundary processing
+        Point cpt;
+        ImagePlus processed;   // After boundary processing
+        byte[] ctypes;         // After setCtypes and trace
+        int[] cellID;
+        Mesh_ mesh;            // Complete mesh
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<String> inputs = new ArrayList<>();
+        List<int[]> sizes = new ArrayList<>();
+        List<String> only = new ArrayList<>();
+        int warmup = 3;
+        int iterations = 10;
+        int minimalCellSize = GetVertex_.MINIMAL_CELL_SIZE;
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String a = args[i];
+                if (a.equals("--input")) {
+                    inputs.add(value(args, ++i, a));
+                } else if (a.equals("--size")) {
+                    String[] wh = value(args, ++i, a).toLowerCase(Locale.ROOT).split("x");
+                    if (wh.length != 2) {
+                        throw new IllegalArgumentException("Size must be WxH: " + args[i]);
+                    }
+                    sizes.add(new int[] { Integer.parseInt(wh[0]), Integer.parseInt(wh[1]) });
+                } else if (a.equals("--stage")) {
+                    only.add(value(args, ++i, a));
+                } else if (a.equals("--warmup")) {
+                    warmup = Math.max(0, Integer.parseInt(value(args, ++i, a)));
+                } else if (a.equals("--iterations")) {
+                    iterations = Math.max(1, Integer.parseInt(value(args, ++i, a)));
+                } else if (a.equals("--min-cell-size")) {
+                    minimalCellSize = Integer.parseInt(value(args, ++i, a));
+                } else if (a.equals("-h") || a.equals("--help")) {
+                    System.out.print(USAGE);
+                    return;
+                } else {
+                    throw new IllegalArgumentException("Unknown option: " + a);
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.print(USAGE);
+            System.exit(2);
+            return;
+        }
+        if (inputs.isEmpty()) {
+            inputs.add(".." + File.separator + "test" + File.separator + "test.tif");
+        }
+
+        List<ImagePlus> images = new ArrayList<>();
+        for (String input : inputs) {
+            ImagePlus imp = IJ.openImage(input);
+            if (imp == null) {
+                System.err.println("Cannot open image: " + input);
+                System.exit(2);
+                return;
+            }
+            images.add(new ImagePlus(new File(input).getName(), imp.getProcessor()));
+        }
+        for (int[] wh : sizes) {
+            images.add(synthetic(wh[0], wh[1]));
+        }
+
+        // The pipeline logs a lot; keep only the report on stdout
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            out.println(String.format(Locale.ROOT, "%-24s %-22s %12s %12s %12s %14s",
+                "input", "stage", "ops/s", "ms/op", "alloc MB/s", "alloc B/op"));
+            for (ImagePlus imp : images) {
+                Prepared p = prepare(imp, minimalCellSize);
+                if (p == null) {
+                    out.println(imp.getTitle() + ": the pipeline rejected this input");
+                    continue;
+                }
+                for (Object[] named : stages(p, minimalCellSize)) {
+                    String name = (String) named[0];
+                    if (!only.isEmpty() && !only.contains(name)) {
+                        continue;
+                    }
+                    out.println(measure(p.name, name, (Stage) named[1], warmup, iterations));
+                }
+            }
+        } finally {
+            System.setOut(out);
+        }
+    }
+
+    /**
+     * Runs the pipeline once and keeps the intermediate results.
+     *
+     * @return The results, or null if a stage rejected the input.
+     */
+    static Prepared prepare(ImagePlus imp, int minimalCellSize) {
+        Prepared p = new Prepared();
+        p.name = imp.getTitle() + " " + imp.getWidth() + "x" + imp.getHeight();
+        if (!(imp.getProcessor() instanceof ByteProcessor)) {
+            throw new IllegalArgumentException("8-bit input required: " + imp.getTitle());
+        }
+        p.frame = duplicate(imp);
+
+        ImageUtils_.Pair<ImagePlus, Point> cropped = ImageUtils_.utlCropImage(p.frame, true, scan(p.frame));
+        p.cropped = cropped.first;
+        p.cpt = cropped.second;
+        if (ImageUtils_.utlCheckFourBlock(scan(p.cropped), 1)) {
+            return null;
+        }
+
+        p.processed = duplicate(p.cropped);
+        ImageProcessor ip = ImageUtils_.utlBoundaryProcessing(p.processed, p.cpt);
+        if (ip == null) {
+            return null;
+        }
+        p.processed.setProcessor(ip);
+
+        p.ctypes = ctypes(p.processed);
+        CVUtil_.trace(p.processed, p.ctypes, p.cpt);
+        ImageUtils_.Pair<Integer, int[]> cells = ImageUtils_.utlSet_CellID(p.processed.getProcessor(), minimalCellSize, p.cpt, 1);
+        if (cells == null) {
+            return null;
+        }
+        p.cellID = cells.second;
+
+        p.mesh = ImageUtils_.vxSet_Mesh(duplicate(p.processed), minimalCellSize, p.cpt, 1);
+        if (p.mesh == null) {
+            return null;
+        }
+        return p;
+    }
+
+    /**
+     * The stages, in pipeline order, as {name, Stage} pairs.
+     */
+    static List<Object[]> stages(Prepared p, int minimalCellSize) {
+        List<Object[]> stages = new ArrayList<>();
+        ImageProcessor ip = p.processed.getProcessor();
+
+        stages.add(new Object[] { "utlCropImage", new Stage() {
+            public void setup() {
+            }
+            public void run() {
+                ImageUtils_.utlCropImage(p.frame, true, scan(p.frame));
+            }
+        } });
+        stages.add(new Object[] { "utlCheckFourBlock", new Stage() {
+            public void setup() {
+            }
+            public void run() {
+                ImageUtils_.utlCheckFourBlock(scan(p.cropped), 1);
+            }
+        } });
+        stages.add(new Object[] { "utlBoundaryProcessing", new Stage() {
+            ImagePlus in;
+            public void setup() {
+                in = duplicate(p.cropped);
+            }
+            public void run() {
+                ImageUtils_.utlBoundaryProcessing(in, p.cpt);
+            }
+        } });
+        stages.add(new Object[] { "setCtypes", new Stage() {
+            byte[] ctypes;
+            public void setup() {
+                ctypes = new byte[ip.getWidth() * ip.getHeight()];
+            }
+            public void run() {
+                CVUtil_.setCtypes(p.processed, ctypes);
+            }
+        } });
+        stages.add(new Object[] { "trace", new Stage() {
+            byte[] ctypes;
+            public void setup() {
+                ctypes = ctypes(p.processed);
+            }
+            public void run() {
+                CVUtil_.trace(p.processed, ctypes, p.cpt);
+            }
+        } });
+        stages.add(new Object[] { "utlSet_CellID", new Stage() {
+            public void setup() {
+            }
+            public void run() {
+                ImageUtils_.utlSet_CellID(ip, minimalCellSize, p.cpt, 1);
+            }
+        } });
+        stages.add(new Object[] { "Set_Vertex_", new Stage() {
+            public void setup() {
+            }
+            public void run() {
+                ImageUtils_.Set_Vertex_(ip, p.ctypes, p.cellID, new ArrayList<>());
+            }
+        } });
+        stages.add(new Object[] { "Reconnect_Contours", new Stage() {
+            byte[] ctypes;
+            ContourStore_ conts;
+            List<Vertex_> ivtx;
+            List<Integer> isolated;
+            public void setup() {
+                ctypes = ctypes(p.processed);
+                conts = CVUtil_.trace(p.processed, ctypes, p.cpt);
+                isolated = new ArrayList<>();
+                ivtx = ImageUtils_.Set_Vertex_(ip, ctypes, p.cellID, isolated);
+            }
+            public void run() {
+                ImageUtils_.Reconnect_Contours(ip, ctypes, conts, ivtx, isolated);
+            }
+        } });
+        stages.add(new Object[] { "setEdges", new Stage() {
+            byte[] ctypes;
+            ContourStore_ conts;
+            Mesh_ mesh;
+            public void setup() {
+                ctypes = ctypes(p.processed);
+                conts = reconnected(p, ctypes);
+                mesh = new Mesh_();
+                mesh.setVertices(ip, ctypes, p.cellID);
+            }
+            public void run() {
+                mesh.setEdges(ctypes, conts);
+            }
+        } });
+        stages.add(new Object[] { "cell assembly", new Stage() {
+            Mesh_ mesh;
+            public void setup() {
+                byte[] ctypes = ctypes(p.processed);
+                ContourStore_ conts = reconnected(p, ctypes);
+                mesh = new Mesh_();
+                mesh.setVertices(ip, ctypes, p.cellID);
+                mesh.setEdges(ctypes, conts);
+            }
+            public void run() {
+                mesh.setVertexEdges();
+                new HalfEdge_(mesh).setCells(1);
+                mesh.setCellCenters();
+            }
+        } });
+        stages.add(new Object[] { "vxOutputDatas_file", new Stage() {
+            File file;
+            public void setup() throws IOException {
+                if (file == null) {
+                    file = File.createTempFile("bench", ".txt");
+                    file.deleteOnExit();
+                }
+            }
+            public void run() throws IOException {
+                try (TextWriter_ fp = new TextWriter_(file.getPath())) {
+                    ImageUtils_.vxOutputDatas_file(fp, p.mesh, p.cpt);
+                }
+            }
+        } });
+        stages.add(new Object[] { "vxSet_Mesh", new Stage() {
+            ImagePlus in;
+            public void setup() {
+                in = duplicate(p.processed);
+            }
+            public void run() {
+                ImageUtils_.vxSet_Mesh(in, minimalCellSize, p.cpt, 1);
+            }
+        } });
+        return stages;
+    }
+
+    /**
+     * Runs a stage and formats one report line.
+     */
+    static String measure(String input, String name, Stage stage, int warmup, int iterations) throws Exception {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        for (int i = 0; i < warmup; i++) {
+            stage.setup();
+            stage.run();
+        }
+        long nanos = 0;
+        long bytes = 0;
+        for (int i = 0; i < iterations; i++) {
+            stage.setup();
+            long a0 = threads.getThreadAllocatedBytes(thread);
+            long t0 = System.nanoTime();
+            stage.run();
+            long t1 = System.nanoTime();
+            long a1 = threads.getThreadAllocatedBytes(thread);
+            nanos += t1 - t0;
+            bytes += a1 - a0;
+        }
+        double seconds = nanos / 1e9;
+        return String.format(Locale.ROOT, "%-24s %-22s %12.3f %12.3f %12.1f %14d",
+            input, name, iterations / seconds, seconds * 1e3 / iterations,
+            bytes / 1e6 / seconds, bytes / iterations);
+    }
+
+    /**
+     * A synthetic tissue skeleton (SyntheticTissue_ with its defaults and seed 1).
+     *
+     * @param width  Image width.
+     * @param height Image height.
+     * @return The skeleton image (255 on 0).
+     */
+    static ImagePlus synthetic(int width, int height) {
+        SyntheticTissue_ tissue = new SyntheticTissue_(width, height, SyntheticTissue_.DEFAULT_CELL_AREA,
+            SyntheticTissue_.DEFAULT_LLOYD_ITERATIONS, 1);
+        return new ImagePlus("synthetic", tissue.render().image);
+    }
+
+    private static PreScan_ scan(ImagePlus imp) {
+        ImageProcessor ip = imp.getProcessor();
+        return PreScan_.scan((byte[]) ip.getPixels(), ip.getWidth(), ip.getHeight());
+    }
+
+    private static ImagePlus duplicate(ImagePlus imp) {
+        return new ImagePlus(imp.getTitle(), imp.getProcessor().duplicate());
+    }
+
+    private static byte[] ctypes(ImagePlus imp) {
+        byte[] ctypes = new byte[imp.getWidth() * imp.getHeight()];
+        CVUtil_.setCtypes(imp, ctypes);
+        return ctypes;
+    }
+
+    // Contours after reconnection; ctypes is updated like in vxSet_Mesh
+    private static ContourStore_ reconnected(Prepared p, byte[] ctypes) {
+        ImageProcessor ip = p.processed.getProcessor();
+        ContourStore_ conts = CVUtil_.trace(p.processed, ctypes, p.cpt);
+        List<Integer> isolated = new ArrayList<>();
+        List<Vertex_> ivtx = ImageUtils_.Set_Vertex_(ip, ctypes, p.cellID, isolated);
+        return ImageUtils_.Reconnect_Contours(ip, ctypes, conts, ivtx, isolated);
+    }
+
+    private static String value(String[] args, int i, String option) {
+        if (i >= args.length) {
+            throw new IllegalArgumentException("Missing value for " + option);
+        }
+        return args[i];
+    }
+}
@@ -0,0 +1,2 @@
+javac -classpath ..\..\..\..\..\ij.jar -d .\classes\ ..\src\*.java Benchmark_.java
+java -cp ..\..\..\..\..\ij.jar;.\classes\ Benchmark_ %*
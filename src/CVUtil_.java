@@ -3,8 +3,6 @@
 import ij.IJ;
 import ij.ImagePlus;
 import ij.process.ImageProcessor;
-import java.util.ArrayList;
-import java.util.List;
 import java.awt.Point;
 
 class CVUtil_ {
@@ -75,21 +73,94 @@ class CVUtil_ {
         }
     }
 
-    public static List<List<int[]>> trace(ImagePlus imp, char[] ctypes, Point cpt) {
+    public static void setCtypes(ImagePlus imp, byte[] ctypes) {
+        Diagnostics_ diagnostics = new Diagnostics_(0);
+        setCtypes(imp, ctypes, diagnostics);
+        diagnostics.flush();
+    }
+
+    /**
+     * Sets the 8-neighbor type of each pixel into a byte plane.
+     * Uses the row-bitmask kernel for 8-bit images and the scalar loop otherwise. For 8-bit
+     * images the 'z' / 'b' pixels are not logged here: PreScan_ has already reported all of them.
+     *
+     * @param imp         The binary image.
+     * @param ctypes      Output plane of size W x H.
+     * @param diagnostics Receives the log lines.
+     */
+    public static void setCtypes(ImagePlus imp, byte[] ctypes, Diagnostics_ diagnostics) {
+        ImageProcessor ip = imp.getProcessor();
+        int w = imp.getWidth();
+        int h = imp.getHeight();
+
+        diagnostics.log("   (Set_Ctype) mw   " + w + "  " + h);
+
+        Object pixels = ip.getPixels();
+        if (pixels instanceof byte[]) {
+            CtypeKernel_.classify((byte[]) pixels, w, h, ctypes);
+            return;
+        }
+
+        for (int y = 1; y < h - 1; y++) {
+            for (int x = 1; x < w - 1; x++) {
+                int id = w * y + x;
+                if (ip.getPixel(x, y) == 0) {
+                    ctypes[id] = 'i';
+                } else {
+                    int cindex = 0;
+                    int bit = 1;
+                    for (int dy = -1; dy <= 1; dy++) {
+                        for (int dx = -1; dx <= 1; dx++) {
+                            if (dx == 0 && dy == 0) continue;
+                            if (ip.getPixel(x + dx, y + dy) == (WHITE & 0xFF)) {
+                                cindex += bit;
+                            }
+                            bit <<= 1;
+                        }
+                    }
+                    ctypes[id] = (byte) CVUTIL_NCELL_TYPE[cindex];
+                }
+
+                if (ctypes[id] == 'z' || ctypes[id] == 'b') {
+                    diagnostics.log("!!! '" + (char) ctypes[id] + "' pixel found at " + x + "  " + y);
+                    return;
+                }
+            }
+        }
+    }
+
+    public static ContourStore_ trace(ImagePlus imp, byte[] ctypes, Point cpt) {
+        Diagnostics_ diagnostics = new Diagnostics_(0);
+        ContourStore_ conts = trace(imp, ctypes, cpt, diagnostics);
+        diagnostics.flush();
+        return conts;
+    }
+
+    /**
+     * Traces the contours between vertex pixels ('t', 'j' and 'f').
+     *
+     * @param imp         The binary image.
+     * @param ctypes      The 8-neighbor types of each pixel.
+     * @param cpt         Coordinate offset of imp in the frame.
+     * @param diagnostics Receives the tracing errors, in frame coordinates.
+     * @return The contours, or null if tracing failed.
+     */
+    public static ContourStore_ trace(ImagePlus imp, byte[] ctypes, Point cpt, Diagnostics_ diagnostics) {
         int W = imp.getWidth();
         int H = imp.getHeight();
         byte[] tV = (byte[]) imp.getProcessor().getPixelsCopy(); // Use getPixelsCopy()
-        int[] ejnum = new int[W * H];
-        List<List<int[]>> conts = new ArrayList<>();
+        byte[] ejnum = new byte[W * H]; // Contours ending at each pixel (small counts)
+        ContourStore_ conts = new ContourStore_(W);
 
         // (tV initialization is already handled by getPixelsCopy())
 
         int[] npb = { -W, -1, 1, W, -W - 1, -W + 1, W - 1, W + 1 };
+        int[] termid = new int[4]; // Ends of the contours from one pixel (at most 4, for 'f')
 
         for (int y = 1; y < H - 1; y++) {
             for (int x = 1; x < W - 1; x++) {
                 int sid = W * y + x;
-                List<Integer> termid = new ArrayList<>(); // Use ArrayList for termid
+                int nterm = 0;
 
                 if (ctypes[sid] == 't' || ctypes[sid] == 'j' || ctypes[sid] == 'f') {
                     while ((ctypes[sid] == 't' && ejnum[sid] < 1) ||
@@ -98,8 +169,8 @@ class CVUtil_ {
                         int tid = sid;
                         int counter = 0;
                         int tedge_length = 0;
-                        List<int[]> pts = new ArrayList<>();
-                        pts.add(new int[] { tid % W, tid / W });
+                        conts.beginContour();
+                        conts.addPoint(tid);
                         int tx = 0;
                         int ty = 0;
 
@@ -133,18 +204,15 @@ class CVUtil_ {
                                 }
                             }
                             if(!is_moved){
-                                IJ.log(String.format("An irregular loop was detected at %d %d", tx, ty));
-                                IJ.error(String.format("An irregular loop was detected at %d %d", tx, ty));
+                                diagnostics.add(Diagnostics_.IRREGULAR_LOOP, tx + cpt.x, ty + cpt.y, 0);
+                                diagnostics.error(String.format("An irregular loop was detected at %d %d", tx, ty));
                                 return null;
                             }
                             tx = tid % W;
                             ty = tid / W;
-                            pts.add(new int[] { tx, ty });
-                            if (counter > 150) {
-                                IJ.log(String.format("%d %d %c", tx + cpt.x, ty + cpt.y, ctypes[tid]));
-                            }
+                            conts.addPoint(tid);
                             if (counter > 200) {
-                                IJ.log("Unexpected Loop");
+                                diagnostics.add(Diagnostics_.UNEXPECTED_LOOP, tx + cpt.x, ty + cpt.y, counter);
                                 return null; // Or handle the error appropriately
                             }
                             counter++;
@@ -157,20 +225,20 @@ class CVUtil_ {
                         ejnum[tid]++;
 
                         if (ejnum[sid] > 5) {
-                            IJ.log(String.format("Error at %d %d", tx, ty));
+                            diagnostics.add(Diagnostics_.TRACE_ERROR, tx + cpt.x, ty + cpt.y, 0);
                         } else if (ejnum[tid] > 5) {
-                            IJ.log(String.format("Error at %d %d", x, y));
+                            diagnostics.add(Diagnostics_.TRACE_ERROR, x + cpt.x, y + cpt.y, 0);
                             return null; // Or handle the error appropriately
                         }
 
-                        conts.add(pts);
+                        conts.endContour();
                         tV[tid] = 1;
-                        termid.add(tid);
+                        termid[nterm++] = tid;
                     }
                 }
 
-                for (int idx : termid) {
-                    tV[idx] = (byte) WHITE;
+                for (int i = 0; i < nterm; i++) {
+                    tV[termid[i]] = (byte) WHITE;
                 }
             }
         }
@@ -0,0 +1,131 @@
+
+
+import java.util.Arrays;
+
+/**
+ * Packed storage for traced contours. All points live in one growable int[] as pixel indices
+ * (y * width + x); each contour is an offset/length pair into it. Contours can be marked as
+ * removed; they keep their index so the remaining contours stay in their original order.
+ */
+class ContourStore_ {
+    public final int width;
+
+    private int[] pts;
+    private int size;
+    private int[] offset;
+    private int[] length;
+    private boolean[] removed;
+    private int count;
+    private int live; // Number of contours not removed
+    private int open; // Index of the contour being built, -1 if none
+
+    public ContourStore_(int width) {
+        this.width = width;
+        this.pts = new int[1024];
+        this.size = 0;
+        this.offset = new int[64];
+        this.length = new int[64];
+        this.removed = new boolean[64];
+        this.count = 0;
+        this.live = 0;
+        this.open = -1;
+    }
+
+    /** Number of contours, including removed ones. */
+    public int size() {
+        return count;
+    }
+
+    /** Number of contours that are not removed. */
+    public int liveCount() {
+        return live;
+    }
+
+    /** Number of stored points, including those of removed contours. */
+    public int pointTotal() {
+        return size;
+    }
+
+    /**
+     * Starts a new contour; points are appended with addPoint until endContour.
+     *
+     * @return The index of the new contour.
+     */
+    public int beginContour() {
+        if (count == offset.length) {
+            int n = offset.length * 2;
+            offset = Arrays.copyOf(offset, n);
+            length = Arrays.copyOf(length, n);
+            removed = Arrays.copyOf(removed, n);
+        }
+        open = count++;
+        live++;
+        offset[open] = size;
+        length[open] = 0;
+        removed[open] = false;
+        return open;
+    }
+
+    /** Appends a pixel index to the open contour. */
+    public void addPoint(int p) {
+        if (size == pts.length) {
+            pts = Arrays.copyOf(pts, pts.length * 2);
+        }
+        pts[size++] = p;
+        length[open]++;
+    }
+
+    /**
+     * Appends points from..to (inclusive) of contour c to the open contour.
+     * If from > to the points are appended in reverse order.
+     */
+    public void addPoints(int c, int from, int to) {
+        int step = (from <= to) ? 1 : -1;
+        for (int i = from; i != to + step; i += step) {
+            addPoint(pts[offset[c] + i]);
+        }
+    }
+
+    /** Closes the open contour. */
+    public void endContour() {
+        open = -1;
+    }
+
+    public void remove(int c) {
+        if (!removed[c]) {
+            removed[c] = true;
+            live--;
+        }
+    }
+
+    public boolean isRemoved(int c) {
+        return removed[c];
+    }
+
+    public int length(int c) {
+        return length[c];
+    }
+
+    /** Pixel index of point i of contour c. */
+    public int point(int c, int i) {
+        return pts[offset[c] + i];
+    }
+
+    public int x(int c, int i) {
+        return pts[offset[c] + i] % width;
+    }
+
+    public int y(int c, int i) {
+        return pts[offset[c] + i] / width;
+    }
+
+    /** Pixel index of the first point of contour c. */
+    public int first(int c) {
+        return pts[offset[c]];
+    }
+
+    /** Pixel index of the last point of contour c. */
+    public int last(int c) {
+        return pts[offset[c] + length[c] - 1];
+    }
+}
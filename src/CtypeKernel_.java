@@ -0,0 +1,141 @@
+
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Neighborhood classification kernel for CVUtil_.setCtypes.
+ * Each row is packed into a bitmask (one bit per WHITE pixel), 8 pixels per long read with
+ * SWAR byte tests, and three rolling row masks give the 8-neighborhood code of a pixel with a
+ * few shifts instead of eight byte comparisons. Zero pixels are filled with 'i' a whole row at
+ * a time and only non-zero pixels are visited.
+ */
+class CtypeKernel_ {
+
+    private static final byte WHITE = -1;
+    private static final long HIGH = 0x8080808080808080L; // High bit of every byte
+
+    // CVUtil_.CVUTIL_NCELL_TYPE as bytes
+    private static final byte[] NCELL_TYPE = new byte[256];
+    static {
+        for (int i = 0; i < 256; i++) {
+            NCELL_TYPE[i] = (byte) CVUtil_.CVUTIL_NCELL_TYPE[i];
+        }
+    }
+
+    /**
+     * Classifies every inner pixel of an 8-bit raster into ctypes, exactly like CVUtil_.setCtypes:
+     * zero pixels become 'i', others get the type of their 8-neighborhood. The border is not written.
+     * Stops after the first 'z' or 'b' pixel (in row-major order) and leaves the rest unwritten.
+     *
+     * @param pixels 8-bit raster.
+     * @param w      Image width.
+     * @param h      Image height.
+     * @param ctypes Output plane of size w * h.
+     * @return The index of the first 'z' / 'b' pixel, or -1 if there is none.
+     */
+    public static int classify(byte[] pixels, int w, int h, byte[] ctypes) {
+        if (w < 3 || h < 3) {
+            return -1;
+        }
+        int words = (w + 63) >>> 6;
+        long[] up = new long[words];
+        long[] cur = new long[words];
+        long[] down = new long[words];
+        long[] nonzero = new long[words];
+        long[] nonzeroDown = new long[words];
+        ByteBuffer buf = ByteBuffer.wrap(pixels).order(ByteOrder.LITTLE_ENDIAN);
+        pack(buf, 0, w, up, nonzeroDown);
+        pack(buf, w, w, cur, nonzero);
+
+        for (int y = 1; y < h - 1; y++) {
+            int row = y * w;
+            pack(buf, row + w, w, down, nonzeroDown);
+
+            Arrays.fill(ctypes, row + 1, row + w - 1, (byte) 'i');
+            for (int k = 0; k < words; k++) {
+                long bits = nonzero[k];
+                if (bits == 0) continue;
+
+                // Bit b of these is the neighbor left of / above / ... pixel b of the word
+                long ul = left(up, k), uc = up[k], ur = right(up, k);
+                long cl = left(cur, k), cr = right(cur, k);
+                long dl = left(down, k), dc = down[k], dr = right(down, k);
+                while (bits != 0) {
+                    int b = Long.numberOfTrailingZeros(bits);
+                    bits &= bits - 1;
+                    int x = (k << 6) + b;
+                    if (x < 1 || x > w - 2) continue;
+                    int cindex;
+                    if (b < 62) {
+                        // Pixels b - 1, b and b + 1 of each row are bits 0-2 of the left words
+                        int c = (int) (cl >>> b) & 7;
+                        cindex = (int) (ul >>> b) & 7 | (c & 1) << 3 | (c & 4) << 2 | ((int) (dl >>> b) & 7) << 5;
+                    } else {
+                        cindex = (int) ((ul >>> b & 1) | (uc >>> b & 1) << 1 | (ur >>> b & 1) << 2
+                            | (cl >>> b & 1) << 3 | (cr >>> b & 1) << 4
+                            | (dl >>> b & 1) << 5 | (dc >>> b & 1) << 6 | (dr >>> b & 1) << 7);
+                    }
+                    byte t = NCELL_TYPE[cindex];
+                    ctypes[row + x] = t;
+                    if (t == 'z' || t == 'b') {
+                        Arrays.fill(ctypes, row + x + 1, row + w - 1, (byte) 0);
+                        return row + x;
+                    }
+                }
+            }
+
+            long[] t = up;
+            up = cur;
+            cur = down;
+            down = t;
+            t = nonzero;
+            nonzero = nonzeroDown;
+            nonzeroDown = t;
+        }
+        return -1;
+    }
+
+    // Word k of a row mask shifted so that bit b holds pixel b - 1
+    private static long left(long[] mask, int k) {
+        return mask[k] << 1 | (k > 0 ? mask[k - 1] >>> 63 : 0L);
+    }
+
+    // Word k of a row mask shifted so that bit b holds pixel b + 1
+    private static long right(long[] mask, int k) {
+        return mask[k] >>> 1 | (k + 1 < mask.length ? mask[k + 1] << 63 : 0L);
+    }
+
+    // Packs one row into a WHITE mask and a non-zero mask, 64 pixels per word, reading 8 pixels at a time
+    private static void pack(ByteBuffer buf, int offset, int w, long[] white, long[] nonzero) {
+        for (int k = 0, x0 = 0; x0 < w; k++, x0 += 64) {
+            int n = Math.min(64, w - x0);
+            long wm = 0L;
+            long nm = 0L;
+            int b = 0;
+            for (; b + 8 <= n; b += 8) {
+                long v = buf.getLong(offset + x0 + b);
+                nm |= gather(nonzeroBytes(v)) << b;
+                wm |= gather(~nonzeroBytes(~v) & HIGH) << b;
+            }
+            for (; b < n; b++) {
+                byte p = buf.get(offset + x0 + b);
+                wm |= (p == WHITE ? 1L : 0L) << b;
+                nm |= (p != 0 ? 1L : 0L) << b;
+            }
+            white[k] = wm;
+            nonzero[k] = nm;
+        }
+    }
+
+    // The high bit of each byte of v that is not zero
+    private static long nonzeroBytes(long v) {
+        return (((v & ~HIGH) + ~HIGH) | v) & HIGH;
+    }
+
+    // The high bits of the 8 bytes of m as an 8-bit mask, byte 0 in bit 0
+    private static long gather(long m) {
+        return ((m >>> 7) * 0x0102040810204080L) >>> 56;
+    }
+}
@@ -0,0 +1,313 @@
+
+
+import java.util.Arrays;
+
+/**
+ * Delaunay triangulation of a point set (Bowyer-Watson, points inserted in grid order with a
+ * walking point location). Triangles are stored as flat arrays: vertices tv[3t..3t+2] in
+ * counter-clockwise order, and tn[3t+k] the neighbor across the edge opposite vertex k
+ * (-1 on the outside). The circumcenters are the vertices of the Voronoi diagram.
+ *
+ * Three vertices of a large enclosing triangle (IDs n, n+1, n+2) stay in the triangulation;
+ * isFinite tells the triangles that do not use them.
+ */
+class Delaunay_ {
+    public final int n;            // Number of input points
+    public final double[] x;       // Point coordinates, then the three enclosing vertices
+    public final double[] y;
+    public int triangleCount;      // Triangle slots in use (dead slots have tv[3t] == -1)
+    public int[] tv;
+    public int[] tn;
+    public double[] cx;            // Circumcenters
+    public double[] cy;
+    private double[] cr2;          // Squared circumradii
+
+    private int[] free = new int[64];
+    private int freeCount;
+    private int[] mark;
+    private int stamp;
+    private int[] stack = new int[64];
+    private int[] startTri;        // Per vertex, during one insertion: new triangle starting at the vertex
+    private int[] endTri;          // ... and ending at the vertex
+    private int last;              // Most recently created triangle, where the next walk starts
+
+    /**
+     * Triangulates the first n points of xs, ys. The points should be distinct.
+     */
+    public Delaunay_(double[] xs, double[] ys, int n) {
+        this.n = n;
+        this.x = new double[n + 3];
+        this.y = new double[n + 3];
+        System.arraycopy(xs, 0, x, 0, n);
+        System.arraycopy(ys, 0, y, 0, n);
+
+        double minx = Double.MAX_VALUE, miny = Double.MAX_VALUE;
+        double maxx = -Double.MAX_VALUE, maxy = -Double.MAX_VALUE;
+        for (int i = 0; i < n; i++) {
+            minx = Math.min(minx, xs[i]);
+            miny = Math.min(miny, ys[i]);
+            maxx = Math.max(maxx, xs[i]);
+            maxy = Math.max(maxy, ys[i]);
+        }
+        if (n == 0) {
+            minx = miny = 0;
+            maxx = maxy = 1;
+        }
+        double size = Math.max(Math.max(maxx - minx, maxy - miny), 1.0);
+        double mx = (minx + maxx) / 2;
+        double my = (miny + maxy) / 2;
+        x[n] = mx - 20 * size;
+        y[n] = my - 10 * size;
+        x[n + 1] = mx + 20 * size;
+        y[n + 1] = my - 10 * size;
+        x[n + 2] = mx;
+        y[n + 2] = my + 20 * size;
+
+        int capacity = 2 * n + 8;
+        tv = new int[3 * capacity];
+        tn = new int[3 * capacity];
+        cx = new double[capacity];
+        cy = new double[capacity];
+        cr2 = new double[capacity];
+        mark = new int[capacity];
+        startTri = new int[n + 3];
+        endTri = new int[n + 3];
+
+        last = newTriangle(n, n + 1, n + 2);
+        tn[0] = tn[1] = tn[2] = -1;
+
+        for (int p : gridOrder(xs, ys, n, minx, miny, size)) {
+            insert(p);
+        }
+    }
+
+    /** True if triangle t is alive and does not use an enclosing vertex. */
+    public boolean isFinite(int t) {
+        int b = 3 * t;
+        return tv[b] >= 0 && tv[b] < n && tv[b + 1] < n && tv[b + 2] < n;
+    }
+
+    /** True if triangle slot t holds a triangle. */
+    public boolean isAlive(int t) {
+        return tv[3 * t] >= 0;
+    }
+
+    /**
+     * One alive triangle per point, for walking around it with next.
+     */
+    public int[] pointTriangles() {
+        int[] pt = new int[n + 3];
+        Arrays.fill(pt, -1);
+        for (int t = 0; t < triangleCount; t++) {
+            if (tv[3 * t] < 0) continue;
+            for (int k = 0; k < 3; k++) {
+                pt[tv[3 * t + k]] = t;
+            }
+        }
+        return pt;
+    }
+
+    /**
+     * The triangle after t counter-clockwise around its vertex p (-1 at the outside).
+     */
+    public int next(int t, int p) {
+        int b = 3 * t;
+        int k = tv[b] == p ? 0 : tv[b + 1] == p ? 1 : 2;
+        return tn[b + (k + 1) % 3];
+    }
+
+    private void insert(int p) {
+        double px = x[p];
+        double py = y[p];
+        int t0 = locate(px, py);
+
+        // Cavity: triangles whose circumcircle contains p
+        stamp++;
+        int top = 0;
+        int bad = 0;
+        mark[t0] = stamp;
+        push(top++, t0);
+        while (bad < top) {
+            int t = stack[bad++];
+            for (int k = 0; k < 3; k++) {
+                int nb = tn[3 * t + k];
+                if (nb >= 0 && mark[nb] != stamp && inCircle(nb, px, py)) {
+                    mark[nb] = stamp;
+                    push(top++, nb);
+                }
+            }
+        }
+
+        // Fan of new triangles from the boundary edges of the cavity to p
+        int created = 0;
+        int[] boundary = new int[3 * (top + 2)]; // A cavity of m triangles has m + 2 boundary edges
+        for (int i = 0; i < top; i++) {
+            int t = stack[i];
+            for (int k = 0; k < 3; k++) {
+                int nb = tn[3 * t + k];
+                if (nb >= 0 && mark[nb] == stamp) continue;
+                boundary[3 * created] = tv[3 * t + (k + 1) % 3];
+                boundary[3 * created + 1] = tv[3 * t + (k + 2) % 3];
+                boundary[3 * created + 2] = nb;
+                created++;
+            }
+        }
+        for (int i = 0; i < top; i++) {
+            kill(stack[i]);
+        }
+        int[] fresh = new int[created];
+        for (int i = 0; i < created; i++) {
+            int a = boundary[3 * i];
+            int b = boundary[3 * i + 1];
+            int nb = boundary[3 * i + 2];
+            int t = newTriangle(a, b, p);
+            fresh[i] = t;
+            tn[3 * t + 2] = nb;
+            if (nb >= 0) {
+                for (int k = 0; k < 3; k++) {
+                    int v = tv[3 * nb + k];
+                    if (v != a && v != b) {
+                        tn[3 * nb + k] = t;
+                        break;
+                    }
+                }
+            }
+            startTri[a] = t;
+            endTri[b] = t;
+        }
+        for (int t : fresh) {
+            int a = tv[3 * t];
+            int b = tv[3 * t + 1];
+            tn[3 * t] = startTri[b];     // Edge (b, p)
+            tn[3 * t + 1] = endTri[a];   // Edge (p, a)
+        }
+        last = fresh[created - 1];
+    }
+
+    // Walks from the last created triangle towards (px, py)
+    private int locate(double px, double py) {
+        int t = last;
+        int rot = 0;
+        int steps = 0;
+        int limit = 4 * triangleCount + 16;
+        walk:
+        while (steps++ < limit) {
+            int b = 3 * t;
+            rot = (rot + 1) % 3;
+            for (int i = 0; i < 3; i++) {
+                int k = (rot + i) % 3;
+                int a = tv[b + (k + 1) % 3];
+                int c = tv[b + (k + 2) % 3];
+                if (orient(x[a], y[a], x[c], y[c], px, py) < 0) {
+                    int nb = tn[b + k];
+                    if (nb >= 0) {
+                        t = nb;
+                        continue walk;
+                    }
+                }
+            }
+            return t;
+        }
+        // The walk did not converge (degenerate input): search all triangles
+        for (int u = 0; u < triangleCount; u++) {
+            if (tv[3 * u] < 0) continue;
+            int b = 3 * u;
+            boolean inside = true;
+            for (int k = 0; k < 3 && inside; k++) {
+                int a = tv[b + (k + 1) % 3];
+                int c = tv[b + (k + 2) % 3];
+                inside = orient(x[a], y[a], x[c], y[c], px, py) >= 0;
+            }
+            if (inside) {
+                return u;
+            }
+        }
+        throw new IllegalStateException("Point outside the triangulation: " + px + ", " + py);
+    }
+
+    private boolean inCircle(int t, double px, double py) {
+        double dx = px - cx[t];
+        double dy = py - cy[t];
+        return dx * dx + dy * dy < cr2[t];
+    }
+
+    private int newTriangle(int a, int b, int c) {
+        int t;
+        if (freeCount > 0) {
+            t = free[--freeCount];
+        } else {
+            t = triangleCount++;
+            if (t >= cx.length) {
+                grow();
+            }
+        }
+        tv[3 * t] = a;
+        tv[3 * t + 1] = b;
+        tv[3 * t + 2] = c;
+        mark[t] = 0;
+
+        // Circumcircle
+        double ax = x[a], ay = y[a];
+        double bx = x[b] - ax, by = y[b] - ay;
+        double qx = x[c] - ax, qy = y[c] - ay;
+        double d = 2 * (bx * qy - by * qx);
+        double b2 = bx * bx + by * by;
+        double q2 = qx * qx + qy * qy;
+        double ux = (qy * b2 - by * q2) / d;
+        double uy = (bx * q2 - qx * b2) / d;
+        cx[t] = ax + ux;
+        cy[t] = ay + uy;
+        cr2[t] = ux * ux + uy * uy;
+        return t;
+    }
+
+    private void kill(int t) {
+        tv[3 * t] = -1;
+        if (freeCount == free.length) {
+            free = Arrays.copyOf(free, 2 * free.length);
+        }
+        free[freeCount++] = t;
+    }
+
+    private void push(int i, int t) {
+        if (i == stack.length) {
+            stack = Arrays.copyOf(stack, 2 * stack.length);
+        }
+        stack[i] = t;
+    }
+
+    private void grow() {
+        int capacity = 2 * cx.length;
+        tv = Arrays.copyOf(tv, 3 * capacity);
+        tn = Arrays.copyOf(tn, 3 * capacity);
+        cx = Arrays.copyOf(cx, capacity);
+        cy = Arrays.copyOf(cy, capacity);
+        cr2 = Arrays.copyOf(cr2, capacity);
+        mark = Arrays.copyOf(mark, capacity);
+    }
+
+    // > 0 if (px, py) is left of the directed line a -> b
+    private static double orient(double ax, double ay, double bx, double by, double px, double py) {
+        return (bx - ax) * (py - ay) - (by - ay) * (px - ax);
+    }
+
+    // Point indices sorted by rows of grid cells, alternating direction, so each walk is short
+    private static int[] gridOrder(double[] xs, double[] ys, int n, double minx, double miny, double size) {
+        int g = Math.max(1, (int) Math.sqrt(n / 4.0));
+        long[] keys = new long[n];
+        for (int i = 0; i < n; i++) {
+            int gx = Math.min(g - 1, (int) ((xs[i] - minx) / size * g));
+            int gy = Math.min(g - 1, (int) ((ys[i] - miny) / size * g));
+            if (gy % 2 == 1) {
+                gx = g - 1 - gx;
+            }
+            keys[i] = ((long) (gy * g + gx) << 32) | i;
+        }
+        Arrays.sort(keys);
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = (int) keys[i];
+        }
+        return order;
+    }
+}
@@ -0,0 +1,157 @@
+
+
+import ij.IJ;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Defects and warnings found while processing one frame, recorded as typed events with their
+ * coordinates instead of being logged from inside the pixel loops. The events go into a
+ * preallocated buffer; past its capacity only the per-type counts grow.
+ *
+ * The frame's progress lines and error messages are kept here too, so that nothing is logged
+ * (and no error dialog opened) from the threads that process frames or tiles.
+ *
+ * flush hands everything to a log sink once per frame: the progress lines, then the first
+ * MESSAGES_PER_TYPE events of each type in full and the rest as one summary line, then the errors.
+ *
+ * One collector per frame, filled by the thread that processes the frame.
+ */
+class Diagnostics_ {
+    // Event types
+    public static final int FOUR_BLOCK = 0;        // 2x2 block of boundary pixels
+    public static final int ZB_PIXEL = 1;          // Forbidden 'z' / 'b' neighborhood (value: the type)
+    public static final int SMALL_CELL = 2;        // Cell area <= minimal cell size (value: the threshold)
+    public static final int IRREGULAR_LOOP = 3;    // Contour trace got stuck
+    public static final int UNEXPECTED_LOOP = 4;   // Contour trace did not end (value: steps)
+    public static final int TRACE_ERROR = 5;       // Too many contours at one vertex
+    public static final int ISOLATED_TERMINAL = 6; // Terminal inside a cell
+    public static final String[] NAMES = {
+        "four-block", "z/b pixel", "small cell", "irregular loop", "unexpected loop", "trace error", "isolated terminal"
+    };
+
+    public static final int CAPACITY = 1024;        // Events kept per frame
+    public static final int MESSAGES_PER_TYPE = 10; // Events of each type logged in full per frame
+
+    public final int num; // Frame number (for reporting)
+    public final int[] type = new int[CAPACITY];
+    public final int[] x = new int[CAPACITY];     // Frame coordinates
+    public final int[] y = new int[CAPACITY];
+    public final int[] value = new int[CAPACITY]; // Per-type detail, see the type constants
+    public int size;                              // Events kept, at most CAPACITY
+    public final int[] counts = new int[NAMES.length]; // Events recorded per type, kept or not
+    public final List<String> lines = new ArrayList<>();  // Progress lines, in order
+    public final List<String> errors = new ArrayList<>(); // Error messages (IJ.error when flushed to the log window)
+
+    public Diagnostics_(int num) {
+        this.num = num;
+        this.size = 0;
+    }
+
+    /** Records an event at (x, y) in frame coordinates. */
+    public void add(int type, int x, int y, int value) {
+        counts[type]++;
+        if (size == CAPACITY) {
+            return;
+        }
+        this.type[size] = type;
+        this.x[size] = x;
+        this.y[size] = y;
+        this.value[size] = value;
+        size++;
+    }
+
+    /** Records a progress line of the frame. */
+    public void log(String line) {
+        lines.add(line);
+    }
+
+    /** Records an error message, shown when the frame is flushed. */
+    public void error(String message) {
+        errors.add(message);
+    }
+
+    /** Number of events of a type recorded since the last flush. */
+    public int count(int type) {
+        return counts[type];
+    }
+
+    /** Number of events recorded since the last flush. */
+    public int total() {
+        int n = 0;
+        for (int c : counts) {
+            n += c;
+        }
+        return n;
+    }
+
+    /** Logs the lines and events to the ImageJ log window, shows the errors (IJ.error) and clears them. */
+    public void flush() {
+        List<String> shown = new ArrayList<>(errors);
+        errors.clear();
+        flush(IJ::log);
+        for (String message : shown) {
+            IJ.error(message);
+        }
+    }
+
+    /**
+     * Writes the lines, then the events, at most MESSAGES_PER_TYPE of each type followed by a
+     * count of the rest, then the errors to a sink, and clears them.
+     */
+    public void flush(Consumer<String> sink) {
+        for (String line : lines) {
+            sink.accept(line);
+        }
+        if (total() > 0) {
+            sink.accept("## frame " + num + ": diagnostics");
+        }
+        int[] logged = new int[NAMES.length];
+        for (int i = 0; i < size; i++) {
+            int t = type[i];
+            if (logged[t] < MESSAGES_PER_TYPE) {
+                sink.accept(message(i));
+                logged[t]++;
+            }
+        }
+        for (int t = 0; t < NAMES.length; t++) {
+            if (counts[t] > logged[t]) {
+                sink.accept(String.format(" ... %d more %s events", counts[t] - logged[t], NAMES[t]));
+            }
+        }
+        for (String message : errors) {
+            sink.accept("Error: " + message);
+        }
+        clear();
+    }
+
+    /** Drops all events, lines and errors. */
+    public void clear() {
+        size = 0;
+        Arrays.fill(counts, 0);
+        lines.clear();
+        errors.clear();
+    }
+
+    /** The log message of event i. */
+    public String message(int i) {
+        switch (type[i]) {
+            case FOUR_BLOCK:
+                return String.format("Unexpected Four-Block: frame %d, (%d %d)", num, x[i], y[i]);
+            case ZB_PIXEL:
+                return String.format("!!! '%c' pixel found: frame %d, (%d %d)", (char) value[i], num, x[i], y[i]);
+            case SMALL_CELL:
+                return String.format("Area Smaller than %d around (%d, %d)", value[i], x[i], y[i]);
+            case IRREGULAR_LOOP:
+                return String.format("An irregular loop was detected at %d %d", x[i], y[i]);
+            case UNEXPECTED_LOOP:
+                return String.format("Unexpected Loop at %d %d after %d steps", x[i], y[i], value[i]);
+            case TRACE_ERROR:
+                return String.format("Error at %d %d", x[i], y[i]);
+            default:
+                return String.format("Isolated terminal is found at %d %d. Check for the boundary.", x[i], y[i]);
+        }
+    }
+}
@@ -10,7 +10,8 @@ class Edge_ {
     public int[] vertex_id; // Array to store two vertex IDs
     public List<int[]> X; // List to store two points as int[]
     public char inout; // Changed to char
-    public List<int[]> line_pts; // List to store points along the edge
+    public ContourStore_ contours; // Store holding the points along the edge
+    public int contour; // Index of the edge's contour in the store
     public int[] ncell; // Array to store two cell IDs
     public int dist_along;
     public double sdist;
@@ -25,7 +26,8 @@ class Edge_ {
         this.X.add(new int[] { 0, 0 }); // Initialize with two points
         this.X.add(new int[] { 0, 0 });
         this.inout = 'i';
-        this.line_pts = new ArrayList<>();
+        this.contours = null;
+        this.contour = -1;
         this.ncell = new int[2];
         this.dist_along = 0;
         this.sdist = 0.0;
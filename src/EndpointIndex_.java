@@ -0,0 +1,119 @@
+
+
+import java.util.Arrays;
+
+/**
+ * Index from endpoint pixel to the live contours of a ContourStore_ that start or end there.
+ * Each endpoint has a short linked list of slots kept in increasing contour order, and the
+ * index is updated in place when contours are added or removed.
+ */
+class EndpointIndex_ {
+    private final ContourStore_ conts;
+    private final IntIntMap_ head; // Pixel index -> first slot
+
+    private int[] slotContour;
+    private int[] slotNext;
+    private int slots;
+    private int freeSlot; // Head of the free slot list, -1 if none
+
+    public EndpointIndex_(ContourStore_ conts) {
+        this.conts = conts;
+        this.head = new IntIntMap_(conts.liveCount() * 2);
+        this.slotContour = new int[Math.max(16, conts.liveCount() * 2)];
+        this.slotNext = new int[slotContour.length];
+        this.slots = 0;
+        this.freeSlot = -1;
+        for (int c = 0; c < conts.size(); c++) {
+            if (!conts.isRemoved(c)) {
+                add(c);
+            }
+        }
+    }
+
+    /** Registers both endpoints of contour c (once for a loop). */
+    public void add(int c) {
+        int front = conts.first(c);
+        int back = conts.last(c);
+        link(front, c);
+        if (back != front) { // Avoid duplicating if contour is a loop
+            link(back, c);
+        }
+    }
+
+    /** Unregisters both endpoints of contour c. */
+    public void remove(int c) {
+        int front = conts.first(c);
+        int back = conts.last(c);
+        unlink(front, c);
+        if (back != front) {
+            unlink(back, c);
+        }
+    }
+
+    /**
+     * Copies the contours ending at pixel p into out, in increasing order.
+     *
+     * @return The number of contours (may exceed out.length; only the first out.length are copied).
+     */
+    public int contoursAt(int p, int[] out) {
+        int n = 0;
+        for (int s = head.get(p); s >= 0; s = slotNext[s]) {
+            if (n < out.length) {
+                out[n] = slotContour[s];
+            }
+            n++;
+        }
+        return n;
+    }
+
+    private void link(int p, int c) {
+        int s = newSlot();
+        slotContour[s] = c;
+        int prev = -1;
+        int cur = head.get(p);
+        while (cur >= 0 && slotContour[cur] < c) {
+            prev = cur;
+            cur = slotNext[cur];
+        }
+        slotNext[s] = cur;
+        if (prev < 0) {
+            head.put(p, s);
+        } else {
+            slotNext[prev] = s;
+        }
+    }
+
+    private void unlink(int p, int c) {
+        int prev = -1;
+        int cur = head.get(p);
+        while (cur >= 0 && slotContour[cur] != c) {
+            prev = cur;
+            cur = slotNext[cur];
+        }
+        if (cur < 0) {
+            return;
+        }
+        if (prev >= 0) {
+            slotNext[prev] = slotNext[cur];
+        } else if (slotNext[cur] >= 0) {
+            head.put(p, slotNext[cur]);
+        } else {
+            head.remove(p);
+        }
+        slotNext[cur] = freeSlot;
+        freeSlot = cur;
+    }
+
+    private int newSlot() {
+        if (freeSlot >= 0) {
+            int s = freeSlot;
+            freeSlot = slotNext[s];
+            return s;
+        }
+        if (slots == slotContour.length) {
+            slotContour = Arrays.copyOf(slotContour, slots * 2);
+            slotNext = Arrays.copyOf(slotNext, slots * 2);
+        }
+        return slots++;
+    }
+}
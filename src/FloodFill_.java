@@ -0,0 +1,206 @@
+
+
+import ij.process.ImageProcessor;
+import java.awt.Rectangle;
+
+/**
+ * 4-connected scanline flood fill working directly on the raster.
+ * The span stack is a primitive int array that is reused between fills,
+ * so one instance should be kept per thread and used for all fills of a frame.
+ */
+class FloodFill_ {
+    public int minX, minY, maxX, maxY; // Bounding box of the last fill (inclusive)
+    public int count;                  // Number of pixels changed by the last fill
+
+    private int[] stack;
+    private int sp;
+
+    public FloodFill_() {
+        this.stack = new int[1024];
+        this.sp = 0;
+    }
+
+    /**
+     * Fills the 4-connected region containing (x, y) that has the same value as (x, y).
+     *
+     * @param pixels   8-bit raster.
+     * @param width    Image width.
+     * @param height   Image height.
+     * @param x        Starting x coordinate.
+     * @param y        Starting y coordinate.
+     * @param newValue Value written to the region (0-255).
+     * @return The number of filled pixels.
+     */
+    public int fill(byte[] pixels, int width, int height, int x, int y, int newValue) {
+        byte target = pixels[y * width + x];
+        byte value = (byte) newValue;
+        begin(x, y);
+        if (target == value) {
+            return 0;
+        }
+        push(y * width + x);
+        while (sp > 0) {
+            int id = stack[--sp];
+            if (pixels[id] != target) continue;
+            int cy = id / width;
+            int row = cy * width;
+            int xl = id - row;
+            int xr = xl;
+            while (xl > 0 && pixels[row + xl - 1] == target) xl--;
+            while (xr < width - 1 && pixels[row + xr + 1] == target) xr++;
+            for (int i = row + xl; i <= row + xr; i++) {
+                pixels[i] = value;
+            }
+            span(xl, xr, cy);
+            if (cy > 0) {
+                int nrow = row - width;
+                boolean inRun = false;
+                for (int i = xl; i <= xr; i++) {
+                    boolean hit = pixels[nrow + i] == target;
+                    if (hit && !inRun) push(nrow + i);
+                    inRun = hit;
+                }
+            }
+            if (cy < height - 1) {
+                int nrow = row + width;
+                boolean inRun = false;
+                for (int i = xl; i <= xr; i++) {
+                    boolean hit = pixels[nrow + i] == target;
+                    if (hit && !inRun) push(nrow + i);
+                    inRun = hit;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Fills the 4-connected region containing (x, y) that has the same value as (x, y).
+     *
+     * @param pixels   Label raster.
+     * @param width    Image width.
+     * @param height   Image height.
+     * @param x        Starting x coordinate.
+     * @param y        Starting y coordinate.
+     * @param newValue Value written to the region.
+     * @return The number of filled pixels.
+     */
+    public int fill(int[] pixels, int width, int height, int x, int y, int newValue) {
+        int target = pixels[y * width + x];
+        begin(x, y);
+        if (target == newValue) {
+            return 0;
+        }
+        push(y * width + x);
+        while (sp > 0) {
+            int id = stack[--sp];
+            if (pixels[id] != target) continue;
+            int cy = id / width;
+            int row = cy * width;
+            int xl = id - row;
+            int xr = xl;
+            while (xl > 0 && pixels[row + xl - 1] == target) xl--;
+            while (xr < width - 1 && pixels[row + xr + 1] == target) xr++;
+            for (int i = row + xl; i <= row + xr; i++) {
+                pixels[i] = newValue;
+            }
+            span(xl, xr, cy);
+            if (cy > 0) {
+                int nrow = row - width;
+                boolean inRun = false;
+                for (int i = xl; i <= xr; i++) {
+                    boolean hit = pixels[nrow + i] == target;
+                    if (hit && !inRun) push(nrow + i);
+                    inRun = hit;
+                }
+            }
+            if (cy < height - 1) {
+                int nrow = row + width;
+                boolean inRun = false;
+                for (int i = xl; i <= xr; i++) {
+                    boolean hit = pixels[nrow + i] == target;
+                    if (hit && !inRun) push(nrow + i);
+                    inRun = hit;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Fills an ImageProcessor, using the raster directly for 8-bit images and
+     * getPixel/set for other types.
+     *
+     * @return The number of filled pixels.
+     */
+    public int fill(ImageProcessor ip, int x, int y, int newValue) {
+        int width = ip.getWidth();
+        int height = ip.getHeight();
+        Object pixels = ip.getPixels();
+        if (pixels instanceof byte[]) {
+            return fill((byte[]) pixels, width, height, x, y, newValue);
+        }
+
+        int target = ip.getPixel(x, y);
+        begin(x, y);
+        if (target == newValue) {
+            return 0;
+        }
+        push(y * width + x);
+        while (sp > 0) {
+            int id = stack[--sp];
+            int cy = id / width;
+            int cx = id - cy * width;
+            if (ip.getPixel(cx, cy) != target) continue;
+            int xl = cx;
+            int xr = cx;
+            while (xl > 0 && ip.getPixel(xl - 1, cy) == target) xl--;
+            while (xr < width - 1 && ip.getPixel(xr + 1, cy) == target) xr++;
+            for (int i = xl; i <= xr; i++) {
+                ip.set(i, cy, newValue);
+            }
+            span(xl, xr, cy);
+            for (int ny = cy - 1; ny <= cy + 1; ny += 2) {
+                if (ny < 0 || ny >= height) continue;
+                boolean inRun = false;
+                for (int i = xl; i <= xr; i++) {
+                    boolean hit = ip.getPixel(i, ny) == target;
+                    if (hit && !inRun) push(ny * width + i);
+                    inRun = hit;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Copies the bounding box of the last fill into rect.
+     */
+    public void getBounds(Rectangle rect) {
+        rect.setBounds(minX, minY, maxX - minX + 1, maxY - minY + 1);
+    }
+
+    private void begin(int x, int y) {
+        sp = 0;
+        count = 0;
+        minX = maxX = x;
+        minY = maxY = y;
+    }
+
+    private void span(int xl, int xr, int y) {
+        count += xr - xl + 1;
+        if (xl < minX) minX = xl;
+        if (xr > maxX) maxX = xr;
+        if (y < minY) minY = y;
+        if (y > maxY) maxY = y;
+    }
+
+    private void push(int id) {
+        if (sp == stack.length) {
+            int[] grown = new int[stack.length * 2];
+            System.arraycopy(stack, 0, grown, 0, sp);
+            stack = grown;
+        }
+        stack[sp++] = id;
+    }
+}
@@ -0,0 +1,143 @@
+
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs frames through a three-stage pipeline and hands the results to a sink strictly in
+ * frame order: a prefetch thread fetches (decodes) frames in order, a bounded worker pool
+ * computes them, and the calling thread consumes the results. At most two frames per worker
+ * are fetched or computed ahead of the sink, so memory stays bounded.
+ */
+class FrameEngine_ {
+
+    /**
+     * Work done for a single frame. Called from worker threads.
+     */
+    public interface FrameTask<R> {
+        R process(int num) throws Exception;
+    }
+
+    /**
+     * Fetches (decodes) the input of a frame. Called from the prefetch thread in frame order.
+     */
+    public interface FrameSource<S> {
+        S fetch(int num) throws Exception;
+    }
+
+    /**
+     * Work done for a single fetched frame. Called from worker threads.
+     */
+    public interface FrameStage<S, R> {
+        R process(int num, S input) throws Exception;
+    }
+
+    /**
+     * Consumer of finished frames. Called from the calling thread in frame order.
+     * Returning false stops the engine; frames after this one are discarded.
+     */
+    public interface FrameSink<R> {
+        boolean accept(int num, R result) throws Exception;
+    }
+
+    /**
+     * Processes frames first..last (inclusive).
+     *
+     * @param first   First frame number.
+     * @param last    Last frame number.
+     * @param threads Number of worker threads.
+     * @param task    The per-frame computation.
+     * @param sink    Receives the results in frame order.
+     * @return True if every frame was accepted by the sink.
+     */
+    public static <R> boolean run(int first, int last, int threads, FrameTask<R> task, FrameSink<R> sink) {
+        return run(first, last, threads, num -> null, (num, input) -> task.process(num), sink);
+    }
+
+    /**
+     * Processes frames first..last (inclusive). A single frame runs on the calling thread.
+     *
+     * @param first   First frame number.
+     * @param last    Last frame number.
+     * @param threads Number of worker threads for the stage.
+     * @param source  Fetches the input of each frame, in order on one prefetch thread.
+     * @param stage   The per-frame computation.
+     * @param sink    Receives the results in frame order.
+     * @return True if every frame was accepted by the sink.
+     */
+    public static <S, R> boolean run(int first, int last, int threads, FrameSource<S> source, FrameStage<S, R> stage, FrameSink<R> sink) {
+        if (last <= first) {
+            for (int num = first; num <= last; num++) {
+                try {
+                    if (!sink.accept(num, stage.process(num, source.fetch(num)))) {
+                        return false;
+                    }
+                } catch (RuntimeException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new RuntimeException("Error at frame " + num, e);
+                }
+            }
+            return true;
+        }
+
+        // Keep at most two frames per worker in flight so memory stays bounded
+        threads = Math.max(1, threads);
+        int window = 2 * threads;
+        ExecutorService prefetch = Executors.newSingleThreadExecutor();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        Deque<Future<R>> inFlight = new ArrayDeque<>();
+        int next = first;
+        try {
+            while (next <= last && inFlight.size() < window) {
+                inFlight.add(submit(prefetch, pool, source, stage, next++));
+            }
+            int num = first;
+            while (!inFlight.isEmpty()) {
+                R result = await(inFlight.poll(), num);
+                if (!sink.accept(num, result)) {
+                    return false;
+                }
+                num++;
+                if (next <= last) {
+                    inFlight.add(submit(prefetch, pool, source, stage, next++));
+                }
+            }
+            return true;
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        } finally {
+            for (Future<R> f : inFlight) {
+                f.cancel(true);
+            }
+            prefetch.shutdownNow();
+            pool.shutdownNow();
+        }
+    }
+
+    private static <S, R> Future<R> submit(ExecutorService prefetch, ExecutorService pool, FrameSource<S> source, FrameStage<S, R> stage, int num) {
+        Future<S> input = prefetch.submit(() -> source.fetch(num));
+        return pool.submit(() -> stage.process(num, await(input, num)));
+    }
+
+    private static <T> T await(Future<T> future, int num) throws InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException("Error at frame " + num, cause);
+        }
+    }
+}
@@ -0,0 +1,39 @@
+
+
+import ij.ImagePlus;
+import ij.process.ImageProcessor;
+import java.awt.Point;
+import java.util.List;
+
+class FrameResult_ {
+    public int num;
+    public ImageProcessor source; // Original (uncropped) frame
+    public ImagePlus image; // Cropped and boundary-processed image, null if the frame was rejected before
+    public Point cpt; // Crop offset
+    public Mesh_ mesh; // null if vertex extraction failed
+    public List<VCell_> cells; // Object view of mesh
+    public List<Vertex_> vertices;
+    public List<Edge_> edges;
+    public StageTimer_ timings; // Time, allocations and item counts per stage, outputs included
+    public Diagnostics_ diagnostics; // Defects found while processing, logged when the frame is saved
+    public boolean tiled; // Extracted by TiledMesh_: only mesh is set (no image, source or object views)
+
+    public FrameResult_(int num, ImageProcessor source) {
+        this.num = num;
+        this.source = source;
+        this.image = null;
+        this.cpt = new Point(0, 0);
+        this.mesh = null;
+        this.cells = null;
+        this.vertices = null;
+        this.edges = null;
+        this.timings = new StageTimer_();
+        this.diagnostics = new Diagnostics_(num);
+        this.tiled = false;
+    }
+
+    /** True if every stage finished and all outputs can be written (for tiled frames, the mesh outputs). */
+    public boolean isComplete() {
+        return tiled ? mesh != null : image != null && cells != null;
+    }
+}
@@ -0,0 +1,329 @@
+
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.ImageStack;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Headless command-line runner for GetVertex.
+ * Runs the same pipeline as the plugin without SaveDialog or image windows.
+ *
+ * Usage: java -cp ij.jar:Get_Vertex.jar GetVertexCLI_ [options] input...
+ */
+public class GetVertexCLI_ {
+
+    private static final String USAGE =
+        "Usage: GetVertexCLI_ [options] <input file or glob>...\n"
+        + "  -o, --output DIR       Output directory (required)\n"
+        + "  --crop / --no-crop     Crop frames to the non-zero bounding box (default: crop)\n"
+        + "  --min-cell-size N      Minimum cell area (default: " + GetVertex_.MINIMAL_CELL_SIZE + ")\n"
+        + "  --no-polygon-image     Do not render the polygon images (_Polygon_Frame_*.png)\n"
+        + "  --no-vertex-image      Do not render the vertex images (Vertex_*.png)\n"
+        + "  --binary               Also write the binary mesh (.mesh) of each frame\n"
+        + "  --archive              Write each stack into one .gvstack archive instead of per-frame .txt / .bmp files\n"
+        + "  --key-interval N       Frames per keyframe in the archive (default: " + GetVertex_.ARCHIVE_KEY_INTERVAL + ")\n"
+        + "  --threads N            Worker threads, per frame for stacks and inside the frame otherwise (default: " + GetVertex_.FRAME_THREADS + ")\n"
+        + "  --io-threads N         Output writer threads for stacks, 0 to write in the frame loop (default: " + GetVertex_.IO_THREADS + ")\n"
+        + "  --tracks               Stacks: link the cells of consecutive frames and write their track IDs (_tracks.txt)\n"
+        + "  --events               Stacks: detect T1 swaps, divisions and extrusions between frames (_events.txt)\n"
+        + "  --incremental          Stacks: re-extract only the cells that changed since the previous frame (frames run in order)\n"
+        + "  --timings              Write per-stage timings of each frame (_timings.json) and of each stack\n"
+        + "  --tile N               Extract frames in N x N tiles and stitch the mesh; uncompressed 8-bit TIFFs are read\n"
+        + "                         from disk tile by tile (only .txt / .mesh are written; no archive, tracks or events)\n"
+        + "  --halo N               Extra pixels read around each tile, over 4x the largest cell diameter (default: " + GetVertex_.TILE_HALO + ")\n"
+        + "  -h, --help             Show this message\n";
+
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+
+        String outputDir = null;
+        boolean crop = GetVertex_.CROP;
+        int minimalCellSize = GetVertex_.MINIMAL_CELL_SIZE;
+        int threads = GetVertex_.FRAME_THREADS;
+        int ioThreads = GetVertex_.IO_THREADS;
+        boolean incremental = GetVertex_.INCREMENTAL;
+        int tile = GetVertex_.TILE_SIZE;
+        int halo = GetVertex_.TILE_HALO;
+        OutputOptions_ options = new OutputOptions_(false);
+        List<String> patterns = new ArrayList<>();
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String a = args[i];
+                if (a.equals("-o") || a.equals("--output")) {
+                    outputDir = value(args, ++i, a);
+                } else if (a.equals("--crop")) {
+                    crop = true;
+                } else if (a.equals("--no-crop")) {
+                    crop = false;
+                } else if (a.equals("--min-cell-size")) {
+                    minimalCellSize = Integer.parseInt(value(args, ++i, a));
+                } else if (a.equals("--no-polygon-image")) {
+                    options.polygonImage = false;
+                } else if (a.equals("--no-vertex-image")) {
+                    options.vertexImage = false;
+                } else if (a.equals("--binary")) {
+                    options.binary = true;
+                } else if (a.equals("--archive")) {
+                    options.archive = true;
+                } else if (a.equals("--tracks")) {
+                    options.tracks = true;
+                } else if (a.equals("--events")) {
+                    options.events = true;
+                } else if (a.equals("--incremental")) {
+                    incremental = true;
+                } else if (a.equals("--timings")) {
+                    options.timings = true;
+                } else if (a.equals("--key-interval")) {
+                    options.keyInterval = Math.max(1, Integer.parseInt(value(args, ++i, a)));
+                } else if (a.equals("--threads")) {
+                    threads = Math.max(1, Integer.parseInt(value(args, ++i, a)));
+                } else if (a.equals("--tile")) {
+                    tile = Math.max(0, Integer.parseInt(value(args, ++i, a)));
+                } else if (a.equals("--halo")) {
+                    halo = Math.max(1, Integer.parseInt(value(args, ++i, a)));
+                } else if (a.equals("--io-threads")) {
+                    ioThreads = Math.max(0, Integer.parseInt(value(args, ++i, a)));
+                } else if (a.equals("-h") || a.equals("--help")) {
+                    System.out.print(USAGE);
+                    return;
+                } else if (a.startsWith("-")) {
+                    throw new IllegalArgumentException("Unknown option: " + a);
+                } else {
+                    patterns.add(a);
+                }
+            }
+            if (outputDir == null || patterns.isEmpty()) {
+                throw new IllegalArgumentException("An output directory and at least one input are required.");
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.print(USAGE);
+            System.exit(2);
+            return;
+        }
+
+        File outDir = new File(outputDir);
+        if (!outDir.isDirectory() && !outDir.mkdirs()) {
+            System.err.println("Cannot create output directory: " + outputDir);
+            System.exit(2);
+            return;
+        }
+        String directory = outDir.getPath() + File.separator;
+
+        List<Path> inputs;
+        try {
+            inputs = expandInputs(patterns);
+        } catch (IOException e) {
+            System.err.println("Cannot list inputs: " + e.getMessage());
+            System.exit(2);
+            return;
+        }
+        if (inputs.isEmpty()) {
+            System.err.println("No input files matched.");
+            System.exit(2);
+            return;
+        }
+
+        IJ.log("# CROP? " + crop + " (false: off / true: on)");
+        IJ.log("# minimal_cell_size " + minimalCellSize);
+        IJ.log("# output directory: " + directory);
+
+        int failed = 0;
+        for (Path input : inputs) {
+            boolean ok = tile > 0
+                ? processTiled(input, directory, crop, minimalCellSize, threads, ioThreads, tile, halo, options)
+                : processFile(input, directory, crop, minimalCellSize, threads, ioThreads, incremental, options);
+            if (!ok) {
+                failed++;
+            }
+        }
+        IJ.log("Processing completed. " + (inputs.size() - failed) + " / " + inputs.size() + " inputs succeeded.");
+        System.exit(failed == 0 ? 0 : 1);
+    }
+
+    /**
+     * Runs the whole pipeline on one image file.
+     *
+     * @return True if every frame of the file was processed.
+     */
+    static boolean processFile(Path input, String directory, boolean crop, int minimalCellSize, int threads, int ioThreads,
+            boolean incremental, OutputOptions_ options) {
+        ImagePlus imp = IJ.openImage(input.toString());
+        if (imp == null) {
+            System.err.println("Cannot open image: " + input);
+            return false;
+        }
+
+        String imageTitle = input.getFileName().toString();
+        String title = imageTitle.contains(".") ? imageTitle.substring(0, imageTitle.lastIndexOf('.')) : imageTitle;
+        int stackSize = imp.getStackSize();
+        IJ.log("# filename (w/o path): " + title);
+        IJ.log(" Frame = " + stackSize + " , W x H = " + imp.getWidth() + " x " + imp.getHeight());
+
+        ImageStack stack = imp.getStack();
+        try {
+            try {
+                // Opened inside, so that an opener that fails still closes the ones before it
+                GetVertex_.openArchive(options, directory, title, stackSize);
+                GetVertex_.openTimings(options, directory, title, stackSize);
+                GetVertex_.openTracks(options, directory, title, stackSize);
+                GetVertex_.openWriters(options, stackSize >= 2 ? ioThreads : 0);
+
+                // Incremental extraction carries state from frame to frame: one frame at a time,
+                // with the threads used inside the frame
+                IncrementalMesh_ state = incremental && stackSize >= 2 ? new IncrementalMesh_() : null;
+                int frameThreads = stackSize >= 2 && state == null ? threads : 1;
+                return FrameEngine_.run(1, stackSize, frameThreads,
+                    num -> GetVertex_.fetchFrame(stack, num),
+                    (num, ip) -> GetVertex_.processFrame(ip, num, stackSize, crop, minimalCellSize, frameThreads == 1 ? threads : 1, state,
+                        (options.tracks || options.events) && stackSize >= 2),
+                    (num, frame) -> GetVertex_.saveFrame(frame, directory, title, stackSize, options));
+            } finally {
+                GetVertex_.closeOutputs(options);
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Error in " + input + ": " + describe(e));
+            return false;
+        }
+    }
+
+    /**
+     * Runs the tiled pipeline (TiledMesh_) on one image file. An uncompressed 8-bit TIFF is read
+     * from disk tile by tile; other files are opened as images and tiled in memory.
+     *
+     * @return True if every frame of the file was processed.
+     */
+    static boolean processTiled(Path input, String directory, boolean crop, int minimalCellSize, int threads, int ioThreads,
+            int tile, int halo, OutputOptions_ options) {
+        String imageTitle = input.getFileName().toString();
+        String title = imageTitle.contains(".") ? imageTitle.substring(0, imageTitle.lastIndexOf('.')) : imageTitle;
+        TileSource_ disk;
+        try {
+            disk = TileSource_.openTiff(input.toString());
+        } catch (IOException e) {
+            System.err.println("Cannot open image: " + input + ": " + describe(e));
+            return false;
+        }
+        ImageStack stack = null;
+        int stackSize = 1;
+        String size = disk != null ? disk.width + " x " + disk.height + " (read from disk)" : null;
+        if (disk == null) {
+            ImagePlus imp = IJ.openImage(input.toString());
+            if (imp == null) {
+                System.err.println("Cannot open image: " + input);
+                return false;
+            }
+            stack = imp.getStack();
+            stackSize = imp.getStackSize();
+            size = imp.getWidth() + " x " + imp.getHeight();
+        }
+        IJ.log("# filename (w/o path): " + title);
+        IJ.log(" Frame = " + stackSize + " , W x H = " + size);
+        IJ.log("# tile_size " + tile + ", tile_halo " + halo);
+
+        ImageStack frames = stack;
+        int frameCount = stackSize;
+        String staging = null;
+        boolean ok = false;
+        try {
+            // Staged, so that a frame that fails leaves no partial outputs
+            staging = GetVertex_.openStaging(directory, title);
+            String out = staging;
+            boolean completed = false;
+            try {
+                GetVertex_.openTimings(options, out, title, stackSize);
+                GetVertex_.openWriters(options, stackSize >= 2 ? ioThreads : 0);
+
+                // Frames one at a time, with the threads on the tiles
+                TiledMesh_ tiler = new TiledMesh_(tile, halo, minimalCellSize, threads);
+                completed = FrameEngine_.run(1, stackSize, 1,
+                    num -> disk != null ? disk : TileSource_.of(GetVertex_.fetchFrame(frames, num)),
+                    (num, source) -> tiler.extract(source, num, frameCount, crop),
+                    (num, frame) -> GetVertex_.saveFrame(frame, out, title, frameCount, options));
+            } finally {
+                GetVertex_.closeOutputs(options);
+            }
+            ok = completed;
+        } catch (RuntimeException e) {
+            System.err.println("Error in " + input + ": " + describe(e));
+        } finally {
+            if (staging != null) {
+                try {
+                    GetVertex_.closeStaging(staging, directory, ok);
+                } catch (RuntimeException e) {
+                    System.err.println("Error in " + input + ": " + describe(e));
+                    ok = false;
+                }
+            }
+            if (disk != null) {
+                try {
+                    disk.close();
+                } catch (IOException e) {
+                    System.err.println("Cannot close image: " + input);
+                }
+            }
+        }
+        return ok;
+    }
+
+    /**
+     * Expands plain paths and globs (wildcards in the file name part only) into a sorted list of files.
+     */
+    static List<Path> expandInputs(List<String> patterns) throws IOException {
+        List<Path> inputs = new ArrayList<>();
+        for (String pattern : patterns) {
+            Path path = Paths.get(pattern);
+            String name = path.getFileName().toString();
+            if (!(name.contains("*") || name.contains("?") || name.contains("[") || name.contains("{"))) {
+                inputs.add(path);
+                continue;
+            }
+            Path parent = path.getParent() != null ? path.getParent() : Paths.get(".");
+            List<Path> matched = new ArrayList<>();
+            try (DirectoryStream<Path> ds = Files.newDirectoryStream(parent, name)) {
+                for (Path p : ds) {
+                    if (Files.isRegularFile(p)) {
+                        matched.add(p);
+                    }
+                }
+            }
+            matched.sort(null);
+            inputs.addAll(matched);
+        }
+        return inputs;
+    }
+
+    private static String value(String[] args, int i, String option) {
+        if (i >= args.length) {
+            throw new IllegalArgumentException("Missing value for " + option);
+        }
+        return args[i];
+    }
+
+    /**
+     * The class and message of an exception and of each of its causes, e.g.
+     * "java.lang.RuntimeException: Error writing x.png <- java.io.IOException: No space left".
+     */
+    static String describe(Throwable e) {
+        StringBuilder sb = new StringBuilder(e.getClass().getName());
+        if (e.getMessage() != null) {
+            sb.append(": ").append(e.getMessage());
+        }
+        for (Throwable c = e.getCause(); c != null; c = c.getCause()) {
+            sb.append(" <- ").append(c.getClass().getName());
+            if (c.getMessage() != null) {
+                sb.append(": ").append(c.getMessage());
+            }
+        }
+        return sb.toString();
+    }
+}
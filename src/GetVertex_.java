@@ -3,6 +3,7 @@
 
 import ij.IJ;
 import ij.ImagePlus;
+import ij.ImageStack;
 import ij.WindowManager;
 import ij.io.SaveDialog;
 import ij.process.ImageProcessor;
@@ -10,15 +11,36 @@ import ij.io.FileSaver;
 import ij.gui.Roi;
 import java.awt.Point;
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 public class GetVertex_ implements ij.plugin.PlugIn {
 
     // Parameters
-    private static final boolean CROP = true;           // Enable cropping
-    private static final int MINIMAL_CELL_SIZE = 4;     // Minimum cell area
-    private static final int WAITING_TIME = 1500;       // Waiting time in ms (unused in this example)
+    static final boolean CROP = true;           // Enable cropping
+    static final int MINIMAL_CELL_SIZE = 4;     // Minimum cell area
+    static final int WAITING_TIME = 1500;       // Waiting time in ms (unused in this example)
+    static final boolean BINARY_OUTPUT = false; // Also write the binary mesh (.mesh) next to the .txt
+    static final boolean POLYGON_IMAGE = true;  // Render and save the polygon image (_Polygon_Frame_*.png)
+    static final boolean VERTEX_IMAGE = true;   // Render and save the vertex image (Vertex_*.png)
+    static final boolean ARCHIVE_OUTPUT = false; // Stacks: one .gvstack archive instead of per-frame .txt / .bmp
+    static final int ARCHIVE_KEY_INTERVAL = StackArchive_.DEFAULT_KEY_INTERVAL; // Frames per keyframe in the archive
+    static final int FRAME_THREADS = Runtime.getRuntime().availableProcessors(); // Worker threads for stacks (1: sequential)
+    static final int IO_THREADS = 2;            // Output writer threads for stacks (0: write on the frame loop thread)
+    static final boolean TIMINGS_OUTPUT = false; // Write per-stage timings (_timings.json) per frame and per stack
+    static final boolean TRACK_OUTPUT = false;  // Stacks: link the cells of consecutive frames and write their track IDs (title_tracks.txt)
+    static final boolean EVENT_OUTPUT = false;  // Stacks: detect T1 swaps, divisions and extrusions between frames (title_events.txt)
+    static final boolean INCREMENTAL = false;   // Stacks: re-extract only the cells that changed since the previous frame (frames run in order)
+    static final int TILE_SIZE = 0;             // Extract frames in tiles of this size, stitching the mesh (0: whole frames; .txt / .mesh only)
+    static final int TILE_HALO = TiledMesh_.DEFAULT_HALO; // Extra pixels read around each tile (more than four times the largest cell diameter)
+
+    private String directory = "";
+    private String outputDirectory = null; // Tiled stacks: where the staged outputs in directory go
+    private OutputOptions_ options;
 
     @Override
     public void run(String arg) {
@@ -44,91 +66,616 @@ public class GetVertex_ implements ij.plugin.PlugIn {
         IJ.log("Image size ");
         IJ.log(" Frame = " + stackSize);
         IJ.log(" , W x H = " + imp.getWidth() + " x " + imp.getHeight());
-        String directory = "";
-        String filename_index = "";
-        // Process each frame
-        for (int num = 1; num <= stackSize; num++) {
-            
-            if(stackSize >= 2){
-                filename_index = "_" + String.format("%04d", num);
+        boolean tiled = TILE_SIZE > 0;
+        boolean incremental = INCREMENTAL && stackSize >= 2 && !tiled;
+        int frameThreads = stackSize >= 2 && !incremental && !tiled ? FRAME_THREADS : 1;
+        IJ.log("# frame_threads " + frameThreads + " (1: sequential)");
+        IJ.log("# incremental " + incremental);
+        IJ.log("# tile_size " + TILE_SIZE + " (0: whole frames), tile_halo " + TILE_HALO);
+
+        // Process each frame; frames are prefetched, computed on the worker pool, and saved here
+        // in frame order, with the files written on the I/O threads
+        ImageStack stack = imp.getStack();
+        options = new OutputOptions_(true);
+        openWriters(options, stackSize >= 2 ? IO_THREADS : 0);
+        boolean completed = false;
+        try {
+            if(tiled){
+                // Frames one at a time, with the threads on the tiles
+                TiledMesh_ tiler = new TiledMesh_(TILE_SIZE, TILE_HALO, MINIMAL_CELL_SIZE, FRAME_THREADS);
+                completed = FrameEngine_.run(1, stackSize, 1,
+                    num -> TileSource_.of(fetchFrame(stack, num)),
+                    (num, source) -> tiler.extract(source, num, stackSize, CROP),
+                    (num, frame) -> saveFrame(frame, title, stackSize));
+            }else{
+                IncrementalMesh_ state = incremental ? new IncrementalMesh_() : null;
+                completed = FrameEngine_.run(1, stackSize, frameThreads,
+                    num -> fetchFrame(stack, num),
+                    (num, ip) -> processFrame(ip, num, stackSize, CROP, MINIMAL_CELL_SIZE, frameThreads == 1 ? FRAME_THREADS : 1, state,
+                        (options.tracks || options.events) && stackSize >= 2),
+                    (num, frame) -> saveFrame(frame, title, stackSize));
+            }
+        } finally {
+            boolean closed = false;
+            try {
+                closeOutputs(options);
+                closed = true;
+            } finally {
+                if(outputDirectory != null){
+                    closeStaging(directory, outputDirectory, completed && closed);
+                    directory = outputDirectory;
+                    outputDirectory = null;
+                }
+            }
+        }
+        if(!completed){
+            return;
+        }
+
+        IJ.log("Processing completed.");
+    }
+
+    /**
+     * Fetches (and for virtual stacks, reads and decodes) a frame of the stack.
+     *
+     * @param stack The image stack.
+     * @param num   Frame number (1-based).
+     * @return The frame.
+     */
+    static ImageProcessor fetchFrame(ImageStack stack, int num) {
+        synchronized (stack) {
+            return stack.getProcessor(num);
+        }
+    }
+
+    /**
+     * Runs crop, boundary processing and vertex extraction for a fetched frame, re-extracting only
+     * the cells that changed since the previous frame when an IncrementalMesh_ is given.
+     * With an IncrementalMesh_, frames must be passed in order from one thread.
+     *
+     * @param ip                The frame.
+     * @param num               Frame number (1-based).
+     * @param stackSize         Number of frames in the stack.
+     * @param crop              Whether to crop the frame to its non-zero bounding box.
+     * @param minimal_cell_size Threshold for minimum cell area.
+     * @param threads           Number of threads used inside the frame (1 when frames run in parallel).
+     * @param incremental       State carried over from the previous frame, or null to extract every frame from scratch.
+     * @param keepCellID        Keep the cell ID raster on the mesh (mesh.cellID) for Tracker_.
+     * @return The frame result; stages that were not reached are left null.
+     */
+    static FrameResult_ processFrame(ImageProcessor ip, int num, int stackSize, boolean crop, int minimal_cell_size, int threads,
+            IncrementalMesh_ incremental, boolean keepCellID) {
+        FrameResult_ frame = null;
+        Diagnostics_ diagnostics = new Diagnostics_(num); // Kept if the incremental update falls back
+        if(incremental != null){
+            frame = incremental.update(ip, num, stackSize, minimal_cell_size, threads, diagnostics);
+        }
+        if(frame == null){
+            frame = extractFrame(ip, num, stackSize, crop, minimal_cell_size, threads, diagnostics);
+            if(incremental != null){
+                incremental.remember(frame);
             }
+        }
+        if(frame.mesh != null){
+            // The pixel planes are only needed by IncrementalMesh_, which keeps (and updates) its own
+            frame.mesh.ctypes = null;
+            if(!keepCellID){
+                frame.mesh.cellID = null;
+            }else if(incremental != null){
+                frame.mesh.cellID = frame.mesh.cellID.clone();
+            }
+        }
+        return frame;
+    }
 
-            IJ.log("## frame: " + num + " / " + stackSize);
+    // Full extraction of one frame (see processFrame)
+    private static FrameResult_ extractFrame(ImageProcessor ip, int num, int stackSize, boolean crop, int minimal_cell_size, int threads,
+            Diagnostics_ diagnostics) {
+        FrameResult_ frame = new FrameResult_(num, ip);
+        frame.diagnostics = diagnostics;
+        frame.diagnostics.log("## frame: " + num + " / " + stackSize);
 
-            // Get ImageProcessor for the current frame
-            ImageProcessor ip = imp.getStack().getProcessor(num);
-            ImagePlus currentFrame = new ImagePlus("Slice " + num, ip);
+        ImagePlus currentFrame = new ImagePlus("Slice " + num, ip);
 
-            // Crop the image
-            ImageUtils_.Pair<ImagePlus, Point> croppedResult = ImageUtils_.utlCropImage(currentFrame, CROP);
-            ImagePlus croppedImage = croppedResult.first;
-            Point cpt = croppedResult.second;
-            IJ.log(" img: W x H = " + croppedImage.getWidth() + " x " + croppedImage.getHeight());
+        // Pre-scan 8-bit frames once for the crop bounds and all input defects
+        StageTimer_.Split split = frame.timings.start("utlCropImage");
+        PreScan_ scan = null;
+        if(ip.getPixels() instanceof byte[]){
+            scan = PreScan_.scan((byte[]) ip.getPixels(), ip.getWidth(), ip.getHeight());
+        }
 
-            // Display cropped image
-            // croppedImage.show();
+        // Crop the image
+        ImageUtils_.Pair<ImagePlus, Point> croppedResult = (scan != null)
+            ? ImageUtils_.utlCropImage(currentFrame, crop, scan)
+            : ImageUtils_.utlCropImage(currentFrame, crop);
+        ImagePlus croppedImage = croppedResult.first;
+        Point cpt = croppedResult.second;
+        frame.cpt = cpt;
+        split.count("pixels", (long) ip.getWidth() * ip.getHeight()).stop();
+        frame.diagnostics.log(" img: W x H = " + croppedImage.getWidth() + " x " + croppedImage.getHeight());
 
-            // Check for four-block patterns
-            if(ImageUtils_.utlCheckFourBlock(croppedImage.getProcessor(), num, cpt)){
-                return;
+        // Check for four-block and z/b patterns
+        split = frame.timings.start("utlCheckFourBlock");
+        boolean rejected;
+        if(scan != null){
+            ImageUtils_.utlCheckPatterns(scan, frame.diagnostics);
+            rejected = ImageUtils_.utlCheckFourBlock(scan, frame.diagnostics);
+        }else{
+            rejected = ImageUtils_.utlCheckFourBlock(croppedImage.getProcessor(), cpt, frame.diagnostics);
+        }
+        split.stop();
+        if(rejected){
+            return frame;
+        }
+
+        // Boundary processing
+        frame.diagnostics.log(" > Start Boundary Deletion");
+        split = frame.timings.start("utlBoundaryProcessing");
+        ImageProcessor boundaryProcessedIP = ImageUtils_.utlBoundaryProcessing(croppedImage, cpt, frame.diagnostics);
+        split.count("pixels", (long) croppedImage.getWidth() * croppedImage.getHeight()).stop();
+        if(boundaryProcessedIP == null){
+            return frame;
+        }
+        croppedImage.setProcessor(boundaryProcessedIP);
+        frame.image = croppedImage;
+        frame.diagnostics.log(" ... Finish Boundary Deletion");
+
+        // Get Vertex properties
+        frame.diagnostics.log(" > Start Getting Vertex properties");
+        split = frame.timings.start("vxSet_Vertex");
+        Mesh_ mesh = ImageUtils_.vxSet_Mesh(croppedImage, minimal_cell_size, cpt, threads, frame.timings, frame.diagnostics);
+        if(mesh == null){
+            split.stop();
+            return frame;
+        }
+        frame.mesh = mesh;
+        frame.vertices = mesh.toVertices();
+        frame.edges = mesh.toEdges();
+        frame.cells = mesh.toCells(frame.vertices, frame.edges);
+        split.count("vertices", mesh.vertexCount).count("edges", mesh.edgeCount).count("cells", mesh.cellCount).stop();
+        frame.diagnostics.log(" ... Finish Getting Vertex properties");
+        return frame;
+    }
+
+    /**
+     * Asks for the output directory on the first frame and saves the outputs of a processed frame.
+     *
+     * @param frame     The processed frame.
+     * @param title     Image title without extension.
+     * @param stackSize Number of frames in the stack.
+     * @return False if the frame was rejected and processing should stop.
+     */
+    private boolean saveFrame(FrameResult_ frame, String title, int stackSize) {
+        frame.diagnostics.flush();
+        if(frame.image == null && !(frame.tiled && frame.mesh != null)){
+            return false;
+        }
+        if(frame.num == 1){
+            String filename_index = stackSize >= 2 ? "_" + String.format("%04d", frame.num) : "";
+            SaveDialog sd = new SaveDialog("Save Output", title + filename_index + ".bmp", ".bmp");
+
+            // Get the directory and file name from the save dialog
+            directory = sd.getDirectory();
+            if(frame.tiled){
+                // Staged, so that a frame that fails leaves no partial outputs
+                outputDirectory = directory;
+                directory = openStaging(outputDirectory, title);
+            }else{
+                openArchive(options, directory, title, stackSize);
+                openTracks(options, directory, title, stackSize);
             }
+            openTimings(options, directory, title, stackSize);
+        }
+        return saveFrame(frame, directory, title, stackSize, options);
+    }
 
-            // Boundary processing
-            IJ.log(" > Start Boundary Deletion");
-            ImageProcessor boundaryProcessedIP = ImageUtils_.utlBoundaryProcessing(croppedImage, cpt);
-            if(boundaryProcessedIP == null){
-                return;
+    /**
+     * Opens the stack archive (title.gvstack) if options ask for one and the image is a stack.
+     */
+    static void openArchive(OutputOptions_ options, String directory, String title, int stackSize) {
+        if(!options.archive || stackSize < 2){
+            return;
+        }
+        String archiveFilename = directory + title + ".gvstack";
+        try {
+            options.stackArchive = StackArchive_.create(archiveFilename, options.keyInterval);
+        } catch (IOException e) {
+            throw new RuntimeException("Error writing to file: " + archiveFilename, e);
+        }
+        IJ.log(" > Output stack archive: " + archiveFilename);
+    }
+
+    /**
+     * Starts the roll-up of the stage timings (title_timings.json) if options ask for timings
+     * and the image is a stack.
+     */
+    static void openTimings(OutputOptions_ options, String directory, String title, int stackSize) {
+        if(!options.timings || stackSize < 2){
+            return;
+        }
+        options.stackTimings = new StageTimer_();
+        options.stackTimingsFilename = directory + title + "_timings.json";
+    }
+
+    /**
+     * Starts tracking if options ask for tracks or events and the image is a stack, and opens
+     * the track file (title_tracks.txt) and the event log (title_events.txt) they ask for.
+     */
+    static void openTracks(OutputOptions_ options, String directory, String title, int stackSize) {
+        if(!(options.tracks || options.events) || stackSize < 2){
+            return;
+        }
+        String tracksFilename = directory + title + "_tracks.txt";
+        String eventsFilename = directory + title + "_events.txt";
+        try {
+            options.tracker = options.tracks ? new Tracker_(tracksFilename) : new Tracker_();
+            if(options.events){
+                options.topology = new TopologyEvents_(eventsFilename);
+            }
+        } catch (IOException e) {
+            // Named before closeTracks clears options.tracker
+            String failed = options.tracker == null ? tracksFilename : eventsFilename;
+            closeTracks(options);
+            throw new RuntimeException("Error writing to file: " + failed, e);
+        }
+        if(options.tracks){
+            IJ.log(" > Output tracks: " + tracksFilename);
+        }
+        if(options.events){
+            IJ.log(" > Output events: " + eventsFilename);
+        }
+    }
+
+    /**
+     * Starts the I/O threads that write the outputs of options (none: write on the calling thread).
+     */
+    static void openWriters(OutputOptions_ options, int threads) {
+        options.writes = threads > 0 ? new WriteQueue_(threads) : null;
+    }
+
+    /**
+     * Waits for all queued writes, then writes the timing roll-up and completes and closes the
+     * stack archive of options.
+     */
+    static void closeOutputs(OutputOptions_ options) {
+        try {
+            if(options.writes != null){
+                options.writes.close();
+            }
+        } finally {
+            options.writes = null;
+            try {
+                // Also after a failed write: the frames saved so far are in the roll-up
+                if(options.stackTimings != null){
+                    options.stackTimings.writeJson(options.stackTimingsFilename, "frames", options.stackTimings.frames());
+                    IJ.log(" > Output stage timings: " + options.stackTimingsFilename);
+                }
+            } finally {
+                options.stackTimings = null;
+                try {
+                    closeTracks(options);
+                } finally {
+                    closeArchive(options);
+                }
+            }
+        }
+    }
+
+    /**
+     * Closes the track file and the event log of options, if any.
+     */
+    static void closeTracks(OutputOptions_ options) {
+        try {
+            if(options.topology != null){
+                options.topology.close();
+            }
+            if(options.tracker != null){
+                options.tracker.close();
             }
-            croppedImage.setProcessor(boundaryProcessedIP);
-            IJ.log(" ... Finish Boundary Deletion");
+        } catch (IOException e) {
+            throw new RuntimeException("Error closing the track file", e);
+        } finally {
+            options.topology = null;
+            options.tracker = null;
+        }
+    }
 
-            // Show and save the boundary-processed image
-            IJ.log(" Show input images, surroundings are processed");
-            // croppedImage.show();
-            String bmpFilename = title + filename_index + ".bmp";
+    /**
+     * Completes and closes the stack archive of options, if any.
+     */
+    static void closeArchive(OutputOptions_ options) {
+        if(options.stackArchive == null){
+            return;
+        }
+        try {
+            options.stackArchive.close();
+        } catch (IOException e) {
+            throw new RuntimeException("Error closing the stack archive", e);
+        } finally {
+            options.stackArchive = null;
+        }
+    }
+
+    /**
+     * Creates a staging directory for the outputs of title: a hidden subdirectory of directory,
+     * so that publishing them is a rename on the same file system. Tiled stacks are written there
+     * and appear in directory only once every frame is done (closeStaging).
+     *
+     * @return The staging directory, with a trailing separator.
+     */
+    static String openStaging(String directory, String title) {
+        File staging = new File(directory, "." + title + "_tiled.part");
+        if(staging.exists()){
+            // Left over from an interrupted run
+            deleteStaging(staging);
+        }
+        if(!staging.mkdirs()){
+            throw new RuntimeException("Cannot create directory: " + staging);
+        }
+        return staging.getPath() + File.separator;
+    }
+
+    /**
+     * Moves the files of a staging directory (openStaging) to directory if publish is set, then
+     * removes the staging directory with whatever is left in it.
+     */
+    static void closeStaging(String staging, String directory, boolean publish) {
+        File dir = new File(staging);
+        try {
+            File[] files = dir.listFiles();
+            if(publish && files != null){
+                for(File f : files){
+                    Files.move(f.toPath(), new File(directory, f.getName()).toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+                IJ.log(" > Moved " + files.length + " output files to " + directory);
+            }else{
+                IJ.log(" > Discarded the outputs in " + staging);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Error moving the outputs to " + directory, e);
+        } finally {
+            deleteStaging(dir);
+        }
+    }
 
-            if(num == 1){
-                SaveDialog sd = new SaveDialog("Save Output", bmpFilename, ".bmp");
-                
-                // Get the directory and file name from the save dialog
-                directory = sd.getDirectory();
+    private static void deleteStaging(File dir) {
+        File[] files = dir.listFiles();
+        if(files != null){
+            for(File f : files){
+                f.delete();
             }
-            FileSaver bmpSaver = new FileSaver(croppedImage);
-            bmpSaver.saveAsBmp(directory + bmpFilename);
+        }
+        dir.delete();
+    }
+
+    /**
+     * Logs the diagnostics and saves the outputs of a processed frame. Must be called in frame order.
+     * With I/O threads in options, the files are queued and written later.
+     *
+     * @param frame     The processed frame.
+     * @param directory Output directory (with trailing separator).
+     * @param title     Image title without extension.
+     * @param stackSize Number of frames in the stack.
+     * @param options   Which outputs to write.
+     * @return False if the frame was rejected and processing should stop.
+     */
+    static boolean saveFrame(FrameResult_ frame, String directory, String title, int stackSize, OutputOptions_ options) {
+        frame.diagnostics.flush();
+        boolean show = options.show;
+        int num = frame.num;
+        String filename_index = "";
+        if(stackSize >= 2){
+            filename_index = "_" + String.format("%04d", num);
+        }
+        if(frame.image == null && !(frame.tiled && frame.mesh != null)){
+            return false;
+        }
+        Point cpt = frame.cpt;
+        String timingsFilename = options.timings ? directory + title + filename_index + "_timings.json" : null;
+        FrameWrites writes = new FrameWrites(frame, options, timingsFilename);
+        try {
+            return saveOutputs(frame, directory, title, filename_index, writes, show, cpt);
+        } finally {
+            writes.release();
+        }
+    }
+
+    // Queues the output files of saveFrame
+    private static boolean saveOutputs(FrameResult_ frame, String directory, String title, String filename_index,
+            FrameWrites writes, boolean show, Point cpt) {
+        OutputOptions_ options = writes.options;
+        int num = frame.num;
+        int pixels = frame.image == null ? 0 : frame.image.getWidth() * frame.image.getHeight();
+
+        // Show and save the boundary-processed image (with the mesh, if archived). Tiled frames
+        // have no frame image and no object views: only the mesh outputs (.txt, .mesh) are written
+        IJ.log(" Show input images, surroundings are processed");
+        // frame.image.show();
+        StackArchive_ archive = options.stackArchive;
+        if(archive != null && !frame.tiled){
+            // Delta records depend on the previous frame, so archive writes keep their order
+            writes.submitOrdered("StackArchive_.add", () -> {
+                try {
+                    archive.add(frame);
+                } catch (IOException e) {
+                    throw new RuntimeException("Error writing to the stack archive", e);
+                }
+            }).count("pixels", pixels);
+            IJ.log(" Added frame " + num + " to the stack archive");
+        }else if(frame.image != null){
+            String bmpFilename = title + filename_index + ".bmp";
+
+            writes.submit("saveAsBmp", () -> new FileSaver(frame.image).saveAsBmp(directory + bmpFilename)).count("pixels", pixels);
             IJ.log(" Saved boundary-processed image as: " + directory + bmpFilename);
+        }
 
-            // Get Vertex properties
-            IJ.log(" > Start Getting Vertex properties");
-            ImageUtils_.Triple<List<VCell_>, List<Vertex_>, List<Edge_>> vertexResult =
-                ImageUtils_.vxSet_Vertex(croppedImage, MINIMAL_CELL_SIZE, cpt);
-            if(vertexResult == null){
-                return;
+        if(!frame.isComplete()){
+            return false;
+        }
+
+        // Link the cells to the previous frame (in frame order, here) and write their track IDs
+        Tracker_ tracker = options.tracker;
+        if(tracker != null && !frame.tiled){
+            StageTimer_.Split split = frame.timings.start("Tracker_.track");
+            int linked = tracker.track(frame);
+            split.count("cells", frame.mesh.cellCount).stop();
+            IJ.log(String.format(" > Tracks: %d cells linked to the previous frame, %d tracks in total", linked, tracker.trackCount));
+            writes.submitOrdered("Tracker_.write", () -> {
+                try {
+                    tracker.write(frame);
+                } catch (IOException e) {
+                    throw new RuntimeException("Error writing the track file", e);
+                }
+            }).count("cells", frame.mesh.cellCount);
+
+            // Topological events against the previous frame
+            TopologyEvents_ topology = options.topology;
+            if(topology != null){
+                split = frame.timings.start("TopologyEvents_.detect");
+                TopologyEvents_.Batch events = topology.detect(frame, tracker);
+                split.count("cells", frame.mesh.cellCount).count("events", events.size).stop();
+                IJ.log(String.format(" > Events: %d T1, %d divisions, %d extrusions", events.counts[TopologyEvents_.T1],
+                    events.counts[TopologyEvents_.DIVISION], events.counts[TopologyEvents_.EXTRUSION]));
+                writes.submitOrdered("TopologyEvents_.write", () -> {
+                    try {
+                        topology.write(events);
+                    } catch (IOException e) {
+                        throw new RuntimeException("Error writing the event log", e);
+                    }
+                }).count("events", events.size);
             }
-            List<VCell_> cells = vertexResult.first;
-            List<Vertex_> junctions = vertexResult.second;
-            List<Edge_> edges = vertexResult.third;
-            IJ.log(" ... Finish Getting Vertex properties");
+        }
 
-            // Draw Polygon (Optional: Visualize edges)
-            ImageUtils_.vxDraw_Polygon(edges, croppedImage, directory + title + "_Polygon_Frame_" + String.format("%04d", num) + ".png", cpt);
+        // Draw Polygon (Optional: Visualize edges)
+        if(options.polygonImage && !frame.tiled){
+            String polygonFilename = title + "_Polygon_Frame_" + String.format("%04d", num) + ".png";
+            writes.submit("vxDraw_Polygon", () -> ImageUtils_.vxDraw_Polygon(frame.edges, frame.image, directory + polygonFilename, cpt, show))
+                .count("pixels", pixels).count("edges", frame.edges.size());
             IJ.log(" ... Draw Polygon and save as PNG");
+        }
 
-            // Output data to file
-            String outputFilename = title + filename_index + ".txt";
-
-            ImageUtils_.vxOutputDatas(directory + outputFilename, junctions, edges, cells, cpt);
+        // Output data to file
+        String outputFilename = title + filename_index + ".txt";
+        if(options.stackArchive == null){
+            // The numbers are logged here, in frame order; the writer checks them again and fails on a mismatch
+            ImageUtils_.check_numbers(frame.mesh, IJ::log);
+            writes.submit("vxOutputDatas", () -> ImageUtils_.vxOutputDatas(directory + outputFilename, frame.mesh, cpt))
+                .count("vertices", frame.mesh.vertexCount).count("edges", frame.mesh.edgeCount).count("cells", frame.mesh.cellCount);
             IJ.log(" > Output data file: " + directory + outputFilename);
+        }
+        if(options.binary && options.stackArchive == null){
+            String meshFilename = title + filename_index + ".mesh";
+            writes.submit("MeshFile_.write", () -> {
+                try {
+                    MeshFile_.write(directory + meshFilename, frame.mesh, cpt);
+                } catch (IOException e) {
+                    throw new RuntimeException("Error writing to file: " + directory + meshFilename, e);
+                }
+            }).count("vertices", frame.mesh.vertexCount).count("edges", frame.mesh.edgeCount).count("cells", frame.mesh.cellCount);
+            IJ.log(" > Output binary mesh: " + directory + meshFilename);
+        }
 
-            // Draw Vertex image and save
+        // Draw Vertex image and save
+        if(options.vertexImage && !frame.tiled){
             String vertexImageFilename = "Vertex_" + title + filename_index + ".png";
-            ImageUtils_.vxDraw_Vertex(ip, edges, directory + vertexImageFilename, WAITING_TIME, cpt);
+            writes.submit("vxDraw_Vertex", () -> ImageUtils_.vxDraw_Vertex(frame.source, frame.edges, directory + vertexImageFilename, WAITING_TIME, cpt, show))
+                .count("pixels", (long) frame.source.getWidth() * frame.source.getHeight()).count("edges", frame.edges.size());
             IJ.log(" > Output vertex image: " + directory + vertexImageFilename);
+        }
+
+        // Optional: Wait for user input or delay
+        // IJ.wait(WAITING_TIME); // Uncomment if you want to add a delay
+        IJ.log("");
+        return true;
+    }
 
-            // Optional: Wait for user input or delay
-            // IJ.wait(WAITING_TIME); // Uncomment if you want to add a delay
-            IJ.log("");
+    /**
+     * The output jobs of one frame. Each job is timed as a stage of the frame; once the last
+     * one has finished (and release was called), the frame's timings are written to its
+     * sidecar and added to the stack roll-up.
+     */
+    private static class FrameWrites {
+        final FrameResult_ frame;
+        final OutputOptions_ options;
+        final String timingsFilename; // null: timings are not written
+        private final AtomicInteger pending = new AtomicInteger(1); // Queued jobs, plus one until release
+
+        FrameWrites(FrameResult_ frame, OutputOptions_ options, String timingsFilename) {
+            this.frame = frame;
+            this.options = options;
+            this.timingsFilename = timingsFilename;
         }
 
-        IJ.log("Processing completed.");
+        Queued submit(String stage, Runnable job) {
+            pending.incrementAndGet();
+            write(options, () -> run(stage, job));
+            return new Queued(stage);
+        }
+
+        Queued submitOrdered(String stage, Runnable job) {
+            pending.incrementAndGet();
+            writeOrdered(options, () -> run(stage, job));
+            return new Queued(stage);
+        }
+
+        void release() {
+            if(pending.decrementAndGet() == 0){
+                finish();
+            }
+        }
+
+        private void run(String stage, Runnable job) {
+            StageTimer_.Split split = frame.timings.start(stage);
+            try {
+                job.run();
+            } finally {
+                // A failed job still counts, so that the frame's timings are written
+                split.stop();
+                release();
+            }
+        }
+
+        // Adds the item counts of a queued job
+        class Queued {
+            private final String stage;
+
+            Queued(String stage) {
+                this.stage = stage;
+            }
+
+            Queued count(String item, long n) {
+                frame.timings.count(stage, item, n);
+                return this;
+            }
+        }
+
+        private void finish() {
+            if(timingsFilename == null){
+                return;
+            }
+            frame.timings.writeJson(timingsFilename, "frame", frame.num);
+            StageTimer_ stackTimings = options.stackTimings;
+            if(stackTimings != null){
+                stackTimings.add(frame.timings);
+            }
+        }
+    }
+
+    // Writes on an I/O thread of options, or right away if it has none
+    private static void write(OutputOptions_ options, Runnable job) {
+        if(options.writes == null){
+            job.run();
+        }else{
+            options.writes.submit(job::run);
+        }
+    }
+
+    // Like write, but jobs run in the order they were queued
+    private static void writeOrdered(OutputOptions_ options, Runnable job) {
+        if(options.writes == null){
+            job.run();
+        }else{
+            options.writes.submitOrdered(job::run);
+        }
     }
 }
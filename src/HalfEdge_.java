@@ -0,0 +1,349 @@
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Half-edge (DCEL) view of a Mesh_, used to list its cells in one pass.
+ * Edge e gives half-edge 2e (ev0 -> ev1) and its twin 2e + 1 (ev1 -> ev0). Following an
+ * incoming half-edge, the next half-edge of the face is the one after the twin in the
+ * angular order of the vertex (Mesh_.setVertexEdges), which is the turn Set_OutsideCells used.
+ * Every half-edge then belongs to exactly one face cycle.
+ *
+ * The cycles through outer ('o') vertices form the outer region; they are cut at the outer
+ * vertices into the outer cells. Every other cycle is an inner cell, identified by the cell ID
+ * shared by all of its vertices. A cycle without such an ID, or two cycles with the same ID, is
+ * inconsistent topology and stops the frame, as Set_InsideCells did.
+ */
+class HalfEdge_ {
+    private static final int MIN_PARALLEL_FACES = 1024; // Assemble fewer faces on the calling thread
+
+    public final Mesh_ mesh;
+    public final int count;   // Number of half-edges (2 * edgeCount)
+    public final int[] origin;
+    public final int[] next;  // Next half-edge of the same face
+    public final int[] prev;  // Previous half-edge of the same face
+    public final int[] out;   // Outgoing half-edge of each vertex -> edge entry (parallel to mesh.vedge)
+
+    public int faceCount;
+    public int[] face;        // Face of each half-edge
+    public int[] faceEdge;    // A half-edge of each face
+    public int[] faceSize;    // Number of half-edges of each face
+    public boolean[] faceOuter; // Face passes through an outer vertex
+
+    /**
+     * Builds the half-edges and traces the faces.
+     *
+     * @param mesh A mesh with vertices, edges and vertex -> edge adjacency set.
+     */
+    public HalfEdge_(Mesh_ mesh) {
+        this.mesh = mesh;
+        this.count = 2 * mesh.edgeCount;
+        this.origin = new int[count];
+        this.next = new int[count];
+        this.prev = new int[count];
+        this.out = new int[mesh.vedge.length];
+
+        // Outgoing half-edge of every angular slot (a loop edge takes both of its half-edges at one vertex)
+        int[] slot = new int[count];
+        Arrays.fill(slot, -1);
+        for (int v = 0; v < mesh.vertexCount; v++) {
+            for (int k = mesh.vedgeStart[v]; k < mesh.vedgeStart[v + 1]; k++) {
+                int e = mesh.vedge[k];
+                int h = (mesh.ev0[e] == v && slot[2 * e] < 0) ? 2 * e : 2 * e + 1;
+                out[k] = h;
+                slot[h] = k;
+                origin[h] = v;
+            }
+        }
+
+        // next: the slot after the twin at the destination vertex
+        for (int h = 0; h < count; h++) {
+            int t = h ^ 1;
+            int v = origin[t];
+            int s = mesh.vedgeStart[v];
+            int d = mesh.vedgeStart[v + 1] - s;
+            int n = out[s + (slot[t] - s + 1) % d];
+            next[h] = n;
+            prev[n] = h;
+        }
+
+        // Face cycles
+        face = new int[count];
+        Arrays.fill(face, -1);
+        faceEdge = new int[16];
+        faceSize = new int[16];
+        faceOuter = new boolean[16];
+        faceCount = 0;
+        for (int h = 0; h < count; h++) {
+            if (face[h] >= 0) continue;
+            int f = faceCount++;
+            if (f == faceEdge.length) {
+                faceEdge = Arrays.copyOf(faceEdge, f * 2);
+                faceSize = Arrays.copyOf(faceSize, f * 2);
+                faceOuter = Arrays.copyOf(faceOuter, f * 2);
+            }
+            faceEdge[f] = h;
+            int size = 0;
+            boolean outer = false;
+            int cur = h;
+            do {
+                face[cur] = f;
+                size++;
+                outer |= mesh.vinout[origin[cur]] == 'o';
+                cur = next[cur];
+            } while (cur != h);
+            faceSize[f] = size;
+            faceOuter[f] = outer;
+        }
+    }
+
+    /** Destination vertex of half-edge h. */
+    public int target(int h) {
+        return origin[h ^ 1];
+    }
+
+    /**
+     * Sets the cells of the mesh: the outer cells in the order of their starting outer vertex,
+     * then the inner cells in cell ID order. An inner cell starts at the first vertex of its
+     * lowest-numbered edge and runs counterclockwise (y reversed).
+     *
+     * @param threads Number of threads for assembling the inner cells (1: sequential).
+     */
+    public void setCells(int threads) {
+        Mesh_ m = mesh;
+
+        // Outer cells: from each outer vertex along the outer region to the next outer vertex
+        List<int[]> outerVerts = new ArrayList<>();
+        List<int[]> outerEdges = new ArrayList<>();
+        int[] vbuf = new int[16];
+        int[] ebuf = new int[16];
+        for (int v = 0; v < m.vertexCount; v++) {
+            if (m.vinout[v] != 'o') continue;
+            int s = m.vedgeStart[v];
+            if (m.vedgeStart[v + 1] - s != 1) {
+                throw new RuntimeException("Not a single neighbor for out vertex");
+            }
+            int n = 0;
+            vbuf[n++] = v;
+            int ne = 0;
+            int cur = out[s];
+            while (true) {
+                int t = target(cur);
+                if (n + 1 >= vbuf.length) {
+                    vbuf = Arrays.copyOf(vbuf, vbuf.length * 2);
+                    ebuf = Arrays.copyOf(ebuf, ebuf.length * 2);
+                }
+                vbuf[n++] = t;
+                ebuf[ne++] = cur >> 1;
+                if (m.vedgeStart[t + 1] - m.vedgeStart[t] == 1) {
+                    throw new RuntimeException("nj_num == 1 in outside cell");
+                }
+                cur = next[cur];
+                if (m.vinout[target(cur)] == 'o') {
+                    vbuf[n++] = target(cur);
+                    ebuf[ne++] = cur >> 1;
+                    break;
+                }
+            }
+            outerVerts.add(Arrays.copyOf(vbuf, n));
+            outerEdges.add(Arrays.copyOf(ebuf, ne));
+        }
+
+        // Inner faces, assembled independently into one packed buffer
+        int[] inner = new int[faceCount];
+        int ninner = 0;
+        for (int f = 0; f < faceCount; f++) {
+            if (!faceOuter[f]) inner[ninner++] = f;
+        }
+        int[] offset = new int[ninner + 1];
+        for (int i = 0; i < ninner; i++) {
+            offset[i + 1] = offset[i] + faceSize[inner[i]];
+        }
+        int[] fverts = new int[offset[ninner]];
+        int[] fedges = new int[offset[ninner]];
+        int[] flabel = new int[ninner];
+        int nthreads = Math.min(threads, ninner / MIN_PARALLEL_FACES);
+        if (nthreads <= 1) {
+            for (int i = 0; i < ninner; i++) {
+                flabel[i] = assemble(inner[i], fverts, fedges, offset[i]);
+            }
+        } else {
+            final int total = ninner;
+            ExecutorService pool = Executors.newFixedThreadPool(nthreads);
+            try {
+                List<Callable<Void>> tasks = new ArrayList<>();
+                for (int t = 0; t < nthreads; t++) {
+                    int from = total * t / nthreads;
+                    int to = total * (t + 1) / nthreads;
+                    tasks.add(() -> {
+                        for (int i = from; i < to; i++) {
+                            flabel[i] = assemble(inner[i], fverts, fedges, offset[i]);
+                        }
+                        return null;
+                    });
+                }
+                invokeAll(pool, tasks);
+            } finally {
+                pool.shutdown();
+            }
+        }
+
+        // Order the inner cells by cell ID; every inner face must be exactly one cell
+        int maxLabel = 0;
+        for (int i = 0; i < ninner; i++) {
+            if (flabel[i] < 0) {
+                int v = fverts[offset[i]];
+                throw new RuntimeException(String.format("At (%d, %d): Setting vcells is inconsistent (no common cell ID)",
+                        (int) m.vx[v], (int) m.vy[v]));
+            }
+            maxLabel = Math.max(maxLabel, flabel[i]);
+        }
+        int[] first = new int[maxLabel + 1];
+        Arrays.fill(first, -1);
+        for (int i = 0; i < ninner; i++) {
+            int j = first[flabel[i]];
+            if (j >= 0) {
+                int v = fverts[offset[j]];
+                int w = fverts[offset[i]];
+                throw new RuntimeException(String.format("At (%d, %d) and (%d, %d): Setting vcells is inconsistent (cell ID %d twice)",
+                        (int) m.vx[v], (int) m.vy[v], (int) m.vx[w], (int) m.vy[w], flabel[i]));
+            }
+            first[flabel[i]] = i;
+        }
+        int kept = 0;
+        int[] order = new int[ninner];
+        for (int c = 0; c <= maxLabel; c++) {
+            if (first[c] >= 0) order[kept++] = first[c];
+        }
+
+        // Fill the cell arrays of the mesh
+        int nouter = outerVerts.size();
+        int n = nouter + kept;
+        m.cellCount = n;
+        m.cinout = new byte[n];
+        m.clabel = new int[n];
+        m.cvertStart = new int[n + 1];
+        m.cedgeStart = new int[n + 1];
+        for (int c = 0; c < nouter; c++) {
+            m.cinout[c] = 'o';
+            m.clabel[c] = -1;
+            m.cvertStart[c + 1] = m.cvertStart[c] + outerVerts.get(c).length;
+            m.cedgeStart[c + 1] = m.cedgeStart[c] + outerEdges.get(c).length;
+        }
+        for (int c = nouter; c < n; c++) {
+            int i = order[c - nouter];
+            m.cinout[c] = 'i';
+            m.clabel[c] = flabel[i];
+            m.cvertStart[c + 1] = m.cvertStart[c] + offset[i + 1] - offset[i];
+            m.cedgeStart[c + 1] = m.cedgeStart[c] + offset[i + 1] - offset[i];
+        }
+        m.cvert = new int[m.cvertStart[n]];
+        m.cedge = new int[m.cedgeStart[n]];
+        for (int c = 0; c < nouter; c++) {
+            int[] vs = outerVerts.get(c);
+            int[] es = outerEdges.get(c);
+            System.arraycopy(vs, 0, m.cvert, m.cvertStart[c], vs.length);
+            System.arraycopy(es, 0, m.cedge, m.cedgeStart[c], es.length);
+        }
+        for (int c = nouter; c < n; c++) {
+            int i = order[c - nouter];
+            System.arraycopy(fverts, offset[i], m.cvert, m.cvertStart[c], offset[i + 1] - offset[i]);
+            System.arraycopy(fedges, offset[i], m.cedge, m.cedgeStart[c], offset[i + 1] - offset[i]);
+        }
+    }
+
+    /**
+     * Writes the vertices and edges of inner face f to verts / edges at pos, starting at the
+     * first vertex of its lowest-numbered edge and oriented to a non-negative area (y reversed).
+     * Edge i joins vertex i and vertex i + 1.
+     *
+     * @return The cell ID shared by all vertices of the face (the smallest if several), or -1.
+     */
+    private int assemble(int f, int[] verts, int[] edges, int pos) {
+        Mesh_ m = mesh;
+        int k = faceSize[f];
+
+        // Lowest-numbered edge of the face
+        int hmin = faceEdge[f];
+        for (int cur = next[hmin]; cur != faceEdge[f]; cur = next[cur]) {
+            if ((cur >> 1) < (hmin >> 1)) hmin = cur;
+        }
+
+        // Walk so that the lowest edge runs from its first vertex to its second
+        if ((hmin & 1) == 0) {
+            int cur = hmin;
+            for (int i = 0; i < k; i++) {
+                verts[pos + i] = origin[cur];
+                edges[pos + i] = cur >> 1;
+                cur = next[cur];
+            }
+        } else {
+            int cur = hmin;
+            for (int i = 0; i < k; i++) {
+                verts[pos + i] = target(cur);
+                edges[pos + i] = cur >> 1;
+                cur = prev[cur];
+            }
+        }
+
+        // Direction check
+        double darea = 0.0;
+        for (int j = 0; j < k; j++) {
+            int a = verts[pos + j];
+            int b = verts[pos + (j + 1) % k];
+            darea += (m.vx[a] * -m.vy[b] - m.vx[b] * -m.vy[a]);
+        }
+        if (darea < 0) {
+            reverse(verts, pos + 1, pos + k);
+            reverse(edges, pos, pos + k);
+        }
+
+        // Cell ID common to all vertices
+        int label = -1;
+        int v0 = verts[pos];
+        for (int p = m.vcellStart[v0]; p < m.vcellStart[v0 + 1] && label < 0; p++) {
+            int c = m.vcell[p];
+            boolean shared = true;
+            for (int j = 1; j < k && shared; j++) {
+                shared = contains(m, verts[pos + j], c);
+            }
+            if (shared) label = c;
+        }
+        return label;
+    }
+
+    private static boolean contains(Mesh_ m, int v, int c) {
+        for (int p = m.vcellStart[v]; p < m.vcellStart[v + 1]; p++) {
+            if (m.vcell[p] == c) return true;
+        }
+        return false;
+    }
+
+    private static void reverse(int[] a, int from, int to) {
+        for (int i = from, j = to - 1; i < j; i++, j--) {
+            int t = a[i];
+            a[i] = a[j];
+            a[j] = t;
+        }
+    }
+
+    private static void invokeAll(ExecutorService pool, List<Callable<Void>> tasks) {
+        try {
+            for (Future<Void> f : pool.invokeAll(tasks)) {
+                f.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Face assembly interrupted", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Face assembly failed", e.getCause());
+        }
+    }
+}
@@ -7,16 +7,16 @@ import ij.process.ImageProcessor;
 import ij.process.ByteProcessor;
 import ij.process.ShortProcessor;
 import ij.process.FloatProcessor;
-import ij.process.ColorProcessor;
 import ij.gui.Roi;
+import ij.io.FileSaver;
 
 import java.awt.Rectangle;
 import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.awt.Point;
-import java.awt.Color;
 import java.util.*;
+import java.util.function.Consumer;
 
 
 
@@ -68,52 +68,9 @@ public class ImageUtils_ {
      * @param rect      A Rectangle object to store the bounding rectangle of the filled region.
      */
     public static void floodFillIP(ImageProcessor tpimg, int x, int y, int cell_num, Rectangle rect) {
-        Stack<Point> stack = new Stack<>();
-        stack.push(new Point(x, y));
-
-        int color = tpimg.getPixel(x, y);
-        tpimg.set(x, y, cell_num);
-
-        int min_x = x, max_x = x;
-        int min_y = y, max_y = y;
-
-        int width = tpimg.getWidth();
-        int height = tpimg.getHeight();
-
-        while (!stack.isEmpty()) {
-            Point p = stack.pop();
-            int cx = p.x;
-            int cy = p.y;
-
-            // Define 4-connected neighbors
-            Point[] neighbors = {
-                new Point(cx - 1, cy),
-                new Point(cx + 1, cy),
-                new Point(cx, cy - 1),
-                new Point(cx, cy + 1)
-            };
-
-            for (Point n : neighbors) {
-                int nx = n.x;
-                int ny = n.y;
-                if (nx >= 0 && nx < width && ny >= 0 && ny < height) {
-                    int pixel = tpimg.getPixel(nx, ny);
-                    if (pixel == color) {
-                        tpimg.set(nx, ny, cell_num);
-                        stack.push(new Point(nx, ny));
-
-                        // Update bounding rectangle
-                        min_x = Math.min(min_x, nx);
-                        max_x = Math.max(max_x, nx);
-                        min_y = Math.min(min_y, ny);
-                        max_y = Math.max(max_y, ny);
-                    }
-                }
-            }
-        }
-
-        // Set the bounds of the rectangle
-        rect.setBounds(min_x, min_y, max_x - min_x + 1, max_y - min_y + 1);
+        FloodFill_ ff = new FloodFill_();
+        ff.fill(tpimg, x, y, cell_num);
+        ff.getBounds(rect);
     }
 
     /**
@@ -170,6 +127,79 @@ public class ImageUtils_ {
         }
     }
 
+    /**
+     * Crops the image to the bounding box found by a pre-scan.
+     *
+     * @param src  Source ImagePlus object.
+     * @param CROP Whether to perform cropping or just clone the image.
+     * @param scan Pre-scan of the source image.
+     * @return A Pair containing the cropped ImagePlus and the minimum Point.
+     */
+    public static Pair<ImagePlus, Point> utlCropImage(ImagePlus src, boolean CROP, PreScan_ scan) {
+        if (CROP) {
+            if (!scan.hasPixels()) {
+                throw new IllegalArgumentException("No non-zero pixels found in the image.");
+            }
+            int width = scan.maxx - scan.minx + 1;
+            int height = scan.maxy - scan.miny + 1;
+            src.setRoi(new Roi(scan.minx, scan.miny, width, height));
+            ImageProcessor cropped_ip = src.crop().getProcessor();
+            ImagePlus cropped = new ImagePlus("Cropped", cropped_ip);
+            return new Pair<>(cropped, new Point(scan.minx, scan.miny));
+        } else {
+            ImagePlus duplicated = src.duplicate();
+            return new Pair<>(duplicated, new Point(0, 0));
+        }
+    }
+
+    /**
+     * Reports the four-blocks found by a pre-scan, in frame coordinates.
+     *
+     * @param scan Pre-scan of the frame.
+     * @param num  Frame number (for reporting).
+     * @return True if there is at least one four-block.
+     */
+    public static boolean utlCheckFourBlock(PreScan_ scan, int num) {
+        Diagnostics_ diagnostics = new Diagnostics_(num);
+        boolean found = utlCheckFourBlock(scan, diagnostics);
+        diagnostics.flush();
+        return found;
+    }
+
+    /**
+     * Records the four-blocks found by a pre-scan, in frame coordinates.
+     *
+     * @param scan        Pre-scan of the frame.
+     * @param diagnostics Receives a FOUR_BLOCK event per four-block.
+     * @return True if there is at least one four-block.
+     */
+    public static boolean utlCheckFourBlock(PreScan_ scan, Diagnostics_ diagnostics) {
+        for (int i = 0; i < scan.fourBlockCount; i++) {
+            int id = scan.fourBlocks[i];
+            diagnostics.add(Diagnostics_.FOUR_BLOCK, id % scan.width, id / scan.width, 0);
+        }
+        if (scan.fourBlockCount > 0) {
+            diagnostics.error("FOUR BLOCK PIXELS APPEAR, Modify Image");
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Records every pixel with a forbidden 'z' / 'b' neighborhood found by a pre-scan, in frame coordinates.
+     *
+     * @param scan        Pre-scan of the frame.
+     * @param diagnostics Receives a ZB_PIXEL event per pixel.
+     * @return The number of such pixels.
+     */
+    public static int utlCheckPatterns(PreScan_ scan, Diagnostics_ diagnostics) {
+        for (int i = 0; i < scan.zbCount; i++) {
+            int id = scan.zbPixels[i];
+            diagnostics.add(Diagnostics_.ZB_PIXEL, id % scan.width, id / scan.width, scan.zbTypes[i]);
+        }
+        return scan.zbCount;
+    }
+
     /**
      * Checks for unexpected four-block patterns in an ImageProcessor.
      *
@@ -178,6 +208,20 @@ public class ImageUtils_ {
      * @param cpt  Coordinate offset (optional, default is (0, 0)).
      */
     public static boolean utlCheckFourBlock(ImageProcessor ip, int num, Point cpt) {
+        Diagnostics_ diagnostics = new Diagnostics_(num);
+        boolean found = utlCheckFourBlock(ip, cpt, diagnostics);
+        diagnostics.flush();
+        return found;
+    }
+
+    /**
+     * Checks for unexpected four-block patterns in an ImageProcessor.
+     *
+     * @param ip          The ImageProcessor containing the image data.
+     * @param cpt         Coordinate offset (optional, default is (0, 0)).
+     * @param diagnostics Receives a FOUR_BLOCK event per four-block, in frame coordinates.
+     */
+    public static boolean utlCheckFourBlock(ImageProcessor ip, Point cpt, Diagnostics_ diagnostics) {
         int bnum = 0;
         int width = ip.getWidth();
         int height = ip.getHeight();
@@ -188,7 +232,7 @@ public class ImageUtils_ {
                     if ((ip.getPixel(x + 1, y) & 0xFF) == (WHITE & 0xFF) &&
                         (ip.getPixel(x, y + 1) & 0xFF) == (WHITE & 0xFF) &&
                         (ip.getPixel(x + 1, y + 1) & 0xFF) == (WHITE & 0xFF)) {
-                        IJ.log(String.format("Unexpected Four-Block: frame %d, (%d %d)", num + 1, x + cpt.x, y + cpt.y));
+                        diagnostics.add(Diagnostics_.FOUR_BLOCK, x + cpt.x, y + cpt.y, 0);
                         bnum++;
                     }
                 }
@@ -196,20 +240,28 @@ public class ImageUtils_ {
         }
 
         if (bnum > 0) {
-            IJ.error("FOUR BLOCK PIXELS APPEAR, Modify Image");
+            diagnostics.error("FOUR BLOCK PIXELS APPEAR, Modify Image");
             return true;
         }
         return false;
     }
 
+    public static ImageProcessor utlBoundaryProcessing(ImagePlus timg, Point cpt) {
+        Diagnostics_ diagnostics = new Diagnostics_(0);
+        ImageProcessor processed = utlBoundaryProcessing(timg, cpt, diagnostics);
+        diagnostics.flush();
+        return processed;
+    }
+
     /**
      * Processes the boundaries of a binary image.
      *
-     * @param timg The binary ImagePlus to process.
-     * @param cpt  Coordinate offset (optional, default is (0,0)).
+     * @param timg        The binary ImagePlus to process.
+     * @param cpt         Coordinate offset (optional, default is (0,0)).
+     * @param diagnostics Receives the log lines and the tracing errors, in frame coordinates.
      * @return The processed ImageProcessor.
      */
-    public static ImageProcessor utlBoundaryProcessing(ImagePlus timg, Point cpt) {
+    public static ImageProcessor utlBoundaryProcessing(ImagePlus timg, Point cpt, Diagnostics_ diagnostics) {
         // Clone the image processor for manipulation
         ImageProcessor ip = timg.getProcessor();
         int width = ip.getWidth();
@@ -220,10 +272,9 @@ public class ImageUtils_ {
         int[] dy = {0, -1, -1, -1, 0, 1, 1, 1};
 
         // Initialize ctypes arrays
-        char[] ctypes = new char[width * height];
-        char[] ctypesP = new char[width * height];
+        byte[] ctypes = new byte[width * height];
+        byte[] ctypesP = new byte[width * height];
 
-        List<List<int[]>> all_edges = new ArrayList<>(); // List to store all contours
         // tmp_edges is unused in the original code
         List<int[]> tPoints = new ArrayList<>();
         List<int[]> jPoints = new ArrayList<>();
@@ -239,11 +290,11 @@ public class ImageUtils_ {
         }
 
         // First step: Set ctypesP
-        CVUtil_.setCtypes(new ImagePlus("", ip), ctypesP); // Assuming CVUtil_.setCtypes accepts ImagePlus
+        CVUtil_.setCtypes(new ImagePlus("", ip), ctypesP, diagnostics);
 
         // Perform flood fill from (0,0) with value 1
-        Rectangle rect = new Rectangle();
-        floodFillIP(ip, 0, 0, 1, rect);
+        FloodFill_ ff = new FloodFill_();
+        ff.fill(ip, 0, 0, 1);
 
         // Iterate through each pixel to find boundary points
         for (int y = 1; y < height - 1; y++) {
@@ -259,7 +310,7 @@ public class ImageUtils_ {
                         }
                     }
                     if (bflag) {
-                        char ctype = ctypesP[y * width + x];
+                        byte ctype = ctypesP[y * width + x];
                         if (ctype == 't' || ctype == 'e') {
                             tPoints.add(new int[]{x, y});
                         } else if (ctype == 'j') {
@@ -282,24 +333,23 @@ public class ImageUtils_ {
         }
         tPoints.clear();
 
-        // Process jPoints: Remove close pairs
-        for (int i = 0; i < jPoints.size(); i++) {
-            for (int j = i + 1; j < jPoints.size(); j++) {
-                if (Math.abs(jPoints.get(i)[0] - jPoints.get(j)[0]) <= 1 &&
-                    Math.abs(jPoints.get(i)[1] - jPoints.get(j)[1]) <= 1) {
-                    ip.putPixel(jPoints.get(i)[0], jPoints.get(i)[1], 0);
-                    ip.putPixel(jPoints.get(j)[0], jPoints.get(j)[1], 0);
-                    tPoints.add(jPoints.get(i));
-                    tPoints.add(jPoints.get(j));
-                }
+        // Process jPoints: Remove close pairs (every jPoint with another one among its 8 neighbors)
+        SpatialGrid_ jGrid = new SpatialGrid_(width, jPoints.size());
+        for (int[] pt : jPoints) {
+            jGrid.add(pt[0], pt[1]);
+        }
+        int[] close = new int[2];
+        for (int[] pt : jPoints) {
+            if (jGrid.near(pt[0], pt[1], 1, close) > 1) {
+                ip.putPixel(pt[0], pt[1], 0);
             }
         }
 
         // Flood fill background again with 0
-        floodFillIP(ip, 0, 0, 0, rect);
+        ff.fill(ip, 0, 0, 0);
 
         // Second step: Set ctypes
-        CVUtil_.setCtypes(new ImagePlus("", ip), ctypes);
+        CVUtil_.setCtypes(new ImagePlus("", ip), ctypes, diagnostics);
 
         // Iterate through the image to modify pixels based on ctypes
         for (int y = 1; y < height - 1; y++) {
@@ -311,13 +361,13 @@ public class ImageUtils_ {
             }
         }
 
-        // Trace contours using CVUtil_.trace (assuming it returns List<List<int[]>>)
-        List<List<int[]>> all_edges_traced = CVUtil_.trace(new ImagePlus("", ip), ctypes, cpt);
+        // Trace contours using CVUtil_.trace
+        ContourStore_ all_edges_traced = CVUtil_.trace(new ImagePlus("", ip), ctypes, cpt, diagnostics);
         if(all_edges_traced == null){
             return null;
         }
         // Flood fill background with 1 again
-        floodFillIP(ip, 0, 0, 1, rect);
+        ff.fill(ip, 0, 0, 1);
 
         // Set boundary pixels to 128 (GRAY)
         for (int y = 1; y < height - 1; y++) {
@@ -340,14 +390,13 @@ public class ImageUtils_ {
         }
 
         // Remove certain edges from all_edges_traced
-        List<List<int[]>> filtered_edges = new ArrayList<>();
-        for (List<int[]> contour : all_edges_traced) {
-            if (contour.isEmpty()) continue;
-            int[] firstPt = contour.get(0);
-            int[] lastPt = contour.get(contour.size() - 1);
-            if (!((ip.getPixel(firstPt[0], firstPt[1]) & 0xFF) == (WHITE & 0xFF) &&
-                  (ip.getPixel(lastPt[0], lastPt[1]) & 0xFF) == (WHITE & 0xFF))) {
-                filtered_edges.add(contour);
+        for (int c = 0; c < all_edges_traced.size(); c++) {
+            if (all_edges_traced.length(c) == 0) continue;
+            int firstPt = all_edges_traced.first(c);
+            int lastPt = all_edges_traced.last(c);
+            if ((ip.getPixel(firstPt % width, firstPt / width) & 0xFF) == (WHITE & 0xFF) &&
+                (ip.getPixel(lastPt % width, lastPt / width) & 0xFF) == (WHITE & 0xFF)) {
+                all_edges_traced.remove(c);
             }
         }
 
@@ -359,9 +408,10 @@ public class ImageUtils_ {
         }
 
         // Redraw all_edges onto the image by setting pixels to 255
-        for (List<int[]> contour : filtered_edges) {
-            for (int[] pt : contour) {
-                ip.putPixel(pt[0], pt[1], WHITE & 0xFF);
+        for (int c = 0; c < all_edges_traced.size(); c++) {
+            if (all_edges_traced.isRemoved(c)) continue;
+            for (int i = 0; i < all_edges_traced.length(c); i++) {
+                ip.putPixel(all_edges_traced.x(c, i), all_edges_traced.y(c, i), WHITE & 0xFF);
             }
         }
 
@@ -376,128 +426,58 @@ public class ImageUtils_ {
      * @return A Pair containing the total number of cells detected and the CellID array.
      */
     public static Pair<Integer, int[]> utlSet_CellID(ImageProcessor ip, int smallC, Point cpt) {
-        int width = ip.getWidth();
-        int height = ip.getHeight();
-
-        // Initialize tpimg as a 1D array filled with 0
-        int[] tpimg = new int[width * height];
-
-        // Set tpimg[id] = 1 where ip != 0
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                int id = y * width + x;
-                tpimg[id] = (ip.getPixel(x, y) != 0) ? 1 : 0;
-            }
-        }
+        return utlSet_CellID(ip, smallC, cpt, 1);
+    }
 
-        int cell_num = 2;  // Starting label
-        int[] CellID = new int[width * height];  // Initialize CellID array
+    /**
+     * Assigns unique Cell IDs to connected regions in a binary image.
+     *
+     * @param ip      The ImageProcessor of the binary image where non-zero pixels represent cell membranes.
+     * @param smallC  Threshold for the minimum allowable cell area.
+     * @param threads Number of threads used for labeling (1: sequential).
+     * @return A Pair containing the total number of cells detected and the CellID array.
+     */
+    public static Pair<Integer, int[]> utlSet_CellID(ImageProcessor ip, int smallC, Point cpt, int threads) {
+        Diagnostics_ diagnostics = new Diagnostics_(0);
+        Pair<Integer, int[]> cellInfo = utlSet_CellID(ip, smallC, cpt, threads, diagnostics);
+        diagnostics.flush();
+        return cellInfo;
+    }
 
-        // Flood Fill function
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                int id = y * width + x;
-                if (tpimg[id] == 0) {
-                    Rectangle rect = new Rectangle();
-                    floodFill(tpimg, x, y, cell_num, width, height, rect);
-
-                    if (cell_num > 2) {
-                        // Calculate area by counting the number of pixels labeled with cell_num
-                        int area = 0;
-                        for (int ry = rect.y; ry < rect.y + rect.height; ry++) {
-                            for (int rx = rect.x; rx < rect.x + rect.width; rx++) {
-                                int rid = ry * width + rx;
-                                if (tpimg[rid] == cell_num) {
-                                    area++;
-                                }
-                            }
-                        }
+    /**
+     * Assigns unique Cell IDs to connected regions in a binary image.
+     *
+     * @param ip          The ImageProcessor of the binary image where non-zero pixels represent cell membranes.
+     * @param smallC      Threshold for the minimum allowable cell area.
+     * @param threads     Number of threads used for labeling (1: sequential).
+     * @param diagnostics Receives a SMALL_CELL event for the first cell that is too small.
+     * @return A Pair containing the total number of cells detected and the CellID array, or null if a cell is too small.
+     */
+    public static Pair<Integer, int[]> utlSet_CellID(ImageProcessor ip, int smallC, Point cpt, int threads, Diagnostics_ diagnostics) {
+        int width = ip.getWidth();
 
-                        if (area <= smallC) {
-                            // Raise an error if the area is smaller than or equal to smallC
-                            String error_message = String.format("Area Smaller than %d around (%d, %d)", smallC, x + cpt.x, y + cpt.y);
-                            IJ.log(error_message);
-                            // IJ.error(error_message);
-                        
-                            return null;
-                        }
-                    }
+        // Label the zero regions: membrane = 0, background = 1, cells from 2
+        Labeler_ labeler = new Labeler_();
+        labeler.label(ip, threads);
+        int[] CellID = labeler.labels;
 
-                    cell_num++;  // Increment cell number after labeling
-                }
-            }
-        }
+        // Check the cell areas in label order (the background region is not checked)
+        for (int l = 2; l <= labeler.count; l++) {
+            if (labeler.area[l] <= smallC) {
+                // Raise an error if the area is smaller than or equal to smallC
+                int x = labeler.first[l] % width;
+                int y = labeler.first[l] / width;
+                diagnostics.add(Diagnostics_.SMALL_CELL, x + cpt.x, y + cpt.y, smallC);
 
-        // Assign CellID by flattening tpimg and subtracting 1
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                int id = y * width + x;
-                CellID[id] = tpimg[id] - 1;
+                return null;
             }
         }
 
-        int total_cells = cell_num - 3;  // Adjusting for initial offset
+        int total_cells = labeler.count - 1;  // Excluding the background
 
         return new Pair<>(total_cells, CellID);
     }
 
-    /**
-     * Helper method for flood fill.
-     *
-     * @param tpimg      The label array.
-     * @param x          Starting x coordinate.
-     * @param y          Starting y coordinate.
-     * @param cell_num   The label number to assign to the filled region.
-     * @param width      Image width.
-     * @param height     Image height.
-     * @param rect       Rectangle to store the bounding box.
-     */
-    private static void floodFill(int[] tpimg, int x, int y, int cell_num, int width, int height, Rectangle rect) {
-        Stack<Point> stack = new Stack<>();
-        stack.push(new Point(x, y));
-
-        int color = tpimg[y * width + x];
-        tpimg[y * width + x] = cell_num;
-
-        int min_x = x, max_x = x;
-        int min_y = y, max_y = y;
-
-        while (!stack.isEmpty()) {
-            Point p = stack.pop();
-            int cx = p.x;
-            int cy = p.y;
-
-            // Define 4-connected neighbors
-            Point[] neighbors = {
-                new Point(cx - 1, cy),
-                new Point(cx + 1, cy),
-                new Point(cx, cy - 1),
-                new Point(cx, cy + 1)
-            };
-
-            for (Point n : neighbors) {
-                int nx = n.x;
-                int ny = n.y;
-                if (nx >= 0 && nx < width && ny >= 0 && ny < height) {
-                    int nid = ny * width + nx;
-                    if (tpimg[nid] == color) {
-                        tpimg[nid] = cell_num;
-                        stack.push(new Point(nx, ny));
-
-                        // Update bounding rectangle
-                        min_x = Math.min(min_x, nx);
-                        max_x = Math.max(max_x, nx);
-                        min_y = Math.min(min_y, ny);
-                        max_y = Math.max(max_y, ny);
-                    }
-                }
-            }
-        }
-
-        // Set the bounds of the rectangle
-        rect.setBounds(min_x, min_y, max_x - min_x + 1, max_y - min_y + 1);
-    }
-
     // Inside ImageUtils.java
     /**
      * Counts the number of 'o' (presumably "outer") vertices.
@@ -547,12 +527,12 @@ public class ImageUtils_ {
      * Identifies and sets vertex points in an image.
      *
      * @param ip                The ImageProcessor containing the image data.
-     * @param ctypes            A char array representing the 8-neighbor types of each pixel.
+     * @param ctypes            A byte array representing the 8-neighbor types of each pixel.
      * @param CellID            An int array storing the cell ID for each pixel.
      * @param isolated_terminals A list to store indices of isolated terminals.
      * @return A list of Vertex_ objects representing the identified vertices.
      */
-    public static List<Vertex_> Set_Vertex_(ImageProcessor ip, char[] ctypes, int[] CellID, List<Integer> isolated_terminals) {
+    public static List<Vertex_> Set_Vertex_(ImageProcessor ip, byte[] ctypes, int[] CellID, List<Integer> isolated_terminals) {
         int j_num = 0;
         int width = ip.getWidth();
         List<Vertex_> vvtxs = new ArrayList<>();
@@ -580,7 +560,6 @@ public class ImageUtils_ {
 
                     // Handle isolated terminals
                     if (tvtx.Cells.size() == 2 && tvtx.Cells.get(0) == 0 && tvtx.Cells.get(1) != 1) {
-                        System.out.println(x + " " + y);
                         isolated_terminals.add(id);
                         continue;
                     }
@@ -590,7 +569,7 @@ public class ImageUtils_ {
 
                     // Set inout based on the number of cells
                     tvtx.inout = (tvtx.Cells.size() == 0) ? 'o' : 'i';
-                    tvtx.ctype = ctypes[id];
+                    tvtx.ctype = (char) ctypes[id];
                     vvtxs.add(tvtx);
                     j_num++;
                 }
@@ -623,447 +602,115 @@ public class ImageUtils_ {
      * Reconnects contours in the image by handling isolated terminals.
      *
      * @param ip                The ImageProcessor containing the image data.
-     * @param ctypes            A char array representing the 8-neighbor types of each pixel.
-     * @param conts             A list of contours, each contour is a list of int[] points.
+     * @param ctypes            A byte array representing the 8-neighbor types of each pixel.
+     * @param conts             The traced contours; reconnected contours are appended and the merged ones removed.
      * @param ijunc             A list of Vertex_ objects representing junctions.
      * @param isolated_terminals A list of indices of isolated terminals.
      */
-    public static List<List<int[]>> Reconnect_Contours(ImageProcessor ip, char[] ctypes, List<List<int[]>> conts, List<Vertex_> ijunc, List<Integer> isolated_terminals) {
+    public static ContourStore_ Reconnect_Contours(ImageProcessor ip, byte[] ctypes, ContourStore_ conts, List<Vertex_> ijunc, List<Integer> isolated_terminals) {
         int width = ip.getWidth();
 
+        // Endpoint pixel -> contours, kept up to date as contours are merged and removed
+        EndpointIndex_ endpoints = new EndpointIndex_(conts);
+        // Junction positions; point k of the grid is ijunc[k]
+        SpatialGrid_ junctions = new SpatialGrid_(width, ijunc.size());
+        for (Vertex_ j : ijunc) {
+            junctions.add((int) j.x, (int) j.y);
+        }
+        int[] found = new int[8];
+
         // For each isolated terminal
         for (int i = 0; i < isolated_terminals.size(); i++) {
-
-            Set<Integer> contours_to_remove = new HashSet<>();
-            List<List<int[]>> contours_to_add = new ArrayList<>();
-
-            // Map from String (point key) to list of contour indices
-            Map<String, List<Integer>> point_to_contours = new HashMap<>();
-
-            // Build the map of points to contours
-            for (int ci = 0; ci < conts.size(); ci++) {
-                List<int[]> c = conts.get(ci);
-                int[] p_front = c.get(0);
-                int[] p_back = c.get(c.size() - 1);
-
-                String key_front = p_front[0] + "," + p_front[1];
-                point_to_contours.computeIfAbsent(key_front, k -> new ArrayList<>()).add(ci);
-
-                if (p_back[0] != p_front[0] || p_back[1] != p_front[1]) { // Avoid duplicating if contour is a loop
-                    String key_back = p_back[0] + "," + p_back[1];
-                    point_to_contours.computeIfAbsent(key_back, k -> new ArrayList<>()).add(ci);
-                }
-            }
-
             int idx = isolated_terminals.get(i);
-            int x = idx % width;
-            int y = idx / width;
-            int[] T1 = new int[]{x, y};
-            String key_T1 = T1[0] + "," + T1[1];
-
-            // IJ.log(String.format("Trying to delete %s", key_T1));
 
             // Find contours connected to T1
-            List<Integer> c1_indices = point_to_contours.get(key_T1);
-            if (c1_indices == null) {
+            int c1_num = endpoints.contoursAt(idx, found);
+            if (c1_num == 0) {
                 continue; // No contours connected to T1
             }
-            if (c1_indices.size() != 1) {
+            if (c1_num != 1) {
                 throw new RuntimeException("More than one contour connected to isolated terminal.");
             }
-            int c1_idx = c1_indices.get(0);
-            List<int[]> c1 = conts.get(c1_idx);
+            int c1 = found[0];
 
-            for (int[] j : c1) {
-                int idx_j = j[1] * width + j[0];
-                ctypes[idx_j] = 'd';
+            for (int k = 0; k < conts.length(c1); k++) {
+                ctypes[conts.point(c1, k)] = 'd';
             }
 
-            int[] V1 = (c1.get(0)[0] == T1[0] && c1.get(0)[1] == T1[1]) ? c1.get(c1.size() -1) : c1.get(0);
-            String key_V1 = V1[0] + "," + V1[1];
+            int V1 = (conts.first(c1) == idx) ? conts.last(c1) : conts.first(c1);
 
             // Now find contours c2 (other than c1) that share V1
-            List<Integer> c2_indices = new ArrayList<>(point_to_contours.get(key_V1));
-
-            if (!c2_indices.remove((Integer) c1_idx)) {
+            int v1_num = endpoints.contoursAt(V1, found);
+            int c2 = -1;
+            int c3 = -1;
+            boolean found_c1 = false;
+            for (int k = 0; k < Math.min(v1_num, found.length); k++) {
+                if (found[k] == c1 && !found_c1) {
+                    found_c1 = true;
+                } else if (c2 < 0) {
+                    c2 = found[k];
+                } else if (c3 < 0) {
+                    c3 = found[k];
+                }
+            }
+            if (!found_c1) {
                 throw new RuntimeException("Not found c1 at V1");
             }
 
-            if (c2_indices.size() != 2) {
+            if (v1_num - 1 != 2) {
                 // More than 2 contours meet at one junction or island
-                contours_to_remove.add(c1_idx);
-
-                // Remove contours and proceed
-                List<List<int[]>> new_conts = new ArrayList<>();
-                for (int ci = 0; ci < conts.size(); ci++) {
-                    if (!contours_to_remove.contains(ci)) {
-                        new_conts.add(conts.get(ci));
-                    }else{
-                        //IJ.log(String.format("contour %d, deleted", ci));
-                    }
-                }
-                // Replace conts with new_conts
-                conts = new_conts;
+                endpoints.remove(c1);
+                conts.remove(c1);
                 continue;
             }
 
-            int c2_idx = c2_indices.get(0);
-            List<int[]> c2 = conts.get(c2_idx);
-
-            List<int[]> c2_points = new ArrayList<>(c2);
-            if (c2.get(0)[0] == V1[0] && c2.get(0)[1] == V1[1]) {
-                Collections.reverse(c2_points);
+            // New contour: c2 ending at V1, then c3 starting after V1
+            int c_new = conts.beginContour();
+            if (conts.first(c2) == V1) {
+                conts.addPoints(c2, conts.length(c2) - 1, 0);
+            } else {
+                conts.addPoints(c2, 0, conts.length(c2) - 1);
             }
-
-            int c3_idx = c2_indices.get(1);
-            List<int[]> c3 = conts.get(c3_idx);
-
-            List<int[]> c3_points = new ArrayList<>(c3);
-            if (c3.get(c3.size() - 1)[0] == V1[0] && c3.get(c3.size() - 1)[1] == V1[1]) {
-                c3_points.remove(c3_points.size() - 1);
-                Collections.reverse(c3_points);
+            if (conts.last(c3) == V1) {
+                conts.addPoints(c3, conts.length(c3) - 2, 0);
             } else {
-                c3_points.remove(0);
+                conts.addPoints(c3, 1, conts.length(c3) - 1);
             }
-
-            List<int[]> c_new = new ArrayList<>(c2_points);
-            c_new.addAll(c3_points);
+            conts.endContour();
 
             ctypes[idx] = 'e';
-            contours_to_remove.add(c1_idx);
-            contours_to_remove.add(c2_idx);
-            contours_to_remove.add(c3_idx);
-
-            contours_to_add.add(c_new);
-
-            // Remove contours to be removed
-            List<List<int[]>> new_conts = new ArrayList<>();
-            for (int ci = 0; ci < conts.size(); ci++) {
-                if (!contours_to_remove.contains(ci)) {
-                    new_conts.add(conts.get(ci));
-                }else{
-                    // IJ.log(String.format("contour %d, deleted", ci));
-                }
-            }
-            // Add the new contours
-            new_conts.addAll(contours_to_add);
-            // IJ.log(String.format("the size of contours %d to %d", conts.size(), new_conts.size()));
-            // Replace conts with new_conts
-            conts = new_conts;
+            endpoints.remove(c1);
+            endpoints.remove(c2);
+            endpoints.remove(c3);
+            conts.remove(c1);
+            conts.remove(c2);
+            conts.remove(c3);
+            endpoints.add(c_new);
 
             // Remove the junction V1 from ijunc
-            Iterator<Vertex_> ijunc_it = ijunc.iterator();
-            boolean found_junction = false;
-            while (ijunc_it.hasNext()) {
-                Vertex_ j = ijunc_it.next();
-                if (j.x == V1[0] && j.y == V1[1]) {
-                    ijunc_it.remove();
-                    found_junction = true;
-                    break;
-                }
-            }
-            if (!found_junction) {
+            int jpos = junctions.find(V1 % width, V1 / width);
+            if (jpos < 0) {
                 throw new RuntimeException("Unrecognized junction");
             }
+            junctions.remove(jpos);
         }
 
-        return conts;
-
-    }
-
-    
-    /**
-     * Sets edge information based on contours and vertices.
-     *
-     * @param ip     The ImageProcessor containing the image data.
-     * @param ctypes A char array representing the 8-neighbor types of each pixel.
-     * @param conts  A list of contours (lists of points).
-     * @param ivtx  A list of Vertex_ objects.
-     * @return A list of Edge_ objects representing the identified edges.
-     */
-    public static List<Edge_> Set_Edge_(ImageProcessor ip, char[] ctypes, List<List<int[]>> conts, List<Vertex_> ivtx) {
-        int width = ip.getWidth();
-        int height = ip.getHeight();
-        List<Edge_> vedges = new ArrayList<>();
-    
-        // Create a mapping from pixel coordinates to vertex IDs
-        int[] VtxID = new int[width * height];
-        Arrays.fill(VtxID, -1);
-        for (Vertex_ j : ivtx) {
-            int id = (int)(j.y * width + j.x);
-            VtxID[id] = j.id;
-        }
-    
-        // Set edge information
-        for (List<int[]> contour : conts) {
-            if (contour.isEmpty()) continue;
-            Edge_ tedge = new Edge_();
-            int[] firstPt = contour.get(0);
-            int[] lastPt = contour.get(contour.size() - 1);
-        
-            tedge.X.set(0, new int[]{firstPt[0], firstPt[1]});
-            tedge.vertex_id[0] = VtxID[firstPt[1] * width + firstPt[0]];
-            tedge.X.set(1, new int[]{lastPt[0], lastPt[1]});
-            tedge.vertex_id[1] = VtxID[lastPt[1] * width + lastPt[0]];
-            // Determine 'inout' based on ctypes
-            char ctypeStart = ctypes[firstPt[1] * width + firstPt[0]];
-            char ctypeEnd = ctypes[lastPt[1] * width + lastPt[0]];
-            tedge.inout = (ctypeStart == 't' || ctypeEnd == 't') ? 'o' : 'i';
-            // Calculate Euclidean distance
-            tedge.sdist = Math.sqrt(Math.pow(firstPt[0] - lastPt[0], 2) + Math.pow(firstPt[1] - lastPt[1], 2));
-            // Calculate angle
-            tedge.angle = -Math.atan2(firstPt[1] - lastPt[1], firstPt[0] - lastPt[0]);
-            if (tedge.angle < 0) {
-                tedge.angle += Math.PI;
+        // Drop the removed junctions, keeping the order of the others
+        List<Vertex_> kept = new ArrayList<>(ijunc.size());
+        for (int k = 0; k < ijunc.size(); k++) {
+            if (!junctions.isRemoved(k)) {
+                kept.add(ijunc.get(k));
             }
-            tedge.line_pts = new ArrayList<>(contour);
-            vedges.add(tedge);
         }
-    
-        // Sort edges by 'inout' (prioritize 'o')
-        vedges.sort(EInOutComparator);
-        // Assign unique IDs
-        for (int i = 0; i < vedges.size(); i++) {
-            vedges.get(i).id = i;
-        }
-    
-        // Check for consistency
-        int jr_num = vxSet_RNUM(ivtx);
-        long er_num = vedges.stream().filter(e -> e.inout == 'o').count();
-        if (jr_num != er_num) {
-            throw new RuntimeException(String.format("! Inconsistent out-vertex and out-edge, jr_num= %d, er_num= %d", jr_num, er_num));
+        if (kept.size() != ijunc.size()) {
+            ijunc.clear();
+            ijunc.addAll(kept);
         }
 
-        
-        // Point cpt = new Point(0,0);
-        // vxDraw_Vertex(ip, vedges, "output.png", 1500,cpt);
-    
-        return vedges;
-    }
-    
-    
-    
-    /**
-     * Sets information about inner cells based on vertices and edges.
-     *
-     * @param vcells   A list to store VCell_ objects.
-     * @param ivtx    A list of Vertex_ objects.
-     * @param iedge    A list of Edge_ objects.
-     * @param cell_num The total number of cells.
-     */
-    public static void Set_InsideCells(List<VCell_> vcells, List<Vertex_> ivtx, List<Edge_> iedge, int cell_num) {
-        // Initialize a list of lists to store edges for each cell
-        List<List<Integer>> nedge = new ArrayList<>(cell_num);
-        for (int i = 0; i < cell_num; i++) {
-            nedge.add(new ArrayList<>());
-        }
-    
-        // Calculate edges surrounding each cell
-        for (int et = 0; et < iedge.size(); et++) {
-            Edge_ edge = iedge.get(et);
-            Vertex_ jt1 = ivtx.get(edge.vertex_id[0]);
-            Vertex_ jt2 = ivtx.get(edge.vertex_id[1]);
-            if (jt1.inout == 'i' && jt2.inout == 'i') {
-                for (int cell_id1 : jt1.Cells) {
-                    for (int cell_id2 : jt2.Cells) {
-                        if (cell_id1 == cell_id2) {
-                            // Assuming cell IDs start from 2 as per previous methods
-                            if (cell_id1 - 2 >= 0 && cell_id1 - 2 < nedge.size()) {
-                                nedge.get(cell_id1 - 2).add(et);
-                            }
-                            break;
-                        }
-                    }
-                }
-            }
-        }
-    
-        // Process each cell
-        for (int i = 0; i < cell_num; i++) {
-            VCell_ tcell = new VCell_();
-            List<Boolean> checks = new ArrayList<>(Collections.nCopies(nedge.get(i).size(), true));
-            List<Integer> edgesList = nedge.get(i);
-            if (edgesList.isEmpty()) continue; // No edges to process
-        
-            int firstEdge_Id = edgesList.get(0);
-            Edge_ firstEdge_ = iedge.get(firstEdge_Id);
-            int jf = firstEdge_.vertex_id[0];
-            int ps = firstEdge_.vertex_id[1];
-            tcell.EDGE.add(firstEdge_);
-            tcell.VERTEX.add(ivtx.get(jf));
-            tcell.VERTEX.add(ivtx.get(ps));
-            checks.set(0, false);
-            for(int j = 1; j < edgesList.size(); j++){
-                for (int k = 1; k < edgesList.size(); k++) {
-                    if (!checks.get(k)) continue;
-                    Edge_ currentEdge_ = iedge.get(edgesList.get(k));
-                    if (currentEdge_.vertex_id[0] == ps) {
-                        ps = currentEdge_.vertex_id[1];
-                        tcell.EDGE.add(currentEdge_);
-                        tcell.VERTEX.add(ivtx.get(ps));
-                        checks.set(k, false);
-                    } else if (currentEdge_.vertex_id[1] == ps) {
-                        ps = currentEdge_.vertex_id[0];
-                        tcell.EDGE.add(currentEdge_);
-                        tcell.VERTEX.add(ivtx.get(ps));
-                        checks.set(k, false);
-                    }
-                }
-            }
-        
-            // Check for consistency
-            if (tcell.VERTEX.get(0).id != tcell.VERTEX.get(tcell.VERTEX.size() - 1).id) {
-                throw new RuntimeException(String.format("At (%d, %d) and (%d, %d): Setting vcells is inconsistent",
-                        tcell.VERTEX.get(0).x, tcell.VERTEX.get(0).y,
-                        tcell.VERTEX.get(tcell.VERTEX.size() - 1).x, tcell.VERTEX.get(tcell.VERTEX.size() - 1).y));
-            }
-        
-            // Direction check and calculate center
-            double darea = 0.0;
-            for (int j = 0; j < tcell.VERTEX.size() - 1; j++) {
-                double x1 = tcell.VERTEX.get(j).x;
-                double x2 = tcell.VERTEX.get(j + 1).x;
-                double y1 = -tcell.VERTEX.get(j).y; // Reverse y-coordinate
-                double y2 = -tcell.VERTEX.get(j + 1).y;
-                darea += (x1 * y2 - x2 * y1);
-            }
-            // Last segment
-            int j = tcell.VERTEX.size() - 1;
-            double x1 = tcell.VERTEX.get(j).x;
-            double x2 = tcell.VERTEX.get(0).x;
-            double y1 = -tcell.VERTEX.get(j).y; // Reverse y-coordinate
-            double y2 = -tcell.VERTEX.get(0).y;
-            darea += (x1 * y2 - x2 * y1);
-        
-            if (darea < 0) {
-                Collections.reverse(tcell.VERTEX);
-            }
-        
-            // Remove the duplicate last vertex
-            if (!tcell.VERTEX.isEmpty()) {
-                tcell.VERTEX.remove(tcell.VERTEX.size() - 1);
-            }
-        
-            tcell.inout = 'i';
-            vcells.add(tcell);
-        }
-    }
-    
-    
-    /**
-     * Sets information about outer cells based on vertices.
-     *
-     * @param vcells A list to store VCell_ objects.
-     * @param ivtx  A list of Vertex_ objects.
-     */
-    public static void Set_OutsideCells(List<VCell_> vcells, List<Vertex_> ivtx) {
-        for (Vertex_ vtx : ivtx) {
-            if (vtx.inout == 'o') {
-                VCell_ tcell = new VCell_();
-                tcell.inout = 'o';
-                tcell.VERTEX.add(vtx);
-                int pid = vtx.id;
-            
-                if (vtx.nj_num != 1) {
-                    throw new RuntimeException("Not a single neighbor for out vertex");
-                }
-            
-                int neighborJid = vtx.nj.get(0);
-                Vertex_ nvtx = ivtx.get(neighborJid);
-            
-                while (true) {
-                    tcell.VERTEX.add(nvtx);
-                    // Find the index of pid in nvtx.nj
-                    int nid = nvtx.nj.indexOf(pid);
-                    if (nid == -1) {
-                        throw new RuntimeException("Neighbor vertex not found");
-                    }
-                    if(nvtx.nj_num == 1){
-                        throw new RuntimeException("nj_num == 1 in outside cell");
-                    }
-                    // IJ.log(String.format("nid = %d, pid = %d, nj_num = %d", nid, pid, nvtx.nj_num));
-                    nid = (nid + 1) % nvtx.nj_num;
-                    pid = nvtx.id;
-                    // IJ.log(String.format("nid => %d", nid));
-
-                    nvtx = ivtx.get(nvtx.nj.get(nid));
-                    if (nvtx.inout == 'o') {
-                        break;
-                    }
-                }
-            
-                // // Remove the duplicate last vertex
-                // if (!tcell.VERTEX.isEmpty()) {
-                //     tcell.VERTEX.remove(tcell.VERTEX.size() - 1);
-                // }
-                tcell.VERTEX.add(nvtx);
-                vcells.add(tcell);
-            }
-        }
-    }
-    
-    
-    /**
-     * Sets neighbor vertices (nvtx) for each vertex and sorts them by angle.
-     *
-     * @param ivtx A list of Vertex_ objects.
-     * @param iedge A list of Edge_ objects.
-     */
-    public static void Set_NVertices(List<Vertex_> ivtx, List<Edge_> iedge) {
-        // Set nvtx and ne (neighboring edges) for each vertex
-        for (Edge_ edge : iedge) {
-            int j0 = edge.vertex_id[0];
-            int j1 = edge.vertex_id[1];
-            ivtx.get(j0).nj.add(j1);
-            ivtx.get(j0).ne.add(edge.id);
-            ivtx.get(j1).nj.add(j0);
-            ivtx.get(j1).ne.add(edge.id);
-        }
-    
-        // Calculate angles and sort neighbors
-        for (Vertex_ vtx : ivtx) {
-            int numNeighbors = vtx.nj_num = vtx.nj.size();
-            double[] angles = new double[numNeighbors]; // Assuming maximum of 4 neighbors
-        
-            for (int i = 0; i < numNeighbors; i++) {
-                int neighborId = vtx.ne.get(i);
-                Edge_ edge = iedge.get(neighborId);
-                List<int[]> linePts = edge.line_pts;
-            
-                int[] currentPt = null;
-                if (linePts.get(0)[0] == vtx.x && linePts.get(0)[1] == vtx.y) {
-                    currentPt = linePts.get(1);
-                } else {
-                    currentPt = linePts.get(linePts.size() - 2);
-                }
-            
-                double dx = currentPt[0] - vtx.x;
-                double dy = -(currentPt[1] - vtx.y); // Reverse y-coordinate
-                angles[i] = Math.atan2(-dy, dx);
-            }
-        
-            // Sort neighbors by angles using a simple selection sort
-            for (int i = 0; i < numNeighbors; i++) {
-                int minIndex = i;
-                double minAngle = angles[i];
-                for (int j = i + 1; j < numNeighbors; j++) {
-                    if (angles[j] < minAngle) {
-                        minAngle = angles[j];
-                        minIndex = j;
-                    }
-                }
-                // Swap angles
-                double tempAngle = angles[i];
-                angles[i] = angles[minIndex];
-                angles[minIndex] = tempAngle;
-                // Swap nj
-                int tempVtx = vtx.nj.get(i);
-                vtx.nj.set(i, vtx.nj.get(minIndex));
-                vtx.nj.set(minIndex, tempVtx);
-            }
-        }
+        return conts;
+
     }
-    
+
     
     /**
      * Calculates the area and center of a VCell_ object.
@@ -1109,6 +756,56 @@ public class ImageUtils_ {
      * @return A Triple containing the list of VCell_ objects, Vertex_s, and Edge_s.
      */
     public static Triple<List<VCell_>, List<Vertex_>, List<Edge_>> vxSet_Vertex(ImagePlus timg, int minimal_cell_size, Point cpt) {
+        return vxSet_Vertex(timg, minimal_cell_size, cpt, 1);
+    }
+
+    /**
+     * Sets vertex (VCell_) information based on image data.
+     *
+     * @param timg               The ImagePlus containing the image data.
+     * @param minimal_cell_size Threshold for minimum cell area.
+     * @param cpt                Coordinate offset (optional, default is (0, 0)).
+     * @param threads            Number of threads used inside the frame (1: sequential).
+     * @return A Triple containing the list of VCell_ objects, Vertex_s, and Edge_s.
+     */
+    public static Triple<List<VCell_>, List<Vertex_>, List<Edge_>> vxSet_Vertex(ImagePlus timg, int minimal_cell_size, Point cpt, int threads) {
+        Mesh_ mesh = vxSet_Mesh(timg, minimal_cell_size, cpt, threads);
+        if(mesh == null){
+            return null;
+        }
+        List<Vertex_> ivtx = mesh.toVertices();
+        List<Edge_> iedge = mesh.toEdges();
+        return new Triple<>(mesh.toCells(ivtx, iedge), ivtx, iedge);
+    }
+
+    /**
+     * Sets vertices, edges and cells of a frame as a columnar Mesh_.
+     *
+     * @param timg               The ImagePlus containing the image data.
+     * @param minimal_cell_size Threshold for minimum cell area.
+     * @param cpt                Coordinate offset (optional, default is (0, 0)).
+     * @param threads            Number of threads used inside the frame (1: sequential).
+     * @return The mesh, or null if a cell is too small.
+     */
+    public static Mesh_ vxSet_Mesh(ImagePlus timg, int minimal_cell_size, Point cpt, int threads) {
+        Diagnostics_ diagnostics = new Diagnostics_(0);
+        Mesh_ mesh = vxSet_Mesh(timg, minimal_cell_size, cpt, threads, new StageTimer_(), diagnostics);
+        diagnostics.flush();
+        return mesh;
+    }
+
+    /**
+     * Sets vertices, edges and cells of a frame as a columnar Mesh_, timing each step.
+     *
+     * @param timg               The ImagePlus containing the image data.
+     * @param minimal_cell_size Threshold for minimum cell area.
+     * @param cpt                Coordinate offset (optional, default is (0, 0)).
+     * @param threads            Number of threads used inside the frame (1: sequential).
+     * @param timings            Receives the time, allocations and item counts of each step.
+     * @param diagnostics        Receives the defects found on the way, in frame coordinates.
+     * @return The mesh, or null if a cell is too small.
+     */
+    public static Mesh_ vxSet_Mesh(ImagePlus timg, int minimal_cell_size, Point cpt, int threads, StageTimer_ timings, Diagnostics_ diagnostics) {
         ImageProcessor ip = timg.getProcessor();
         if (ip.getNChannels() != 1) {
             throw new IllegalArgumentException("Image must be grayscale.");
@@ -1117,102 +814,86 @@ public class ImageUtils_ {
         int width = ip.getWidth();
         int height = ip.getHeight();
         int[] CellID = new int[width * height];
-        char[] ctypes = new char[width * height];
-        List<List<int[]>> edge_conts = new ArrayList<>();
-        List<VCell_> vcells = new ArrayList<>();
-        int cell_num = 0;
+        byte[] ctypes = new byte[width * height];
+        ContourStore_ edge_conts;
     
         // Set ctypes
-        CVUtil_.setCtypes(timg, ctypes); // Assuming CVUtil_.setCtypes accepts ImagePlus
+        StageTimer_.Split split = timings.start("setCtypes");
+        CVUtil_.setCtypes(timg, ctypes, diagnostics);
+        split.count("pixels", (long) width * height).stop();
     
         // Trace contours
-        edge_conts = CVUtil_.trace(timg, ctypes, cpt); // Assuming CVUtil_.trace returns List<List<int[]>>
+        split = timings.start("trace");
+        edge_conts = CVUtil_.trace(timg, ctypes, cpt, diagnostics);
+        split.count("contours", edge_conts.liveCount()).stop();
     
         // Set CellID
-        ImageUtils_.Pair<Integer, int[]> cellInfo = utlSet_CellID(ip, minimal_cell_size, cpt);
+        split = timings.start("utlSet_CellID");
+        ImageUtils_.Pair<Integer, int[]> cellInfo = utlSet_CellID(ip, minimal_cell_size, cpt, threads, diagnostics);
+        split.stop();
         if(cellInfo == null){
             return null;
         }
-        cell_num = cellInfo.first;
         CellID = cellInfo.second;
         List<Integer> isolated_terminals = new ArrayList<>();
         // Set Vertex_
+        split = timings.start("Set_Vertex_");
         List<Vertex_> ivtx = Set_Vertex_(ip, ctypes, CellID, isolated_terminals);
-        IJ.log(String.format("isolated_terminals %d", isolated_terminals.size()));
+        split.count("vertices", ivtx.size()).count("isolated_terminals", isolated_terminals.size()).stop();
+        diagnostics.log(String.format("isolated_terminals %d", isolated_terminals.size()));
         for(int i = 0; i < isolated_terminals.size(); i++){
-            IJ.log(String.format("Isolated terminal is found at %d %d. Check for the boundary.", isolated_terminals.get(i) % width, isolated_terminals.get(i) / width));
+            int id = isolated_terminals.get(i);
+            diagnostics.add(Diagnostics_.ISOLATED_TERMINAL, id % width + cpt.x, id / width + cpt.y, 0);
         }
+        split = timings.start("Reconnect_Contours");
+        int traced = edge_conts.size();
         edge_conts = Reconnect_Contours(ip, ctypes, edge_conts, ivtx, isolated_terminals);
+        split.count("contours", edge_conts.liveCount()).stop();
+
+        // Each appended contour comes from one reconnected isolated terminal, which became an 'e' pixel
+        int[] reconnected = new int[edge_conts.size() - traced];
+        int r = 0;
+        for (int id : isolated_terminals) {
+            if (ctypes[id] == 'e' && r < reconnected.length) {
+                reconnected[r++] = id;
+            }
+        }
 
         // *** Important Change ***
         // After reconnection, we must recalculate vertices and edges because the topology has changed.
         // The previous ivtx is no longer valid after edge_conts is modified.
-        List<Integer> no_isolated_terminals = new ArrayList<>();
+        Mesh_ mesh = new Mesh_();
 
-        // Recompute vertices with the updated contours and ctypes
-        ivtx = Set_Vertex_(ip, ctypes, CellID, no_isolated_terminals);
-
-        IJ.log(String.format("The size of contours %d", edge_conts.size()));
-        // Sort by inout
-        ivtx.sort(JInOutComparator);
-        // Assign unique IDs
-        for (int i = 0; i < ivtx.size(); i++) {
-            ivtx.get(i).id = i;
-        }
-        
-        // Set Edge_
-        List<Edge_> iedge = Set_Edge_(ip, ctypes, edge_conts, ivtx);
-    
-        // Set up vertices, outer cells, and inner cells
-        Set_NVertices(ivtx, iedge);
+        // Recompute vertices with the updated contours and ctypes (sorted by inout, IDs in order)
+        split = timings.start("setVertices");
+        mesh.setVertices(ip, ctypes, CellID);
+        split.count("vertices", mesh.vertexCount).stop();
 
+        diagnostics.log(String.format("The size of contours %d", edge_conts.liveCount()));
 
-        Set_OutsideCells(vcells, ivtx);
-        Set_InsideCells(vcells, ivtx, iedge, cell_num);
+        // Set edges
+        split = timings.start("setEdges");
+        mesh.setEdges(ctypes, edge_conts);
+        split.count("edges", mesh.edgeCount).stop();
     
-        // Assign IDs to VCell_s
-        for (int i = 0; i < vcells.size(); i++) {
-            vcells.get(i).id = i;
-        }
+        // Set up neighbor vertices, then outer and inner cells from the half-edge faces
+        split = timings.start("setCells");
+        mesh.setVertexEdges();
+        HalfEdge_ half_edges = new HalfEdge_(mesh);
+        half_edges.setCells(threads);
     
         // Check cell area and calculate center
-        for (VCell_ cell : vcells) {
-            int jnum = cell.VERTEX.size();
-            double area = 0.0;
-            cell.cx = 0.0;
-            cell.cy = 0.0;
-        
-            for (int j = 0; j < jnum - 1; j++) {
-                double x1 = cell.VERTEX.get(j).x;
-                double x2 = cell.VERTEX.get(j + 1).x;
-                double y1 =  -cell.VERTEX.get(j).y; // Reverse y-coordinate
-                double y2 =  -cell.VERTEX.get(j + 1).y; // Reverse y-coordinate
-            
-                area += (x1 * y2 - x2 * y1);
-            }
-        
-            // Last segment
-            int j = jnum - 1;
-            double x1 = cell.VERTEX.get(j).x;
-            double x2 = cell.VERTEX.get(0).x;
-            double y1 = -cell.VERTEX.get(j).y; // Reverse y-coordinate
-            double y2 = -cell.VERTEX.get(0).y; // Reverse y-coordinate
-            area += (x1 * y2 - x2 * y1);
-        
-            if (area < 0.0) {
-                throw new RuntimeException(String.format("ERROR: Negative area at cell %d, %c area= %f: (%f, %f)",
-                        cell.id, cell.inout, 0.5 * area, cell.VERTEX.get(0).x, cell.VERTEX.get(0).y));
-            }
-        
-            // Calculate center
-            vxSet_vcell_center(cell);
-        }
+        mesh.setCellCenters();
+        split.count("cells", mesh.cellCount).stop();
+        mesh.tracedContours = traced;
+        mesh.reconnected = reconnected;
+        mesh.ctypes = ctypes;
+        mesh.cellID = CellID;
     
         // Update ImagePlus with processed ImageProcessor
         timg.setProcessor(ip);
     
-        // Return the results
-        return new Triple<>(vcells, ivtx, iedge);
+        return mesh;
     }
     
     
@@ -1254,21 +935,54 @@ public class ImageUtils_ {
      * @return True if numbers are consistent, False otherwise.
      */
     public static boolean check_numbers(int c_num, int e_num, int v_num, int ex_num, int f_num) {
+        return check_numbers(c_num, e_num, v_num, ex_num, f_num, IJ::log);
+    }
+
+    /**
+     * Checks consistency of vertex, edge, and cell numbers, writing them to a log sink.
+     *
+     * @param log Receives the numbers (line -> {} for none).
+     * @return True if numbers are consistent, False otherwise.
+     */
+    public static boolean check_numbers(int c_num, int e_num, int v_num, int ex_num, int f_num, Consumer<String> log) {
         int tv = v_num - 2 * ex_num;
         int te = e_num - 2 * ex_num;
         int tc = c_num - ex_num;
     
-        IJ.log(String.format(" v= %d  e= %d  c= %d", v_num, e_num, c_num));
-        IJ.log(String.format(" 4-way vtx. = %d", f_num));
-        IJ.log(String.format(" v - 2*ex_num =  tv  =  %d", tv));
-        IJ.log(String.format(" e - 2*ex_num =  te  =  %d", te));
-        IJ.log(String.format(" c -   ex_num =  tc  =  %d", tc));
-        IJ.log(String.format(" ex = %d", ex_num));
-        IJ.log(String.format(" check..  3*tv + fwj = 2*te ?  %d %d", 3 * tv + f_num, 2 * te));
-        IJ.log(String.format(" check..  tv - te + tc == 1 ?  %d", tv - te + tc));
+        log.accept(String.format(" v= %d  e= %d  c= %d", v_num, e_num, c_num));
+        log.accept(String.format(" 4-way vtx. = %d", f_num));
+        log.accept(String.format(" v - 2*ex_num =  tv  =  %d", tv));
+        log.accept(String.format(" e - 2*ex_num =  te  =  %d", te));
+        log.accept(String.format(" c -   ex_num =  tc  =  %d", tc));
+        log.accept(String.format(" ex = %d", ex_num));
+        log.accept(String.format(" check..  3*tv + fwj = 2*te ?  %d %d", 3 * tv + f_num, 2 * te));
+        log.accept(String.format(" check..  tv - te + tc == 1 ?  %d", tv - te + tc));
     
         return (2 * te == 3 * tv + f_num) && (tv - te + tc == 1);
     }
+
+    /**
+     * Checks consistency of the vertex, edge, and cell numbers of a mesh, writing them to a log sink.
+     *
+     * @param mesh The mesh of the frame.
+     * @param log  Receives the numbers (line -> {} for none).
+     * @return True if numbers are consistent, False otherwise.
+     */
+    public static boolean check_numbers(Mesh_ mesh, Consumer<String> log) {
+        int f_num = 0;
+        int ex_num = 0;
+        for (int v = 0; v < mesh.vertexCount; v++) {
+            if (mesh.vctype[v] == 'f') {
+                f_num++;
+            }
+        }
+        for (int c = 0; c < mesh.cellCount; c++) {
+            if (mesh.cinout[c] == 'o') {
+                ex_num++;
+            }
+        }
+        return check_numbers(mesh.cellCount, mesh.edgeCount, mesh.vertexCount, ex_num, f_num, log);
+    }
     
     
     /**
@@ -1287,6 +1001,87 @@ public class ImageUtils_ {
             throw new RuntimeException("Error writing to file: " + filename, e);
         }
     }
+
+    /**
+     * Outputs the vertex data of a mesh to a file.
+     *
+     * @param filename The name of the output file.
+     * @param mesh     The mesh of the frame.
+     * @param cpt      Coordinate offset (optional, default is (0, 0)).
+     */
+    public static void vxOutputDatas(String filename, Mesh_ mesh, Point cpt) {
+        try (TextWriter_ writer = new TextWriter_(filename)) {
+            vxOutputDatas_file(writer, mesh, cpt);
+        } catch (IOException e) {
+            throw new RuntimeException("Error writing to file: " + filename, e);
+        }
+    }
+
+    /**
+     * Outputs the vertex data of a mesh to a TextWriter_, in the same format as the list version.
+     *
+     * @param fp   The TextWriter_ to write to.
+     * @param mesh The mesh of the frame.
+     * @param cpt  Coordinate offset (optional, default is (0, 0)).
+     */
+    public static void vxOutputDatas_file(TextWriter_ fp, Mesh_ mesh, Point cpt) throws IOException {
+        int f_num = 0;
+        int ex_num = 0;
+        for (int v = 0; v < mesh.vertexCount; v++) {
+            if (mesh.vctype[v] == 'f') {
+                f_num++;
+            }
+        }
+        for (int c = 0; c < mesh.cellCount; c++) {
+            if (mesh.cinout[c] == 'o') {
+                ex_num++;
+            }
+        }
+        // The numbers were logged when the frame was saved (GetVertex_.saveFrame), not from the writer threads
+        if (!check_numbers(mesh.cellCount, mesh.edgeCount, mesh.vertexCount, ex_num, f_num, line -> {})) {
+            throw new RuntimeException("Not consistent number of vertex, edges, and vertices.");
+        }
+        vxOutputHeader(fp, mesh.cellCount, mesh.edgeCount, mesh.vertexCount, ex_num);
+
+        // Write vertices
+        for (int v = 0; v < mesh.vertexCount; v++) {
+            fp.text("V[").integer(v).text("] ").fixed(mesh.vx[v] + cpt.x).text(" ").fixed(-(mesh.vy[v] + cpt.y)).text(" ");
+            fp.text(mesh.vinout[v] == 'o' ? "Ext\n" : "\n");
+        }
+        fp.text("\n");
+
+        // Write edges
+        for (int e = 0; e < mesh.edgeCount; e++) {
+            fp.text("E[").integer(e).text("] ").integer(mesh.ev0[e]).text(" ").integer(mesh.ev1[e]).text(" ");
+            fp.text(mesh.einout[e] == 'o' ? "Ext\n" : "\n");
+        }
+        fp.text("\n");
+
+        // Write cells
+        for (int c = 0; c < mesh.cellCount; c++) {
+            int s = mesh.cvertStart[c];
+            int n = mesh.cvertStart[c + 1] - s;
+            fp.text("C[").integer(c).text("] ").integer(n).text(" : ");
+            for (int k = 0; k < n; k++) {
+                fp.integer(mesh.cvert[s + k]).text(" ");
+            }
+            fp.text(mesh.cinout[c] == 'o' ? " Ext\n" : "\n");
+        }
+        fp.text("\n");
+    }
+
+    // Writes the "###" header lines
+    private static void vxOutputHeader(TextWriter_ fp, int c_num, int e_num, int v_num, int ex_num) throws IOException {
+        fp.text("### C_NUM ").integer(c_num).text(" \n");
+        fp.text("###  IN_CNUM ").integer(c_num - ex_num).text(" \n");
+        fp.text("###  EX_CNUM ").integer(ex_num).text(" \n");
+        fp.text("### E_NUM ").integer(e_num).text(" \n");
+        fp.text("###  IN_E_NUM ").integer(e_num - ex_num).text(" \n");
+        fp.text("###  EX_E_NUM ").integer(ex_num).text(" \n");
+        fp.text("### V_NUM ").integer(v_num).text(" \n");
+        fp.text("###  IN_V_NUM ").integer(v_num - ex_num).text(" \n");
+        fp.text("###  EX_V_NUM ").integer(ex_num).text(" \n");
+    }
     
     /**
      * Outputs vertex data to a BufferedWriter.
@@ -1330,8 +1125,9 @@ public class ImageUtils_ {
         fp.write(String.format("###  EX_V_NUM %d \n", ex_num));
     
         // Write Vertex_s
-        for (Vertex_ vtx : ovtx) {
-            if (vtx.id != ovtx.indexOf(vtx)) {
+        for (int i = 0; i < ovtx.size(); i++) {
+            Vertex_ vtx = ovtx.get(i);
+            if (vtx.id != i) {
                 throw new RuntimeException("Vertex_ ID mismatch.");
             }
             fp.write(String.format("V[%d] %f %f ", vtx.id, vtx.x + cpt.x, -(vtx.y + cpt.y)));
@@ -1395,44 +1191,45 @@ public class ImageUtils_ {
      * @param cpt            Coordinate offset (optional, default is (0, 0)).
      */
     public static void vxDraw_Vertex(ImageProcessor src_img, List<Edge_> edges, String out_image_name, int waiting_time, Point cpt) {
+        vxDraw_Vertex(src_img, edges, out_image_name, waiting_time, cpt, true);
+    }
+
+    /**
+     * Draws edges on a green RGB image based on the grayscale source image.
+     *
+     * @param src_img        The grayscale ImageProcessor to base the green channel on.
+     * @param edges          A list of Edge_ objects to draw.
+     * @param out_image_name The name/path for the output image.
+     * @param waiting_time   Time to wait after drawing (0 to wait for user input).
+     * @param cpt            Coordinate offset (optional, default is (0, 0)).
+     * @param show           Whether to show the image in a window (false for headless runs).
+     */
+    public static void vxDraw_Vertex(ImageProcessor src_img, List<Edge_> edges, String out_image_name, int waiting_time, Point cpt, boolean show) {
         int width = src_img.getWidth();
         int height = src_img.getHeight();
-        ColorProcessor vimg = new ColorProcessor(width, height);
+        OverlayRenderer_ vimg = new OverlayRenderer_(width, height);
     
         // Draw the green channel based on the grayscale source image
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                int gray_value = src_img.getPixel(x, y) & 0xFF;
-                vimg.setColor(new Color(0, gray_value, 0)); // Set green channel with grayscale value
-                vimg.drawPixel(x, y);
-            }
-        }
+        vimg.fillGreen(src_img);
     
         // Draw the edges
-        Color rcolor = Color.MAGENTA; // Magenta color for the lines
-    
-        for (Edge_ edge : edges) {
-            int[] pt1 = edge.X.get(0);
-            int[] pt2 = edge.X.get(1);
-            Point p1 = new Point(pt1[0] + cpt.x, pt1[1] + cpt.y);
-            Point p2 = new Point(pt2[0] + cpt.x, pt2[1] + cpt.y);
-            vimg.setColor(rcolor);
-            vimg.drawLine(p1.x, p1.y, p2.x, p2.y); // Draw line on the ColorProcessor
-        }
+        vimg.drawEdges(edges, cpt, OverlayRenderer_.MAGENTA);
     
         // Show the image
-        ImagePlus imp_vimg = new ImagePlus("Vertex", vimg);
-        imp_vimg.show();
-        // Save the output image
-        IJ.saveAs(imp_vimg, "png", out_image_name);
+        ImagePlus imp_vimg = new ImagePlus("Vertex", vimg.toProcessor());
+        if (show) {
+            imp_vimg.show();
+        }
+        // Save the output image (FileSaver, not IJ.saveAs, which needs the ImageJ menus and fails headless)
+        if (!new FileSaver(imp_vimg).saveAsPng(out_image_name)) {
+            throw new RuntimeException("Error writing to file: " + out_image_name);
+        }
     
         // Wait for user input if waiting_time == 0
-        if (waiting_time == 0) {
+        if (show && waiting_time == 0) {
             IJ.log("Press any key while focusing on the image to continue...");
             IJ.wait(0); // Wait indefinitely
         }
-    
-        IJ.log("> Output vertex file: " + out_image_name);
     }
     
     
@@ -1447,30 +1244,36 @@ public class ImageUtils_ {
      * @param cpt        (Optional) An offset point to shift the polygon's position.
      */
     public static void vxDraw_Polygon(List<Edge_> edges, ImagePlus src_img, String outfile, Point cpt) {
+        vxDraw_Polygon(edges, src_img, outfile, cpt, true);
+    }
+
+    /**
+     * Draws a polygon defined by a list of edges on an ImagePlus in Fiji.
+     *
+     * @param edges      A list of Edge_ objects representing the polygon's edges.
+     * @param src_img    The source ImagePlus to draw on.
+     * @param outfile    (Optional) The path to save the resulting image.
+     * @param cpt        (Optional) An offset point to shift the polygon's position.
+     * @param show       Whether to show the image in a window (false for headless runs).
+     */
+    public static void vxDraw_Polygon(List<Edge_> edges, ImagePlus src_img, String outfile, Point cpt, boolean show) {
         int width = src_img.getWidth();
         int height = src_img.getHeight();
-        ColorProcessor vimg = new ColorProcessor(width, height);
+        OverlayRenderer_ vimg = new OverlayRenderer_(width, height);
     
-        // Draw the edges
-        Color rcolor = Color.MAGENTA; // Magenta color for the lines
-    
-        for (Edge_ edge : edges) {
-            int[] pt1 = edge.X.get(0);
-            int[] pt2 = edge.X.get(1);
-            Point p1 = new Point(pt1[0] + cpt.x, pt1[1] + cpt.y);
-            Point p2 = new Point(pt2[0] + cpt.x, pt2[1] + cpt.y);
-            vimg.setColor(rcolor);
-            vimg.drawLine(p1.x, p1.y, p2.x, p2.y); // Draw line on the ColorProcessor
-        }
+        // Draw the edges in magenta
+        vimg.drawEdges(edges, cpt, OverlayRenderer_.MAGENTA);
     
         // Show the image
-        ImagePlus imp_vimg = new ImagePlus("Polygon", vimg);
-        imp_vimg.show();
-        imp_vimg.getWindow().toFront(); // Bring the window to the front
+        ImagePlus imp_vimg = new ImagePlus("Polygon", vimg.toProcessor());
+        if (show) {
+            imp_vimg.show();
+            imp_vimg.getWindow().toFront(); // Bring the window to the front
+        }
     
         // Save the output image if outfile is provided
-        if (outfile != null && !outfile.isEmpty()) {
-            IJ.saveAs(imp_vimg, "PNG", outfile);
+        if (outfile != null && !outfile.isEmpty() && !new FileSaver(imp_vimg).saveAsPng(outfile)) {
+            throw new RuntimeException("Error writing to file: " + outfile);
         }
     }
     
@@ -0,0 +1,585 @@
+
+
+import ij.ImagePlus;
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+import java.awt.Point;
+import java.util.Arrays;
+
+/**
+ * Incremental vertex extraction for time-lapse stacks, whose consecutive frames usually differ
+ * in a few percent of the skeleton pixels.
+ *
+ * update XORs a frame with the previous one and extracts again only the cells within
+ * DIRTY_RADIUS pixels of a change. In a window around them, the boundary-processed pixels,
+ * ctypes, contours and cell labels of the previous frame are patched; the contours and labels
+ * are then put back into the order a full extraction gives them (contours by start pixel and
+ * first step, as CVUtil_.trace emits them, labels by first pixel, as Labeler_ numbers them), and
+ * the mesh is assembled with the usual Mesh_ / HalfEdge_ steps. The result is the same as that
+ * of GetVertex_.processFrame, IDs included.
+ *
+ * update returns null, and the frame has to be extracted from scratch, whenever the shortcut
+ * could differ from a full extraction: no clean previous frame, a change near the image border
+ * or the background, a defect near a change (four-block, 'z' / 'b' pixel, isolated terminal,
+ * small cell, trace error), or more than MAX_CHANGED_FRACTION of the pixels changed.
+ *
+ * Frames must be passed in order from one thread; remember takes each frame extracted from
+ * scratch.
+ */
+class IncrementalMesh_ {
+    public static final double MAX_CHANGED_FRACTION = 0.05; // Extract from scratch above this
+    private static final int DIRTY_RADIUS = 2; // Cells this close to a changed pixel are extracted again
+    private static final int MARGIN = 3;       // Window margin around them (membrane, ctypes, trace border)
+    private static final byte WHITE = -1;
+
+    // The previous frame; null if the next one has to be extracted from scratch
+    private FrameResult_ previous;
+    private byte[] source;      // Raw pixels
+    private int sourceWidth;
+    private int sourceHeight;
+    private int width;          // Size of the boundary-processed (cropped) image
+    private int height;
+    private byte[] processed;   // Boundary-processed pixels (those of previous.image, never modified)
+    private byte[] ctypes;      // After contour reconnection, updated in place
+    private int[] cellID;       // Updated in place
+    private ContourStore_ contours;
+    private int labelCount;     // Highest label (1: background)
+    private int[] first;        // Per label: first pixel and bounding box
+    private int[] minX, minY, maxX, maxY;
+
+    /**
+     * Keeps a frame that was extracted from scratch as the base of the next update.
+     * Frames with diagnostics or reconnected contours are not kept.
+     */
+    public void remember(FrameResult_ frame) {
+        previous = null;
+        Mesh_ mesh = frame.mesh;
+        if (mesh == null || mesh.cellID == null || frame.diagnostics.total() > 0
+                || mesh.contours.liveCount() != mesh.contours.size()
+                || !(frame.source.getPixels() instanceof byte[])
+                || !(frame.image.getProcessor().getPixels() instanceof byte[])) {
+            return;
+        }
+        source = (byte[]) frame.source.getPixels();
+        sourceWidth = frame.source.getWidth();
+        sourceHeight = frame.source.getHeight();
+        width = frame.image.getWidth();
+        height = frame.image.getHeight();
+        processed = (byte[]) frame.image.getProcessor().getPixels();
+        ctypes = mesh.ctypes;
+        cellID = mesh.cellID;
+        contours = mesh.contours;
+
+        labelCount = 1;
+        for (int l : cellID) {
+            labelCount = Math.max(labelCount, l);
+        }
+        first = new int[labelCount + 1];
+        minX = new int[labelCount + 1];
+        minY = new int[labelCount + 1];
+        maxX = new int[labelCount + 1];
+        maxY = new int[labelCount + 1];
+        Arrays.fill(first, -1);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int l = cellID[y * width + x];
+                if (first[l] < 0) {
+                    first[l] = y * width + x;
+                    minX[l] = maxX[l] = x;
+                    minY[l] = maxY[l] = y;
+                } else {
+                    minX[l] = Math.min(minX[l], x);
+                    maxX[l] = Math.max(maxX[l], x);
+                    maxY[l] = y;
+                }
+            }
+        }
+        previous = frame;
+    }
+
+    /**
+     * Extracts a frame from the previous one.
+     *
+     * @param ip                The raw frame.
+     * @param num               Frame number (1-based).
+     * @param stackSize         Number of frames in the stack (for reporting).
+     * @param minimal_cell_size Threshold for minimum cell area.
+     * @param threads           Number of threads used for the cell assembly.
+     * @param diagnostics       The frame's collector; receives the log lines, also when null is returned.
+     * @return The frame result, or null if the frame has to be extracted from scratch.
+     */
+    public FrameResult_ update(ImageProcessor ip, int num, int stackSize, int minimal_cell_size, int threads, Diagnostics_ diagnostics) {
+        if (previous == null || !(ip.getPixels() instanceof byte[])
+                || ip.getWidth() != sourceWidth || ip.getHeight() != sourceHeight) {
+            return null;
+        }
+        FrameResult_ frame = new FrameResult_(num, ip);
+        frame.diagnostics = diagnostics;
+        byte[] src = (byte[]) ip.getPixels();
+        Point cpt = previous.cpt;
+        int w = width;
+
+        // Changed pixels, in boundary-processed coordinates; all must be off the crop border
+        StageTimer_.Split split = frame.timings.start("incremental");
+        int limit = (int) (MAX_CHANGED_FRACTION * width * height);
+        int[] changed = new int[64];
+        int nchanged = 0;
+        for (int i = 0; i < src.length; i++) {
+            if ((src[i] ^ source[i]) == 0) continue;
+            int x = i % sourceWidth - cpt.x;
+            int y = i / sourceWidth - cpt.y;
+            if (nchanged == limit || x < MARGIN || y < MARGIN || x >= width - MARGIN || y >= height - MARGIN) {
+                return giveUp(split);
+            }
+            if (nchanged == changed.length) {
+                changed = Arrays.copyOf(changed, nchanged * 2);
+            }
+            changed[nchanged++] = y * w + x;
+        }
+
+        if (nchanged == 0) {
+            // Same frame again: only the mesh is assembled
+            split.count("pixels", 0).stop();
+            source = src;
+            previous = null;
+            frame.diagnostics.log("## frame: " + num + " / " + stackSize);
+            frame.diagnostics.log(" > Incremental update: no changed pixels");
+            return assemble(frame, cpt, processed, threads);
+        }
+
+        // Cells near a change, and the window around them
+        boolean[] dirty = new boolean[labelCount + 1];
+        int ndirty = 0;
+        int x0 = width, y0 = height, x1 = -1, y1 = -1;
+        for (int i = 0; i < nchanged; i++) {
+            int p = changed[i];
+            for (int dy = -DIRTY_RADIUS; dy <= DIRTY_RADIUS; dy++) {
+                for (int dx = -DIRTY_RADIUS; dx <= DIRTY_RADIUS; dx++) {
+                    int l = cellID[p + dy * w + dx];
+                    if (l == 1) {
+                        return giveUp(split); // Near the background
+                    }
+                    if (l >= 2 && !dirty[l]) {
+                        dirty[l] = true;
+                        ndirty++;
+                        x0 = Math.min(x0, minX[l]);
+                        y0 = Math.min(y0, minY[l]);
+                        x1 = Math.max(x1, maxX[l]);
+                        y1 = Math.max(y1, maxY[l]);
+                    }
+                }
+            }
+        }
+        x0 -= MARGIN;
+        y0 -= MARGIN;
+        x1 += MARGIN;
+        y1 += MARGIN;
+        if (ndirty == 0 || x0 < 0 || y0 < 0 || x1 >= width || y1 >= height) {
+            return giveUp(split);
+        }
+        int ww = x1 - x0 + 1;
+        int wh = y1 - y0 + 1;
+        int[] nb = { -ww - 1, -ww, -ww + 1, -1, 1, ww - 1, ww, ww + 1 }; // 8 neighbors in the window
+
+        // Closed region of the dirty cells: 1 inside, 2 on their membrane
+        byte[] mask = new byte[ww * wh];
+        for (int y = 0; y < wh; y++) {
+            for (int x = 0; x < ww; x++) {
+                int l = cellID[(y + y0) * w + x + x0];
+                if (l >= 2 && dirty[l]) {
+                    mask[y * ww + x] = 1;
+                }
+            }
+        }
+        for (int y = 0; y < wh; y++) {
+            for (int x = 0; x < ww; x++) {
+                if (mask[y * ww + x] != 1) continue;
+                for (int k = 0; k < 8; k++) {
+                    int li = y * ww + x + nb[k];
+                    if (mask[li] == 0 && cellID[global(li, ww, x0, y0)] == 0) {
+                        mask[li] = 2;
+                    }
+                }
+            }
+        }
+        for (int li = 0; li < mask.length; li++) {
+            if (mask[li] == 0) continue;
+            int g = global(li, ww, x0, y0);
+            for (int dy = -DIRTY_RADIUS; dy <= DIRTY_RADIUS; dy++) {
+                for (int dx = -DIRTY_RADIUS; dx <= DIRTY_RADIUS; dx++) {
+                    if (cellID[g + dy * w + dx] == 1) {
+                        return giveUp(split); // A dirty cell touches the background
+                    }
+                }
+            }
+        }
+
+        // Every change must lie in the region, without four-blocks around it
+        for (int i = 0; i < nchanged; i++) {
+            int p = changed[i];
+            if (mask[local(p, ww, x0, y0)] == 0) {
+                return giveUp(split);
+            }
+            int r = raw(p, cpt);
+            for (int q : new int[] { r - sourceWidth - 1, r - sourceWidth, r - 1, r }) {
+                if (src[q] == WHITE && src[q + 1] == WHITE && src[q + sourceWidth] == WHITE && src[q + sourceWidth + 1] == WHITE) {
+                    return giveUp(split);
+                }
+            }
+        }
+
+        // New boundary-processed pixels: the raw frame inside the region, without isolated pixels ('d')
+        byte[] proc = processed.clone();
+        for (int li = 0; li < mask.length; li++) {
+            if (mask[li] == 0) continue;
+            int g = global(li, ww, x0, y0);
+            byte v = src[raw(g, cpt)];
+            if (v != 0 && v != WHITE) {
+                return giveUp(split);
+            }
+            proc[g] = v;
+        }
+        for (int li = 0; li < mask.length; li++) {
+            if (mask[li] == 0) continue;
+            int g = global(li, ww, x0, y0);
+            if (proc[g] == WHITE && ctype(proc, g, w) == 'd') {
+                proc[g] = 0;
+            }
+        }
+
+        // ctypes of the region; pixels next to a changed pixel must be in it
+        byte[] wpix = new byte[ww * wh];
+        byte[] wct = new byte[ww * wh];
+        boolean[] near = new boolean[ww * wh]; // Within one pixel of a changed pixel
+        for (int y = 0; y < wh; y++) {
+            System.arraycopy(proc, (y + y0) * w + x0, wpix, y * ww, ww);
+            System.arraycopy(ctypes, (y + y0) * w + x0, wct, y * ww, ww);
+        }
+        for (int li = 0; li < mask.length; li++) {
+            if (mask[li] == 0) continue;
+            int g = global(li, ww, x0, y0);
+            if (proc[g] != processed[g]) {
+                near[li] = true;
+                for (int k = 0; k < 8; k++) {
+                    if (mask[li + nb[k]] == 0) {
+                        return giveUp(split);
+                    }
+                    near[li + nb[k]] = true;
+                }
+            }
+            byte t = ctype(proc, g, w);
+            if (t == 'z' || t == 'b') {
+                return giveUp(split);
+            }
+            wct[li] = t;
+        }
+
+        // Trace the window; the contours lying in the region replace those of the previous frame
+        Diagnostics_ traceDiagnostics = new Diagnostics_(num);
+        ContourStore_ traced = CVUtil_.trace(new ImagePlus("", new ByteProcessor(ww, wh, wpix.clone())), wct,
+                new Point(cpt.x + x0, cpt.y + y0), traceDiagnostics);
+        if (traced == null || traceDiagnostics.total() > 0) {
+            return giveUp(split);
+        }
+        boolean[] covered = new boolean[ww * wh];
+        long[] fresh = new long[16]; // Sort key * 2^24 + contour in traced
+        int nfresh = 0;
+        for (int c = 0; c < traced.size(); c++) {
+            int len = traced.length(c);
+            boolean inside = len >= 2;
+            for (int i = 0; i < len && inside; i++) {
+                inside = mask[traced.point(c, i)] != 0;
+            }
+            if (!inside) continue;
+            // The boundary processing drops contours whose ends touch no cell
+            if (!touchesCell(wpix, traced.first(c), nb) || !touchesCell(wpix, traced.last(c), nb) || c >= (1 << 24)) {
+                return giveUp(split);
+            }
+            for (int i = 0; i < len; i++) {
+                covered[traced.point(c, i)] = true;
+            }
+            if (nfresh == fresh.length) {
+                fresh = Arrays.copyOf(fresh, nfresh * 2);
+            }
+            int g0 = global(traced.first(c), ww, x0, y0);
+            int g1 = global(traced.point(c, 1), ww, x0, y0);
+            fresh[nfresh++] = (key(g0, g1, w) << 24) | c;
+        }
+        Arrays.sort(fresh, 0, nfresh);
+
+        // Contours of the previous frame: drop those in the region, keep the others if unchanged
+        boolean[] dropped = new boolean[contours.size()];
+        int ndropped = 0;
+        for (int c = 0; c < contours.size(); c++) {
+            int len = contours.length(c);
+            boolean inside = true;
+            boolean touched = false;
+            for (int i = 0; i < len; i++) {
+                int g = contours.point(c, i);
+                int x = g % w - x0;
+                int y = g / w - y0;
+                if (x < 0 || y < 0 || x >= ww || y >= wh || mask[y * ww + x] == 0) {
+                    inside = false;
+                } else if (near[y * ww + x]) {
+                    touched = true;
+                }
+            }
+            if (inside) {
+                dropped[c] = true;
+                ndropped++;
+            } else if (touched) {
+                return giveUp(split);
+            }
+        }
+        for (int c = 0; c < contours.size(); c++) {
+            if (dropped[c]) continue;
+            for (int i = 0; i < contours.length(c); i++) {
+                int g = contours.point(c, i);
+                int x = g % w - x0;
+                int y = g / w - y0;
+                if (x >= 0 && y >= 0 && x < ww && y < wh) {
+                    covered[y * ww + x] = true;
+                }
+            }
+        }
+        for (int li = 0; li < mask.length; li++) {
+            if (mask[li] != 0 && wpix[li] == WHITE && !covered[li]) {
+                return giveUp(split); // Not on any contour (e.g. a loop without vertices)
+            }
+        }
+
+        // Merge the kept and the new contours in trace order
+        ContourStore_ merged = new ContourStore_(w);
+        int f = 0;
+        long last = -1;
+        for (int c = 0; c <= contours.size(); c++) {
+            long k = Long.MAX_VALUE;
+            if (c < contours.size()) {
+                if (dropped[c]) continue;
+                k = key(contours.first(c), contours.point(c, 1), w);
+                if (k <= last) {
+                    return giveUp(split); // Not in trace order
+                }
+                last = k;
+            }
+            while (f < nfresh && (fresh[f] >>> 24) < k) {
+                int t = (int) (fresh[f++] & ((1 << 24) - 1));
+                merged.beginContour();
+                for (int i = 0; i < traced.length(t); i++) {
+                    merged.addPoint(global(traced.point(t, i), ww, x0, y0));
+                }
+                merged.endContour();
+            }
+            if (c < contours.size()) {
+                merged.beginContour();
+                for (int i = 0; i < contours.length(c); i++) {
+                    merged.addPoint(contours.point(c, i));
+                }
+                merged.endContour();
+            }
+        }
+
+        // Label the window; the regions inside the region are the new cells
+        Labeler_ labeler = new Labeler_();
+        labeler.label(wpix, ww, wh);
+        boolean[] inner = new boolean[labeler.count + 1];
+        Arrays.fill(inner, true);
+        for (int li = 0; li < mask.length; li++) {
+            if (mask[li] == 0) inner[labeler.labels[li]] = false;
+        }
+        for (int li = 0; li < mask.length; li++) {
+            if (mask[li] != 0 && wpix[li] == 0 && !inner[labeler.labels[li]]) {
+                return giveUp(split); // A new cell leaks out of the region
+            }
+        }
+        int nnew = 0;
+        for (int r = 1; r <= labeler.count; r++) {
+            if (!inner[r]) continue;
+            if (labeler.area[r] <= minimal_cell_size) {
+                return giveUp(split);
+            }
+            nnew++;
+        }
+
+        // No isolated terminals in the region (Reconnect_Contours would change the contours)
+        for (int li = 0; li < mask.length; li++) {
+            if (mask[li] == 0 || (wct[li] != 't' && wct[li] != 'j' && wct[li] != 'f')) continue;
+            int[] cells = new int[8];
+            int m = 0;
+            for (int k = 0; k < 8; k++) {
+                int ln = li + nb[k];
+                int c = mask[ln] == 0 ? cellID[global(ln, ww, x0, y0)]
+                        : wpix[ln] != 0 ? 0 : labelCount + labeler.labels[ln];
+                int j = 0;
+                while (j < m && cells[j] != c) j++;
+                if (j == m) cells[m++] = c;
+            }
+            if (m == 2 && Math.min(cells[0], cells[1]) == 0 && Math.max(cells[0], cells[1]) != 1) {
+                return giveUp(split);
+            }
+        }
+
+        // Renumber the labels by first pixel: the kept ones and the new ones are each in that order
+        int count = labelCount - ndirty + nnew;
+        int[] oldTo = new int[labelCount + 1];
+        int[] newTo = new int[labeler.count + 1];
+        int[] nfirst = new int[count + 1];
+        int[] nminX = new int[count + 1], nminY = new int[count + 1], nmaxX = new int[count + 1], nmaxY = new int[count + 1];
+        nfirst[1] = first[1];
+        nminX[1] = minX[1];
+        nminY[1] = minY[1];
+        nmaxX[1] = maxX[1];
+        nmaxY[1] = maxY[1];
+        boolean renumbered = false;
+        int r = 1;
+        int next = 2;
+        for (int l = 2; l <= labelCount + 1; l++) {
+            if (l <= labelCount && dirty[l]) continue;
+            int lfirst = l <= labelCount ? first[l] : Integer.MAX_VALUE;
+            while (true) {
+                while (r <= labeler.count && !inner[r]) r++;
+                if (r > labeler.count) break;
+                int rfirst = global(labeler.first[r], ww, x0, y0);
+                if (rfirst > lfirst) break;
+                newTo[r] = next;
+                nfirst[next] = rfirst;
+                nminX[next] = labeler.minX[r] + x0;
+                nminY[next] = labeler.minY[r] + y0;
+                nmaxX[next] = labeler.maxX[r] + x0;
+                nmaxY[next] = labeler.maxY[r] + y0;
+                next++;
+                r++;
+            }
+            if (l > labelCount) break;
+            oldTo[l] = next;
+            renumbered |= next != l;
+            nfirst[next] = first[l];
+            nminX[next] = minX[l];
+            nminY[next] = minY[l];
+            nmaxX[next] = maxX[l];
+            nmaxY[next] = maxY[l];
+            next++;
+        }
+        split.count("pixels", nchanged).count("cells", ndirty).count("contours", nfresh).stop();
+
+        // Commit: from here on the state describes this frame
+        for (int li = 0; li < mask.length; li++) {
+            if (mask[li] == 0) continue;
+            int g = global(li, ww, x0, y0);
+            ctypes[g] = wct[li];
+        }
+        if (renumbered) {
+            for (int g = 0; g < cellID.length; g++) {
+                int l = cellID[g];
+                if (l >= 2 && !dirty[l]) {
+                    cellID[g] = oldTo[l];
+                }
+            }
+        }
+        for (int li = 0; li < mask.length; li++) {
+            if (mask[li] == 0) continue;
+            cellID[global(li, ww, x0, y0)] = wpix[li] != 0 ? 0 : newTo[labeler.labels[li]];
+        }
+        labelCount = count;
+        first = nfirst;
+        minX = nminX;
+        minY = nminY;
+        maxX = nmaxX;
+        maxY = nmaxY;
+        source = src;
+        processed = proc;
+        contours = merged;
+        previous = null;
+        frame.diagnostics.log("## frame: " + num + " / " + stackSize);
+        frame.diagnostics.log(String.format(" > Incremental update: %d changed pixels, %d cells extracted again (%d contours dropped, %d traced)",
+                nchanged, ndirty, ndropped, nfresh));
+
+        return assemble(frame, cpt, proc, threads);
+    }
+
+    // Assembles the mesh of the committed state as vxSet_Mesh does and fills the frame
+    private FrameResult_ assemble(FrameResult_ frame, Point cpt, byte[] proc, int threads) {
+        ImageProcessor pip = new ByteProcessor(width, height, proc);
+        Mesh_ mesh = new Mesh_();
+        try {
+            StageTimer_.Split split = frame.timings.start("setVertices");
+            mesh.setVertices(pip, ctypes, cellID);
+            split.count("vertices", mesh.vertexCount).stop();
+            split = frame.timings.start("setEdges");
+            mesh.setEdges(ctypes, contours);
+            split.count("edges", mesh.edgeCount).stop();
+            split = frame.timings.start("setCells");
+            mesh.setVertexEdges();
+            new HalfEdge_(mesh).setCells(threads);
+            mesh.setCellCenters();
+            split.count("cells", mesh.cellCount).stop();
+        } catch (RuntimeException e) {
+            frame.diagnostics.log(" > Incremental update failed (" + e.getMessage() + "), extracting from scratch");
+            return null;
+        }
+        mesh.ctypes = ctypes;
+        mesh.cellID = cellID;
+        frame.cpt = cpt;
+        frame.image = new ImagePlus("Slice " + frame.num, pip);
+        frame.mesh = mesh;
+        frame.vertices = mesh.toVertices();
+        frame.edges = mesh.toEdges();
+        frame.cells = mesh.toCells(frame.vertices, frame.edges);
+        previous = frame;
+        return frame;
+    }
+
+    private static FrameResult_ giveUp(StageTimer_.Split split) {
+        split.stop();
+        return null;
+    }
+
+    // Pixel of the window -> pixel of the boundary-processed image
+    private int global(int li, int ww, int x0, int y0) {
+        return (li / ww + y0) * width + li % ww + x0;
+    }
+
+    // Pixel of the boundary-processed image -> pixel of the window
+    private int local(int g, int ww, int x0, int y0) {
+        return (g / width - y0) * ww + g % width - x0;
+    }
+
+    // Pixel of the boundary-processed image -> pixel of the raw frame
+    private int raw(int g, Point cpt) {
+        return (g / width + cpt.y) * sourceWidth + g % width + cpt.x;
+    }
+
+    // Trace order of a contour: its start pixel, then the direction of its first step in the
+    // neighbor order of CVUtil_.trace
+    private static long key(int p0, int p1, int w) {
+        int[] npb = { -w, -1, 1, w, -w - 1, -w + 1, w - 1, w + 1 };
+        int k = 0;
+        while (npb[k] != p1 - p0) k++;
+        return (long) p0 * 8 + k;
+    }
+
+    // ctype of an inner pixel, as CVUtil_.setCtypes sets it
+    private static byte ctype(byte[] pix, int p, int w) {
+        if (pix[p] == 0) {
+            return 'i';
+        }
+        int[] offsets = { -w - 1, -w, -w + 1, -1, 1, w - 1, w, w + 1 };
+        int index = 0;
+        for (int k = 0; k < 8; k++) {
+            if (pix[p + offsets[k]] == WHITE) {
+                index |= 1 << k;
+            }
+        }
+        return (byte) CVUtil_.CVUTIL_NCELL_TYPE[index];
+    }
+
+    // True if a pixel of the window has a zero 8-neighbor (a cell pixel, away from the background)
+    private static boolean touchesCell(byte[] wpix, int li, int[] nb) {
+        for (int k = 0; k < 8; k++) {
+            if (wpix[li + nb[k]] == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,111 @@
+
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash map from non-negative int keys (pixel indices) to int values,
+ * without boxing. Missing keys return -1.
+ */
+class IntIntMap_ {
+    private static final int EMPTY = -1;
+    private static final int DELETED = -2;
+
+    private int[] keys;
+    private int[] values;
+    private int size;
+    private int used; // Live and deleted slots
+
+    public IntIntMap_(int expected) {
+        int cap = 16;
+        while (cap < expected * 2) {
+            cap <<= 1;
+        }
+        keys = new int[cap];
+        values = new int[cap];
+        Arrays.fill(keys, EMPTY);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /** Returns the value of key, or -1 if absent. */
+    public int get(int key) {
+        int mask = keys.length - 1;
+        for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+            int k = keys[i];
+            if (k == key) return values[i];
+            if (k == EMPTY) return -1;
+        }
+    }
+
+    public boolean containsKey(int key) {
+        int mask = keys.length - 1;
+        for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+            int k = keys[i];
+            if (k == key) return true;
+            if (k == EMPTY) return false;
+        }
+    }
+
+    public void put(int key, int value) {
+        if ((used + 1) * 2 > keys.length) {
+            rehash(size * 2 > keys.length / 2 ? keys.length * 2 : keys.length);
+        }
+        int mask = keys.length - 1;
+        int slot = -1;
+        for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+            int k = keys[i];
+            if (k == key) {
+                values[i] = value;
+                return;
+            }
+            if (k == DELETED && slot < 0) {
+                slot = i;
+            } else if (k == EMPTY) {
+                if (slot < 0) {
+                    slot = i;
+                    used++;
+                }
+                break;
+            }
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        size++;
+    }
+
+    /** Removes key and returns its value, or -1 if absent. */
+    public int remove(int key) {
+        int mask = keys.length - 1;
+        for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+            int k = keys[i];
+            if (k == key) {
+                keys[i] = DELETED;
+                size--;
+                return values[i];
+            }
+            if (k == EMPTY) return -1;
+        }
+    }
+
+    private void rehash(int cap) {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new int[cap];
+        values = new int[cap];
+        Arrays.fill(keys, EMPTY);
+        size = 0;
+        used = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] >= 0) {
+                put(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,345 @@
+
+
+import ij.process.ImageProcessor;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Two-pass union-find labeling of the 4-connected zero regions of a binary image.
+ * Non-zero (membrane) pixels get label 0; regions are numbered 1, 2, ... in the order of
+ * their first pixel in row-major order, which is the numbering produced by flood filling
+ * the image row by row. Area, bounding box and first pixel of every region are collected
+ * while the final labels are written.
+ *
+ * With more than one thread the image is cut into horizontal bands that are labeled
+ * independently; labels touching across band seams are merged with a concurrent
+ * union-find and renumbered into the same row-major order.
+ */
+class Labeler_ {
+    private static final int MIN_BAND_ROWS = 64; // Do not split into bands thinner than this
+
+    public int[] labels;  // Final label per pixel (0: membrane)
+    public int count;     // Number of regions
+    public int[] area;    // Per label (index 0 unused)
+    public int[] minX, minY, maxX, maxY;
+    public int[] first;   // Index of the first pixel of each label in row-major order
+
+    /**
+     * Labels the zero regions of ip.
+     *
+     * @param ip The binary image (non-zero pixels are membrane).
+     */
+    public void label(ImageProcessor ip) {
+        label(ip, 1);
+    }
+
+    /**
+     * Labels the zero regions of ip.
+     *
+     * @param ip      The binary image (non-zero pixels are membrane).
+     * @param threads Number of threads (1: sequential).
+     */
+    public void label(ImageProcessor ip, int threads) {
+        int width = ip.getWidth();
+        int height = ip.getHeight();
+        Object pixels = ip.getPixels();
+        byte[] fg;
+        if (pixels instanceof byte[]) {
+            fg = (byte[]) pixels;
+        } else {
+            fg = new byte[width * height];
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    fg[y * width + x] = (byte) (ip.getPixel(x, y) != 0 ? 1 : 0);
+                }
+            }
+        }
+        label(fg, width, height, threads);
+    }
+
+    /**
+     * Labels the zero regions of an 8-bit raster.
+     */
+    public void label(byte[] fg, int width, int height) {
+        label(fg, width, height, 1);
+    }
+
+    /**
+     * Labels the zero regions of an 8-bit raster.
+     *
+     * @param threads Number of threads (1: sequential).
+     */
+    public void label(byte[] fg, int width, int height, int threads) {
+        labels = new int[width * height];
+        int nbands = Math.min(threads, height / MIN_BAND_ROWS);
+        if (nbands <= 1) {
+            Band band = new Band(0, height);
+            band.label(fg, width, labels);
+            count = band.count;
+            area = band.area;
+            minX = band.minX;
+            minY = band.minY;
+            maxX = band.maxX;
+            maxY = band.maxY;
+            first = band.first;
+            return;
+        }
+
+        Band[] bands = new Band[nbands];
+        for (int b = 0; b < nbands; b++) {
+            bands[b] = new Band(height * b / nbands, height * (b + 1) / nbands);
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(nbands);
+        try {
+            // Label each band independently (band-local labels in first-occurrence order)
+            List<Callable<Void>> tasks = new ArrayList<>();
+            for (Band band : bands) {
+                tasks.add(() -> {
+                    band.label(fg, width, labels);
+                    return null;
+                });
+            }
+            invokeAll(pool, tasks);
+
+            // Global ids: band-local labels shifted by the number of labels in earlier bands.
+            // Global id order is row-major first-occurrence order within each band.
+            int total = 0;
+            for (Band band : bands) {
+                band.offset = total;
+                total += band.count;
+            }
+            AtomicIntegerArray parent = new AtomicIntegerArray(total + 1);
+            for (int i = 0; i <= total; i++) {
+                parent.set(i, i);
+            }
+
+            // Merge labels touching across each seam
+            tasks.clear();
+            for (int b = 1; b < nbands; b++) {
+                Band upper = bands[b - 1];
+                Band lower = bands[b];
+                tasks.add(() -> {
+                    int row = lower.y0 * width;
+                    for (int x = 0; x < width; x++) {
+                        int a = labels[row + x - width];
+                        int c = labels[row + x];
+                        if (a != 0 && c != 0) {
+                            union(parent, upper.offset + a, lower.offset + c);
+                        }
+                    }
+                    return null;
+                });
+            }
+            invokeAll(pool, tasks);
+
+            // Roots are the smallest global id of each set, which is also the set's first pixel
+            // in row-major order, so numbering roots in increasing order is deterministic.
+            int[] resolved = new int[total + 1];
+            count = 0;
+            for (int i = 1; i <= total; i++) {
+                int r = find(parent, i);
+                resolved[i] = (r == i) ? ++count : resolved[r];
+            }
+
+            area = new int[count + 1];
+            minX = new int[count + 1];
+            minY = new int[count + 1];
+            maxX = new int[count + 1];
+            maxY = new int[count + 1];
+            first = new int[count + 1];
+            for (Band band : bands) {
+                for (int l = 1; l <= band.count; l++) {
+                    int g = resolved[band.offset + l];
+                    if (area[g] == 0) {
+                        first[g] = band.first[l];
+                        minX[g] = band.minX[l];
+                        minY[g] = band.minY[l];
+                        maxX[g] = band.maxX[l];
+                        maxY[g] = band.maxY[l];
+                    } else {
+                        minX[g] = Math.min(minX[g], band.minX[l]);
+                        maxX[g] = Math.max(maxX[g], band.maxX[l]);
+                        maxY[g] = Math.max(maxY[g], band.maxY[l]);
+                    }
+                    area[g] += band.area[l];
+                }
+            }
+
+            // Rewrite the band-local labels with the final labels
+            tasks.clear();
+            for (Band band : bands) {
+                tasks.add(() -> {
+                    for (int id = band.y0 * width; id < band.y1 * width; id++) {
+                        if (labels[id] != 0) {
+                            labels[id] = resolved[band.offset + labels[id]];
+                        }
+                    }
+                    return null;
+                });
+            }
+            invokeAll(pool, tasks);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static void invokeAll(ExecutorService pool, List<Callable<Void>> tasks) {
+        try {
+            for (Future<Void> f : pool.invokeAll(tasks)) {
+                f.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Labeling interrupted", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Labeling failed", e.getCause());
+        }
+    }
+
+    private static int find(AtomicIntegerArray parent, int a) {
+        while (true) {
+            int p = parent.get(a);
+            if (p == a) {
+                return a;
+            }
+            int gp = parent.get(p);
+            if (p != gp) {
+                parent.compareAndSet(a, p, gp);
+            }
+            a = gp;
+        }
+    }
+
+    // Links the larger root under the smaller one, so a root is always the smallest id of its set
+    private static void union(AtomicIntegerArray parent, int a, int b) {
+        while (true) {
+            a = find(parent, a);
+            b = find(parent, b);
+            if (a == b) {
+                return;
+            }
+            if (a > b) {
+                int t = a;
+                a = b;
+                b = t;
+            }
+            if (parent.compareAndSet(b, b, a)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Rows [y0, y1) labeled on their own.
+     */
+    private static class Band {
+        final int y0, y1;
+        int offset;
+        int count;
+        int[] area, minX, minY, maxX, maxY, first;
+        private int[] parent;
+
+        Band(int y0, int y1) {
+            this.y0 = y0;
+            this.y1 = y1;
+        }
+
+        void label(byte[] fg, int width, int[] labels) {
+            parent = new int[Math.max(16, ((y1 - y0) * width) / 16)];
+            int next = 1;
+
+            // First pass: provisional labels, merging the left and upper neighbors
+            for (int y = y0; y < y1; y++) {
+                int row = y * width;
+                for (int x = 0; x < width; x++) {
+                    int id = row + x;
+                    if (fg[id] != 0) {
+                        labels[id] = 0;
+                        continue;
+                    }
+                    int left = (x > 0) ? labels[id - 1] : 0;
+                    int up = (y > y0) ? labels[id - width] : 0;
+                    if (left == 0 && up == 0) {
+                        if (next == parent.length) {
+                            int[] grown = new int[parent.length * 2];
+                            System.arraycopy(parent, 0, grown, 0, next);
+                            parent = grown;
+                        }
+                        parent[next] = next;
+                        labels[id] = next++;
+                    } else if (left == 0) {
+                        labels[id] = up;
+                    } else if (up == 0 || up == left) {
+                        labels[id] = left;
+                    } else {
+                        labels[id] = union(left, up);
+                    }
+                }
+            }
+
+            // Resolve provisional labels. The root of a set is its smallest label, i.e. the label
+            // created at the region's first pixel, so numbering roots in increasing order gives
+            // the row-major first-occurrence order.
+            int[] resolved = parent;
+            count = 0;
+            for (int i = 1; i < next; i++) {
+                resolved[i] = (parent[i] == i) ? ++count : resolved[parent[i]];
+            }
+
+            area = new int[count + 1];
+            minX = new int[count + 1];
+            minY = new int[count + 1];
+            maxX = new int[count + 1];
+            maxY = new int[count + 1];
+            first = new int[count + 1];
+
+            // Second pass: final labels and per-label statistics
+            for (int y = y0; y < y1; y++) {
+                int row = y * width;
+                for (int x = 0; x < width; x++) {
+                    int id = row + x;
+                    int l = labels[id];
+                    if (l == 0) continue;
+                    l = resolved[l];
+                    labels[id] = l;
+                    if (area[l]++ == 0) {
+                        first[l] = id;
+                        minX[l] = maxX[l] = x;
+                        minY[l] = maxY[l] = y;
+                    } else {
+                        if (x < minX[l]) minX[l] = x;
+                        if (x > maxX[l]) maxX[l] = x;
+                        maxY[l] = y;
+                    }
+                }
+            }
+            parent = null;
+        }
+
+        private int find(int a) {
+            while (parent[a] != a) {
+                parent[a] = parent[parent[a]];
+                a = parent[a];
+            }
+            return a;
+        }
+
+        private int union(int a, int b) {
+            int ra = find(a);
+            int rb = find(b);
+            if (ra < rb) {
+                parent[rb] = ra;
+                return ra;
+            }
+            parent[ra] = rb;
+            return rb;
+        }
+    }
+}
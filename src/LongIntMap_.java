@@ -0,0 +1,103 @@
+
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash map from non-negative long keys to int values, without boxing, for
+ * sparse counts such as the label pair histogram of Tracker_. Missing keys return 0.
+ * The slots can be walked with slots / keyAt / valueAt (keyAt is -1 for an empty slot).
+ */
+class LongIntMap_ {
+    private static final long EMPTY = -1;
+
+    private long[] keys;
+    private int[] values;
+    private int size;
+
+    public LongIntMap_(int expected) {
+        int cap = 16;
+        while (cap < expected * 2) {
+            cap <<= 1;
+        }
+        keys = new long[cap];
+        values = new int[cap];
+        Arrays.fill(keys, EMPTY);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /** Returns the value of key, or 0 if absent. */
+    public int get(long key) {
+        int mask = keys.length - 1;
+        for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+            long k = keys[i];
+            if (k == key) return values[i];
+            if (k == EMPTY) return 0;
+        }
+    }
+
+    /** Adds delta to the value of key (0 if absent). */
+    public void add(long key, int delta) {
+        int mask = keys.length - 1;
+        int i = hash(key) & mask;
+        for (; ; i = (i + 1) & mask) {
+            long k = keys[i];
+            if (k == key) {
+                values[i] += delta;
+                return;
+            }
+            if (k == EMPTY) break;
+        }
+        keys[i] = key;
+        values[i] = delta;
+        size++;
+        if (size * 2 > keys.length) {
+            rehash(keys.length * 2);
+        }
+    }
+
+    /** Number of slots, for walking the entries with keyAt / valueAt. */
+    public int slots() {
+        return keys.length;
+    }
+
+    /** Key in slot i, or -1 if the slot is empty. */
+    public long keyAt(int i) {
+        return keys[i];
+    }
+
+    /** Value in slot i. */
+    public int valueAt(int i) {
+        return values[i];
+    }
+
+    public void clear() {
+        Arrays.fill(keys, EMPTY);
+        size = 0;
+    }
+
+    private void rehash(int cap) {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new long[cap];
+        values = new int[cap];
+        Arrays.fill(keys, EMPTY);
+        int mask = cap - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldKeys[j] == EMPTY) continue;
+            int i = hash(oldKeys[j]) & mask;
+            while (keys[i] != EMPTY) {
+                i = (i + 1) & mask;
+            }
+            keys[i] = oldKeys[j];
+            values[i] = oldValues[j];
+        }
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -0,0 +1,206 @@
+
+
+import java.awt.Point;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Binary mesh file (.mesh), written next to the text output and read back by memory mapping.
+ *
+ * Layout (little-endian, every section starts on an 8-byte boundary):
+ * <pre>
+ *   header        64 bytes: magic "GVMESH\0\0", version, V, E, C, cell vertex total, cpt.x, cpt.y, 0...
+ *   vertex xy     double[2V]   Same coordinates as the text file (x + cpt.x, -(y + cpt.y))
+ *   vertex flags  byte[V]      FLAG_EXT, FLAG_FOUR_WAY
+ *   edges         int[2E]      Vertex IDs of both ends
+ *   edge flags    byte[E]      FLAG_EXT
+ *   cell start    int[C + 1]   CSR offsets into cell vertices
+ *   cell vertices int[total]   Vertex IDs of each cell, in text file order
+ *   cell flags    byte[C]      FLAG_EXT
+ * </pre>
+ * A MeshFile_ from read exposes the sections as views of the mapped file, without copying.
+ */
+class MeshFile_ {
+    public static final byte FLAG_EXT = 1;       // Outer vertex, edge or cell
+    public static final byte FLAG_FOUR_WAY = 2;  // Vertex of type 'f'
+
+    private static final byte[] MAGIC = {'G', 'V', 'M', 'E', 'S', 'H', 0, 0};
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+
+    public int vertexCount;
+    public int edgeCount;
+    public int cellCount;
+    public Point cpt;
+    public DoubleBuffer vertexXY;  // x0, y0, x1, y1, ...
+    public ByteBuffer vertexFlags;
+    public IntBuffer edges;        // v0, v1 of edge 0, then edge 1, ...
+    public ByteBuffer edgeFlags;
+    public IntBuffer cellStart;
+    public IntBuffer cellVertices;
+    public ByteBuffer cellFlags;
+
+    public double x(int v) {
+        return vertexXY.get(2 * v);
+    }
+
+    public double y(int v) {
+        return vertexXY.get(2 * v + 1);
+    }
+
+    public boolean isExtVertex(int v) {
+        return (vertexFlags.get(v) & FLAG_EXT) != 0;
+    }
+
+    /** Number of vertices of cell c. */
+    public int cellSize(int c) {
+        return cellStart.get(c + 1) - cellStart.get(c);
+    }
+
+    /** Vertex i of cell c. */
+    public int cellVertex(int c, int i) {
+        return cellVertices.get(cellStart.get(c) + i);
+    }
+
+    /**
+     * Writes a mesh.
+     *
+     * @param filename The name of the output file.
+     * @param mesh     The mesh of the frame.
+     * @param cpt      Coordinate offset (optional, default is (0, 0)).
+     */
+    public static void write(String filename, Mesh_ mesh, Point cpt) throws IOException {
+        int v = mesh.vertexCount;
+        int e = mesh.edgeCount;
+        int c = mesh.cellCount;
+        int total = mesh.cvertStart[c];
+        long[] off = layout(v, e, c, total);
+
+        ByteBuffer b = ByteBuffer.allocate((int) off[7]).order(ByteOrder.LITTLE_ENDIAN);
+        b.put(MAGIC);
+        b.putInt(VERSION).putInt(v).putInt(e).putInt(c).putInt(total).putInt(cpt.x).putInt(cpt.y);
+
+        b.position((int) off[0]);
+        for (int i = 0; i < v; i++) {
+            b.putDouble(mesh.vx[i] + cpt.x);
+            b.putDouble(-(mesh.vy[i] + cpt.y));
+        }
+        b.position((int) off[1]);
+        for (int i = 0; i < v; i++) {
+            b.put((byte) ((mesh.vinout[i] == 'o' ? FLAG_EXT : 0) | (mesh.vctype[i] == 'f' ? FLAG_FOUR_WAY : 0)));
+        }
+        b.position((int) off[2]);
+        for (int i = 0; i < e; i++) {
+            b.putInt(mesh.ev0[i]);
+            b.putInt(mesh.ev1[i]);
+        }
+        b.position((int) off[3]);
+        for (int i = 0; i < e; i++) {
+            b.put(mesh.einout[i] == 'o' ? FLAG_EXT : 0);
+        }
+        b.position((int) off[4]);
+        for (int i = 0; i <= c; i++) {
+            b.putInt(mesh.cvertStart[i]);
+        }
+        b.position((int) off[5]);
+        for (int i = 0; i < total; i++) {
+            b.putInt(mesh.cvert[i]);
+        }
+        b.position((int) off[6]);
+        for (int i = 0; i < c; i++) {
+            b.put(mesh.cinout[i] == 'o' ? FLAG_EXT : 0);
+        }
+        b.position(0);
+
+        try (FileChannel ch = FileChannel.open(Paths.get(filename),
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (b.hasRemaining()) {
+                ch.write(b);
+            }
+        }
+    }
+
+    /**
+     * Maps a mesh file. The returned views stay valid after the file is closed.
+     *
+     * @param filename The name of the .mesh file.
+     * @return The mesh.
+     */
+    public static MeshFile_ read(String filename) throws IOException {
+        MappedByteBuffer map;
+        try (FileChannel ch = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            map = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        }
+        map.order(ByteOrder.LITTLE_ENDIAN);
+        if (map.limit() < HEADER_SIZE) {
+            throw new IOException("Not a mesh file: " + filename);
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (map.get(i) != MAGIC[i]) {
+                throw new IOException("Not a mesh file: " + filename);
+            }
+        }
+        int version = map.getInt(8);
+        if (version != VERSION) {
+            throw new IOException("Unsupported mesh file version " + version + ": " + filename);
+        }
+
+        MeshFile_ m = new MeshFile_();
+        m.vertexCount = map.getInt(12);
+        m.edgeCount = map.getInt(16);
+        m.cellCount = map.getInt(20);
+        int total = map.getInt(24);
+        m.cpt = new Point(map.getInt(28), map.getInt(32));
+        if (m.vertexCount < 0 || m.edgeCount < 0 || m.cellCount < 0 || total < 0) {
+            throw new IOException("Corrupt mesh file header: " + filename);
+        }
+        long[] off = layout(m.vertexCount, m.edgeCount, m.cellCount, total);
+        if (map.limit() < off[7]) {
+            throw new IOException("Truncated mesh file: " + filename);
+        }
+
+        m.vertexXY = section(map, off[0], 16L * m.vertexCount).asDoubleBuffer();
+        m.vertexFlags = section(map, off[1], m.vertexCount);
+        m.edges = section(map, off[2], 8L * m.edgeCount).asIntBuffer();
+        m.edgeFlags = section(map, off[3], m.edgeCount);
+        m.cellStart = section(map, off[4], 4L * (m.cellCount + 1)).asIntBuffer();
+        m.cellVertices = section(map, off[5], 4L * total).asIntBuffer();
+        m.cellFlags = section(map, off[6], m.cellCount);
+        return m;
+    }
+
+    // Section offsets; off[7] is the file size
+    private static long[] layout(int v, int e, int c, int total) {
+        long[] off = new long[8];
+        off[0] = HEADER_SIZE;
+        off[1] = align(off[0] + 16L * v);
+        off[2] = align(off[1] + v);
+        off[3] = align(off[2] + 8L * e);
+        off[4] = align(off[3] + e);
+        off[5] = align(off[4] + 4L * (c + 1));
+        off[6] = align(off[5] + 4L * total);
+        off[7] = align(off[6] + c);
+        if (off[7] > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Mesh too large for one file");
+        }
+        return off;
+    }
+
+    private static long align(long p) {
+        return (p + 7) & ~7L;
+    }
+
+    private static ByteBuffer section(ByteBuffer map, long offset, long length) {
+        ByteBuffer b = map.duplicate();
+        b.limit((int) (offset + length));
+        b.position((int) offset);
+        return b.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
@@ -0,0 +1,395 @@
+
+
+import ij.process.ImageProcessor;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Columnar (struct-of-arrays) vertex model of a frame.
+ * Vertices, edges and cells are numbered 0..n-1 and their attributes live in parallel arrays;
+ * the variable-length relations (vertex -> cells, vertex -> edges, cell -> vertices,
+ * cell -> edges) are stored in CSR form: the entries of item i are
+ * list[start[i] .. start[i + 1]).
+ *
+ * The mesh is filled step by step by ImageUtils_.vxSet_Mesh; the cells come from HalfEdge_.setCells. toVertices, toEdges and toCells
+ * convert it to the Vertex_ / Edge_ / VCell_ objects for code that still expects them.
+ */
+class Mesh_ {
+    public int width; // Width of the image the pixel indices refer to
+
+    // Vertices
+    public int vertexCount;
+    public double[] vx;
+    public double[] vy;
+    public byte[] vctype;     // 't', 'j' or 'f'
+    public byte[] vinout;     // 'i' or 'o'
+    public int[] vcellStart;  // vertex -> cells (IDs >= 2, ascending)
+    public int[] vcell;
+    public int[] vedgeStart;  // vertex -> edges, sorted by angle
+    public int[] vedge;
+    public int[] vnbr;        // Vertex at the other end of each vedge entry
+
+    // Edges
+    public int edgeCount;
+    public int[] ev0;         // Vertex at the first point of the contour
+    public int[] ev1;         // Vertex at the last point of the contour
+    public byte[] einout;     // 'i' or 'o'
+    public double[] esdist;
+    public double[] eangle;
+    public ContourStore_ contours;
+    public int[] econtour;    // Contour of each edge in contours
+    public int tracedContours; // Contours traced before Reconnect_Contours; the later ones are reconnected (set by vxSet_Mesh)
+    public int[] reconnected; // Isolated terminal each reconnected contour was made for, in contour order
+
+    // Cells
+    public int cellCount;
+    public byte[] cinout;     // 'i' or 'o'
+    public int[] cvertStart;  // cell -> vertices, counterclockwise
+    public int[] cvert;
+    public int[] cedgeStart;  // cell -> edges
+    public int[] cedge;
+    public double[] carea;
+    public double[] ccx;
+    public double[] ccy;
+    public int[] clabel;      // Cell ID of each cell in cellID (-1 for outer cells)
+    public int[] ctrack;      // Track ID of each cell, set by Tracker_ (-1 for outer cells); null if not tracked
+
+    // Pixel planes the mesh was built from (kept by vxSet_Mesh for IncrementalMesh_ and Tracker_)
+    public byte[] ctypes;     // 8-neighbor type of each pixel, after contour reconnection
+    public int[] cellID;      // Cell ID of each pixel (0: membrane, 1: background)
+
+    /**
+     * Finds the vertex pixels ('t', 'j' and 'f') and the cells around them, like
+     * ImageUtils_.Set_Vertex_. Isolated terminals are skipped. Vertices are ordered by the
+     * number of surrounding cells (outer vertices first), then in row-major order.
+     *
+     * @param ip     The ImageProcessor containing the image data.
+     * @param ctypes The 8-neighbor types of each pixel.
+     * @param CellID The cell ID of each pixel.
+     */
+    public void setVertices(ImageProcessor ip, byte[] ctypes, int[] CellID) {
+        width = ip.getWidth();
+        int height = ip.getHeight();
+        int[] npb = {-width, -1, 1, width, -width - 1, -width + 1, width - 1, width + 1}; // Neighbor pixel offsets
+
+        int n = 0;
+        int[] pix = new int[256];
+        int[] cells = new int[256 * 8]; // Up to 8 cells per vertex
+        int[] ncells = new int[256];
+        int[] nb = new int[8];
+        for (int y = 1; y < height - 1; y++) {
+            for (int x = 1; x < width - 1; x++) {
+                int id = y * width + x;
+                if (ctypes[id] != 't' && ctypes[id] != 'j' && ctypes[id] != 'f') continue;
+
+                // Distinct neighbor cell IDs in ascending order
+                int m = 0;
+                for (int k = 0; k < 8; k++) {
+                    int c = CellID[id + npb[k]];
+                    int i = m;
+                    while (i > 0 && nb[i - 1] > c) i--;
+                    if (i > 0 && nb[i - 1] == c) continue;
+                    System.arraycopy(nb, i, nb, i + 1, m - i);
+                    nb[i] = c;
+                    m++;
+                }
+
+                // Isolated terminal (reported by vxSet_Mesh)
+                if (m == 2 && nb[0] == 0 && nb[1] != 1) {
+                    continue;
+                }
+
+                if (n == pix.length) {
+                    pix = Arrays.copyOf(pix, n * 2);
+                    ncells = Arrays.copyOf(ncells, n * 2);
+                    cells = Arrays.copyOf(cells, n * 16);
+                }
+                int cnt = 0;
+                for (int i = 0; i < m; i++) {
+                    if (nb[i] != 0 && nb[i] != 1) {
+                        cells[n * 8 + cnt++] = nb[i];
+                    }
+                }
+                pix[n] = id;
+                ncells[n] = cnt;
+                n++;
+            }
+        }
+
+        // Stable counting sort by the number of cells
+        int[] bucket = new int[10];
+        for (int i = 0; i < n; i++) bucket[ncells[i] + 1]++;
+        for (int b = 1; b < 10; b++) bucket[b] += bucket[b - 1];
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) order[bucket[ncells[i]]++] = i;
+
+        vertexCount = n;
+        vx = new double[n];
+        vy = new double[n];
+        vctype = new byte[n];
+        vinout = new byte[n];
+        vcellStart = new int[n + 1];
+        int total = 0;
+        for (int i = 0; i < n; i++) total += ncells[i];
+        vcell = new int[total];
+        int pos = 0;
+        for (int v = 0; v < n; v++) {
+            int i = order[v];
+            vx[v] = pix[i] % width;
+            vy[v] = pix[i] / width;
+            vctype[v] = ctypes[pix[i]];
+            vinout[v] = (byte) (ncells[i] == 0 ? 'o' : 'i');
+            vcellStart[v] = pos;
+            System.arraycopy(cells, i * 8, vcell, pos, ncells[i]);
+            pos += ncells[i];
+        }
+        vcellStart[n] = pos;
+    }
+
+    /**
+     * Sets the edges from the live contours: each joins the vertices at its two ends and is outer
+     * ('o') if one of them is a terminal ('t'). Outer edges come first, each group in contour order.
+     *
+     * @param ctypes The 8-neighbor types of each pixel.
+     * @param conts  The traced (and reconnected) contours.
+     */
+    public void setEdges(byte[] ctypes, ContourStore_ conts) {
+        int w = width;
+        IntIntMap_ vtxID = new IntIntMap_(vertexCount);
+        for (int v = 0; v < vertexCount; v++) {
+            vtxID.put((int) (vy[v] * w + vx[v]), v);
+        }
+
+        int n = 0;
+        int outer = 0;
+        for (int c = 0; c < conts.size(); c++) {
+            if (conts.isRemoved(c) || conts.length(c) == 0) continue;
+            n++;
+            if (ctypes[conts.first(c)] == 't' || ctypes[conts.last(c)] == 't') outer++;
+        }
+
+        contours = conts;
+        edgeCount = n;
+        ev0 = new int[n];
+        ev1 = new int[n];
+        einout = new byte[n];
+        esdist = new double[n];
+        eangle = new double[n];
+        econtour = new int[n];
+        int nextOuter = 0;
+        int nextInner = outer;
+        for (int c = 0; c < conts.size(); c++) {
+            if (conts.isRemoved(c) || conts.length(c) == 0) continue;
+            int first = conts.first(c);
+            int last = conts.last(c);
+            boolean isOuter = ctypes[first] == 't' || ctypes[last] == 't';
+            int e = isOuter ? nextOuter++ : nextInner++;
+            int x0 = first % w, y0 = first / w;
+            int x1 = last % w, y1 = last / w;
+            ev0[e] = vtxID.get(first);
+            ev1[e] = vtxID.get(last);
+            einout[e] = (byte) (isOuter ? 'o' : 'i');
+            esdist[e] = Math.sqrt(Math.pow(x0 - x1, 2) + Math.pow(y0 - y1, 2));
+            double angle = -Math.atan2(y0 - y1, x0 - x1);
+            if (angle < 0) {
+                angle += Math.PI;
+            }
+            eangle[e] = angle;
+            econtour[e] = c;
+        }
+
+        // Check for consistency
+        int jr_num = 0;
+        for (int v = 0; v < vertexCount; v++) {
+            if (vinout[v] == 'o') jr_num++;
+        }
+        if (jr_num != outer) {
+            throw new RuntimeException(String.format("! Inconsistent out-vertex and out-edge, jr_num= %d, er_num= %d", jr_num, outer));
+        }
+    }
+
+    /**
+     * Builds the vertex -> edge adjacency and sorts the edges around each vertex by the
+     * direction of their second pixel (atan2 in image coordinates, ascending).
+     */
+    public void setVertexEdges() {
+        vedgeStart = new int[vertexCount + 1];
+        for (int e = 0; e < edgeCount; e++) {
+            vedgeStart[ev0[e] + 1]++;
+            vedgeStart[ev1[e] + 1]++;
+        }
+        for (int v = 0; v < vertexCount; v++) {
+            vedgeStart[v + 1] += vedgeStart[v];
+        }
+        vedge = new int[2 * edgeCount];
+        vnbr = new int[2 * edgeCount];
+        int[] fill = Arrays.copyOf(vedgeStart, vertexCount);
+        for (int e = 0; e < edgeCount; e++) {
+            int j0 = ev0[e];
+            int j1 = ev1[e];
+            vedge[fill[j0]] = e;
+            vnbr[fill[j0]++] = j1;
+            vedge[fill[j1]] = e;
+            vnbr[fill[j1]++] = j0;
+        }
+
+        double[] angles = new double[8];
+        for (int v = 0; v < vertexCount; v++) {
+            int s = vedgeStart[v];
+            int d = vedgeStart[v + 1] - s;
+            if (d > angles.length) angles = new double[d];
+            for (int i = 0; i < d; i++) {
+                int e = vedge[s + i];
+                int c = econtour[e];
+                // Second pixel of the edge as seen from this vertex
+                int k = (contours.x(c, 0) == vx[v] && contours.y(c, 0) == vy[v]) ? 1 : contours.length(c) - 2;
+                double dx = contours.x(c, k) - vx[v];
+                double dy = -(contours.y(c, k) - vy[v]); // Reverse y-coordinate
+                angles[i] = Math.atan2(-dy, dx);
+            }
+
+            // Selection sort (d is at most 4 in a valid skeleton)
+            for (int i = 0; i < d; i++) {
+                int minIndex = i;
+                for (int j = i + 1; j < d; j++) {
+                    if (angles[j] < angles[minIndex]) {
+                        minIndex = j;
+                    }
+                }
+                double ta = angles[i];
+                angles[i] = angles[minIndex];
+                angles[minIndex] = ta;
+                int t = vnbr[s + i];
+                vnbr[s + i] = vnbr[s + minIndex];
+                vnbr[s + minIndex] = t;
+                t = vedge[s + i];
+                vedge[s + i] = vedge[s + minIndex];
+                vedge[s + minIndex] = t;
+            }
+        }
+    }
+
+    /**
+     * Checks that every cell has a non-negative area (y reversed) and sets area and center,
+     * like ImageUtils_.vxSet_vcell_center.
+     */
+    public void setCellCenters() {
+        carea = new double[cellCount];
+        ccx = new double[cellCount];
+        ccy = new double[cellCount];
+        for (int i = 0; i < cellCount; i++) {
+            int s = cvertStart[i];
+            int jnum = cvertStart[i + 1] - s;
+
+            double area = 0.0;
+            for (int j = 0; j < jnum; j++) {
+                int a = cvert[s + j];
+                int b = cvert[s + (j + 1) % jnum];
+                area += (vx[a] * -vy[b] - vx[b] * -vy[a]);
+            }
+            if (area < 0.0) {
+                throw new RuntimeException(String.format("ERROR: Negative area at cell %d, %c area= %f: (%f, %f)",
+                        i, (char) cinout[i], 0.5 * area, vx[cvert[s]], vy[cvert[s]]));
+            }
+
+            double carea_i = 0.0, cx = 0.0, cy = 0.0;
+            for (int j = 0; j < jnum; j++) {
+                int a = cvert[s + j];
+                int b = cvert[s + (j + 1) % jnum];
+                double x1 = vx[a];
+                double y1 = -vy[a]; // Reverse y-coordinate
+                double x2 = vx[b];
+                double y2 = -vy[b];
+                double tarea = (x1 * y2 - x2 * y1);
+                carea_i += tarea / 2.0;
+                cx += tarea * (x1 + x2);
+                cy += tarea * (y1 + y2);
+            }
+            if (carea_i != 0) {
+                cx /= (6.0 * carea_i);
+                cy /= (6.0 * carea_i);
+            } else {
+                cx = 0;
+                cy = 0;
+            }
+            carea[i] = carea_i;
+            ccx[i] = cx;
+            ccy[i] = cy;
+        }
+    }
+
+    /** Vertices as Vertex_ objects (with nj / ne in angular order once setVertexEdges has run). */
+    public List<Vertex_> toVertices() {
+        List<Vertex_> vertices = new ArrayList<>(vertexCount);
+        for (int v = 0; v < vertexCount; v++) {
+            Vertex_ vtx = new Vertex_();
+            vtx.id = v;
+            vtx.x = vx[v];
+            vtx.y = vy[v];
+            vtx.ctype = (char) vctype[v];
+            vtx.inout = (char) vinout[v];
+            for (int k = vcellStart[v]; k < vcellStart[v + 1]; k++) {
+                vtx.Cells.add(vcell[k]);
+            }
+            if (vedgeStart != null) {
+                for (int k = vedgeStart[v]; k < vedgeStart[v + 1]; k++) {
+                    vtx.nj.add(vnbr[k]);
+                    vtx.ne.add(vedge[k]);
+                }
+                vtx.nj_num = vtx.nj.size();
+            }
+            vertices.add(vtx);
+        }
+        return vertices;
+    }
+
+    /** Edges as Edge_ objects sharing this mesh's contour store. */
+    public List<Edge_> toEdges() {
+        List<Edge_> edges = new ArrayList<>(edgeCount);
+        for (int e = 0; e < edgeCount; e++) {
+            Edge_ edge = new Edge_();
+            int c = econtour[e];
+            edge.id = e;
+            edge.vertex_id[0] = ev0[e];
+            edge.vertex_id[1] = ev1[e];
+            edge.X.set(0, new int[] { contours.x(c, 0), contours.y(c, 0) });
+            edge.X.set(1, new int[] { contours.x(c, contours.length(c) - 1), contours.y(c, contours.length(c) - 1) });
+            edge.inout = (char) einout[e];
+            edge.sdist = esdist[e];
+            edge.angle = eangle[e];
+            edge.contours = contours;
+            edge.contour = c;
+            edges.add(edge);
+        }
+        return edges;
+    }
+
+    /**
+     * Cells as VCell_ objects.
+     *
+     * @param vertices The vertices returned by toVertices.
+     * @param edges    The edges returned by toEdges.
+     */
+    public List<VCell_> toCells(List<Vertex_> vertices, List<Edge_> edges) {
+        List<VCell_> cells = new ArrayList<>(cellCount);
+        for (int i = 0; i < cellCount; i++) {
+            VCell_ cell = new VCell_();
+            cell.id = i;
+            cell.inout = (char) cinout[i];
+            for (int k = cvertStart[i]; k < cvertStart[i + 1]; k++) {
+                cell.VERTEX.add(vertices.get(cvert[k]));
+            }
+            for (int k = cedgeStart[i]; k < cedgeStart[i + 1]; k++) {
+                cell.EDGE.add(edges.get(cedge[k]));
+            }
+            if (carea != null) {
+                cell.area = carea[i];
+                cell.cx = ccx[i];
+                cell.cy = ccy[i];
+            }
+            cells.add(cell);
+        }
+        return cells;
+    }
+}
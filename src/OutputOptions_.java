@@ -0,0 +1,40 @@
+
+
+/**
+ * Which outputs saveFrame writes, besides the boundary image and the text file.
+ */
+class OutputOptions_ {
+    public boolean show;      // Show the drawn images in windows
+    public boolean polygonImage; // Render and save the polygon image
+    public boolean vertexImage;  // Render and save the vertex image
+    public boolean binary;    // Also write the binary mesh (.mesh, see MeshFile_)
+    public boolean archive;   // For stacks, write meshes and boundary images into one .gvstack archive
+    public int keyInterval;   // Records per keyframe in the archive
+    public StackArchive_ stackArchive; // Archive of the stack being saved, null if none
+    public WriteQueue_ writes;         // I/O threads writing the outputs, null to write right away
+    public boolean timings;   // Write the stage timings of each frame (_timings.json) and, for stacks, their roll-up
+    public StageTimer_ stackTimings;   // Roll-up of the stack being saved, null if none
+    public String stackTimingsFilename;
+    public boolean tracks;    // For stacks, link the cells of consecutive frames and write their track IDs (_tracks.txt)
+    public Tracker_ tracker;  // Tracker of the stack being saved, null if none
+    public boolean events;    // For stacks, detect T1 swaps, divisions and extrusions between frames (_events.txt)
+    public TopologyEvents_ topology; // Event detector of the stack being saved, null if none
+
+    public OutputOptions_(boolean show) {
+        this.show = show;
+        this.polygonImage = GetVertex_.POLYGON_IMAGE;
+        this.vertexImage = GetVertex_.VERTEX_IMAGE;
+        this.binary = GetVertex_.BINARY_OUTPUT;
+        this.archive = GetVertex_.ARCHIVE_OUTPUT;
+        this.keyInterval = GetVertex_.ARCHIVE_KEY_INTERVAL;
+        this.stackArchive = null;
+        this.writes = null;
+        this.timings = GetVertex_.TIMINGS_OUTPUT;
+        this.stackTimings = null;
+        this.stackTimingsFilename = null;
+        this.tracks = GetVertex_.TRACK_OUTPUT;
+        this.tracker = null;
+        this.events = GetVertex_.EVENT_OUTPUT;
+        this.topology = null;
+    }
+}
@@ -0,0 +1,122 @@
+import ij.process.ColorProcessor;
+import ij.process.ImageProcessor;
+
+import java.awt.Point;
+import java.util.List;
+
+/**
+ * Renders the vertex and polygon images straight into an int[] RGB buffer, without a Color
+ * object or a processor call per pixel, and without windows. Lines are rasterized exactly like
+ * ImageProcessor.drawLine with a line width of 1, clipping included, so the images are identical.
+ */
+class OverlayRenderer_ {
+    public static final int MAGENTA = 0xFFFF00FF; // Color.MAGENTA.getRGB()
+
+    public final int width;
+    public final int height;
+    public final int[] pixels;
+
+    public OverlayRenderer_(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.pixels = new int[width * height];
+    }
+
+    /**
+     * Copies the gray values of src into the green channel.
+     *
+     * @param src The grayscale source image (same size as this).
+     */
+    public void fillGreen(ImageProcessor src) {
+        Object p = src.getPixels();
+        if (p instanceof byte[] && src.getWidth() == width) {
+            byte[] gray = (byte[]) p;
+            for (int i = 0; i < pixels.length; i++) {
+                pixels[i] = 0xFF000000 | (gray[i] & 0xFF) << 8;
+            }
+            return;
+        }
+        for (int y = 0; y < height; y++) {
+            int row = y * width;
+            for (int x = 0; x < width; x++) {
+                pixels[row + x] = 0xFF000000 | (src.getPixel(x, y) & 0xFF) << 8;
+            }
+        }
+    }
+
+    /**
+     * Draws a straight line between the two ends of every edge.
+     *
+     * @param edges The edges.
+     * @param cpt   Coordinate offset.
+     * @param color ARGB color.
+     */
+    public void drawEdges(List<Edge_> edges, Point cpt, int color) {
+        for (Edge_ edge : edges) {
+            int[] pt1 = edge.X.get(0);
+            int[] pt2 = edge.X.get(1);
+            drawLine(pt1[0] + cpt.x, pt1[1] + cpt.y, pt2[0] + cpt.x, pt2[1] + cpt.y, color);
+        }
+    }
+
+    /**
+     * Draws a line like ImageProcessor.drawLine (moveTo, then lineTo) with a line width of 1:
+     * n + 1 rounded steps along the longer axis, where the steps that fall more than a pixel
+     * outside the image are skipped by jumping straight to the first one inside, as lineTo does.
+     */
+    public void drawLine(int x1, int y1, int x2, int y2, int color) {
+        int xMin = -1; // Clip rectangle of lineTo, widened by lineWidth / 2 + 1
+        int xMax = width;
+        int yMin = -1;
+        int yMax = height;
+        int dx = x2 - x1;
+        int dy = y2 - y1;
+        int n = Math.max(Math.abs(dx), Math.abs(dy));
+        double xinc = dx != 0 ? (double) dx / n : 0;
+        double yinc = dy != 0 ? (double) dy / n : 0;
+        double x = x1;
+        double y = y1;
+        int i1 = 0;
+        if (dx > 0) {
+            i1 = Math.max(i1, (int) ((xMin - x) / xinc));
+        } else if (dx < 0) {
+            i1 = Math.max(i1, (int) ((xMax - x) / xinc));
+        } else if (x < xMin || x > xMax) {
+            return;
+        }
+        if (dy > 0) {
+            i1 = Math.max(i1, (int) ((yMin - y) / yinc));
+        } else if (dy < 0) {
+            i1 = Math.max(i1, (int) ((yMax - y) / yinc));
+        } else if (y < yMin || y > yMax) {
+            return;
+        }
+        int i2 = n;
+        if (dx > 0) {
+            i2 = Math.min(i2, (int) ((xMax - x) / xinc));
+        } else if (dx < 0) {
+            i2 = Math.min(i2, (int) ((xMin - x) / xinc));
+        }
+        if (dy > 0) {
+            i2 = Math.min(i2, (int) ((yMax - y) / yinc));
+        } else if (dy < 0) {
+            i2 = Math.min(i2, (int) ((yMin - y) / yinc));
+        }
+        x += i1 * xinc;
+        y += i1 * yinc;
+        for (int i = i1; i <= i2; i++) {
+            int px = (int) Math.round(x);
+            int py = (int) Math.round(y);
+            if (px >= 0 && px < width && py >= 0 && py < height) {
+                pixels[py * width + px] = color;
+            }
+            x += xinc;
+            y += yinc;
+        }
+    }
+
+    /** The buffer as a processor (shares the pixels). */
+    public ColorProcessor toProcessor() {
+        return new ColorProcessor(width, height, pixels);
+    }
+}
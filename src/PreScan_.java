@@ -0,0 +1,127 @@
+
+
+import java.util.Arrays;
+
+/**
+ * Fused pre-scan of a raw 8-bit frame. One pass over the raster gives the bounding box of the
+ * non-zero pixels (for cropping), every four-block and every pixel with a forbidden 'z' / 'b'
+ * neighborhood pattern (see Errors.pdf), so that all defects of a frame are found at once.
+ * Locations are stored as pixel indices (y * width + x) of the frame. A frame that is not held
+ * in memory can be scanned band by band (create, then add).
+ */
+class PreScan_ {
+    private static final byte WHITE = -1;
+
+    public int width;
+    public int height;
+    public int minx, miny, maxx, maxy; // Bounding box of non-zero pixels (minx > maxx if none)
+    public int[] fourBlocks;            // Top-left pixel of each four-block
+    public int fourBlockCount;
+    public int[] zbPixels;              // Pixels whose neighborhood type is 'z' or 'b'
+    public char[] zbTypes;              // 'z' or 'b' for each of zbPixels
+    public int zbCount;
+
+    public PreScan_() {
+        this.fourBlocks = new int[16];
+        this.zbPixels = new int[16];
+        this.zbTypes = new char[16];
+    }
+
+    /** True if there is at least one non-zero pixel. */
+    public boolean hasPixels() {
+        return minx <= maxx;
+    }
+
+    /**
+     * Scans an 8-bit raster.
+     *
+     * @param pixels 8-bit raster.
+     * @param w      Image width.
+     * @param h      Image height.
+     * @return The scan result.
+     */
+    public static PreScan_ scan(byte[] pixels, int w, int h) {
+        PreScan_ s = create(w, h);
+        s.add(pixels, 0, 0, h);
+        return s;
+    }
+
+    /**
+     * Starts an empty scan of a w x h raster, to be filled band by band with add.
+     */
+    public static PreScan_ create(int w, int h) {
+        PreScan_ s = new PreScan_();
+        s.width = w;
+        s.height = h;
+        s.minx = w;
+        s.miny = h;
+        s.maxx = -1;
+        s.maxy = -1;
+        return s;
+    }
+
+    /**
+     * Scans rows from..to-1 of the raster. Bands must be added top to bottom.
+     *
+     * @param band  Whole rows of the raster, starting at row bandY; they must include the row
+     *              above from and the row below to - 1 where the raster has them.
+     * @param bandY Raster row of the first row of band.
+     * @param from  First row to scan.
+     * @param to    Row after the last row to scan.
+     */
+    public void add(byte[] band, int bandY, int from, int to) {
+        int w = width;
+        int h = height;
+        for (int y = from; y < to; y++) {
+            int row = (y - bandY) * w;
+            boolean inner = y >= 1 && y < h - 1;
+            for (int x = 0; x < w; x++) {
+                int id = row + x;
+                byte p = band[id];
+                if (p == 0) continue;
+
+                // Crop bounds
+                if (x < minx) minx = x;
+                if (x > maxx) maxx = x;
+                if (y < miny) miny = y;
+                maxy = y;
+
+                // Four-block with this pixel at the top left
+                if (p == WHITE && x < w - 1 && y < h - 1
+                        && band[id + 1] == WHITE && band[id + w] == WHITE && band[id + w + 1] == WHITE) {
+                    fourBlocks = add(fourBlocks, fourBlockCount++, y * w + x);
+                }
+
+                // Neighborhood pattern, as in CVUtil_.setCtypes
+                if (inner && x >= 1 && x < w - 1) {
+                    int cindex = (band[id - w - 1] == WHITE ? 1 : 0)
+                            | (band[id - w] == WHITE ? 2 : 0)
+                            | (band[id - w + 1] == WHITE ? 4 : 0)
+                            | (band[id - 1] == WHITE ? 8 : 0)
+                            | (band[id + 1] == WHITE ? 16 : 0)
+                            | (band[id + w - 1] == WHITE ? 32 : 0)
+                            | (band[id + w] == WHITE ? 64 : 0)
+                            | (band[id + w + 1] == WHITE ? 128 : 0);
+                    char t = CVUtil_.CVUTIL_NCELL_TYPE[cindex];
+                    if (t == 'z' || t == 'b') {
+                        if (zbCount == zbTypes.length) {
+                            zbTypes = Arrays.copyOf(zbTypes, zbCount * 2);
+                        }
+                        zbTypes[zbCount] = t;
+                        zbPixels = add(zbPixels, zbCount++, y * w + x);
+                    }
+                }
+            }
+        }
+    }
+
+    private static int[] add(int[] a, int n, int v) {
+        if (n == a.length) {
+            int[] grown = new int[a.length * 2];
+            System.arraycopy(a, 0, grown, 0, n);
+            a = grown;
+        }
+        a[n] = v;
+        return a;
+    }
+}
@@ -0,0 +1,157 @@
+
+
+import java.util.Arrays;
+
+/**
+ * Uniform-grid spatial hash over pixel coordinates, for finding points near a pixel without
+ * scanning all of them. Points are numbered 0..n-1 in the order they are added. The grid cells
+ * are CELL x CELL pixel squares; only non-empty cells are stored (IntIntMap_ from cell to the
+ * first point of its list), so memory is proportional to the number of points.
+ *
+ * Queries visit the cells overlapping the query square and return the live points in it in
+ * increasing order. Removed points are unlinked from their cell.
+ */
+class SpatialGrid_ {
+    public static final int SHIFT = 3;
+    public static final int CELL = 1 << SHIFT; // Cell size in pixels
+
+    private final int columns;  // Grid cells per row
+    private final IntIntMap_ head; // Grid cell -> first point, -1 if none
+    private int[] px;
+    private int[] py;
+    private int[] next;         // Next point in the same grid cell, -1 at the end
+    private boolean[] removed;
+    private int size;
+    private int live;
+
+    /**
+     * @param width    Width of the image the coordinates refer to.
+     * @param expected Expected number of points.
+     */
+    public SpatialGrid_(int width, int expected) {
+        this.columns = (width >> SHIFT) + 1;
+        this.head = new IntIntMap_(expected);
+        int cap = Math.max(16, expected);
+        this.px = new int[cap];
+        this.py = new int[cap];
+        this.next = new int[cap];
+        this.removed = new boolean[cap];
+    }
+
+    /** Number of points added, including removed ones. */
+    public int size() {
+        return size;
+    }
+
+    /** Number of points not removed. */
+    public int liveCount() {
+        return live;
+    }
+
+    /**
+     * Adds the point (x, y) (non-negative, x < width).
+     *
+     * @return The number of the point.
+     */
+    public int add(int x, int y) {
+        if (size == px.length) {
+            px = Arrays.copyOf(px, size * 2);
+            py = Arrays.copyOf(py, size * 2);
+            next = Arrays.copyOf(next, size * 2);
+            removed = Arrays.copyOf(removed, size * 2);
+        }
+        int p = size++;
+        int cell = cell(x, y);
+        px[p] = x;
+        py[p] = y;
+        next[p] = head.get(cell);
+        head.put(cell, p);
+        live++;
+        return p;
+    }
+
+    /** Removes point p from the grid (no effect if already removed). */
+    public void remove(int p) {
+        if (removed[p]) {
+            return;
+        }
+        int cell = cell(px[p], py[p]);
+        int first = head.get(cell);
+        if (first == p) {
+            if (next[p] < 0) {
+                head.remove(cell);
+            } else {
+                head.put(cell, next[p]);
+            }
+        } else {
+            int q = first;
+            while (next[q] != p) {
+                q = next[q];
+            }
+            next[q] = next[p];
+        }
+        removed[p] = true;
+        live--;
+    }
+
+    public boolean isRemoved(int p) {
+        return removed[p];
+    }
+
+    public int x(int p) {
+        return px[p];
+    }
+
+    public int y(int p) {
+        return py[p];
+    }
+
+    /**
+     * Copies the live points with |px - x| <= r and |py - y| <= r into out, in increasing order.
+     *
+     * @return The number of points (may exceed out.length; only the first out.length are copied).
+     */
+    public int near(int x, int y, int r, int[] out) {
+        int n = 0;
+        int cx0 = Math.max(0, x - r) >> SHIFT;
+        int cy0 = Math.max(0, y - r) >> SHIFT;
+        int cx1 = Math.min(columns - 1, (x + r) >> SHIFT);
+        int cy1 = (y + r) >> SHIFT;
+        for (int cy = cy0; cy <= cy1; cy++) {
+            for (int cx = cx0; cx <= cx1; cx++) {
+                for (int p = head.get(cy * columns + cx); p >= 0; p = next[p]) {
+                    if (Math.abs(px[p] - x) > r || Math.abs(py[p] - y) > r) continue;
+                    // Insertion into the sorted prefix, dropping the largest point when it is full
+                    int i = Math.min(n, out.length);
+                    if (i == out.length && (i == 0 || out[i - 1] < p)) {
+                        n++;
+                        continue;
+                    }
+                    if (i == out.length) i--;
+                    while (i > 0 && out[i - 1] > p) {
+                        out[i] = out[i - 1];
+                        i--;
+                    }
+                    out[i] = p;
+                    n++;
+                }
+            }
+        }
+        return n;
+    }
+
+    /** The first live point at exactly (x, y), or -1 if none. */
+    public int find(int x, int y) {
+        int best = -1;
+        for (int p = head.get(cell(x, y)); p >= 0; p = next[p]) {
+            if (px[p] == x && py[p] == y && (best < 0 || p < best)) {
+                best = p;
+            }
+        }
+        return best;
+    }
+
+    private int cell(int x, int y) {
+        return (y >> SHIFT) * columns + (x >> SHIFT);
+    }
+}
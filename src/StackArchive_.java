@@ -0,0 +1,589 @@
+
+
+import ij.process.ImageProcessor;
+import java.awt.Point;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Single-file archive (.gvstack) of the per-frame outputs of a stack: the mesh and the
+ * boundary-processed image of every frame, with an offset table for random access.
+ *
+ * Layout (little-endian):
+ * <pre>
+ *   header   32 bytes: magic "GVSTACK\0", version, key interval, frame count, 0, index offset (long)
+ *   records  one per frame, in frame order
+ *   index    per frame: offset (long), length (int), frame number (int), kind (byte)
+ * </pre>
+ * Every key interval-th record is a keyframe that can be decoded on its own; the others are
+ * encoded against the previous record: a vertex at the same (uncropped) pixel as a vertex of
+ * the previous frame is stored as a small index step into that frame, and an image with the
+ * same size and crop offset is stored as the XOR with the previous image. Records are varint
+ * coded and images are deflated. Reading frame i decodes forward from the keyframe before it.
+ *
+ * Decoded meshes reproduce the vertex, edge and cell arrays (and so the text file) exactly;
+ * contours and the cell IDs around vertices are not stored.
+ */
+class StackArchive_ implements Closeable {
+    public static final int DEFAULT_KEY_INTERVAL = 30;
+
+    private static final byte[] MAGIC = {'G', 'V', 'S', 'T', 'A', 'C', 'K', 0};
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int INDEX_ENTRY_SIZE = 17;
+
+    private static final byte KEY = 0;
+    private static final byte DELTA = 1;
+    private static final int HAS_MESH = 1;
+    private static final int HAS_IMAGE = 2;
+    private static final int IMAGE_RAW = 1;
+    private static final int IMAGE_XOR = 2;
+    private static final int V_EXT = 1;
+    private static final int V_FOUR_WAY = 2;
+    private static final int V_MATCHED = 4;
+
+    /** One decoded frame. */
+    public static class Frame {
+        public int num;
+        public Point cpt;
+        public Mesh_ mesh;     // null if the frame has no mesh
+        public int width;      // Size of the boundary-processed (cropped) image
+        public int height;
+        public byte[] pixels;  // null if the frame has no image
+    }
+
+    private final FileChannel channel;
+    private final boolean writing;
+    private int keyInterval;
+    private int frameCount;
+    private long[] offsets;
+    private int[] lengths;
+    private int[] nums;
+    private byte[] kinds;
+    private long end; // Writing position
+
+    private Frame previous;      // Last frame written or decoded
+    private int previousIndex;   // Its index, -1 if none
+
+    private StackArchive_(FileChannel channel, boolean writing) {
+        this.channel = channel;
+        this.writing = writing;
+        this.previousIndex = -1;
+    }
+
+    /**
+     * Creates an archive for writing.
+     *
+     * @param filename    The name of the archive file.
+     * @param keyInterval Number of records per keyframe (1: every record is a keyframe).
+     */
+    public static StackArchive_ create(String filename, int keyInterval) throws IOException {
+        FileChannel ch = FileChannel.open(Paths.get(filename),
+            StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        StackArchive_ a = new StackArchive_(ch, true);
+        a.keyInterval = Math.max(1, keyInterval);
+        a.offsets = new long[64];
+        a.lengths = new int[64];
+        a.nums = new int[64];
+        a.kinds = new byte[64];
+        a.end = HEADER_SIZE;
+        a.writeHeader(0L); // Completed on close
+        return a;
+    }
+
+    /**
+     * Opens an archive for reading.
+     *
+     * @param filename The name of the archive file.
+     */
+    public static StackArchive_ open(String filename) throws IOException {
+        FileChannel ch = FileChannel.open(Paths.get(filename), StandardOpenOption.READ);
+        try {
+            StackArchive_ a = new StackArchive_(ch, false);
+            ByteBuffer h = a.readAt(0, HEADER_SIZE);
+            for (int i = 0; i < MAGIC.length; i++) {
+                if (h.get(i) != MAGIC[i]) {
+                    throw new IOException("Not a stack archive: " + filename);
+                }
+            }
+            if (h.getInt(8) != VERSION) {
+                throw new IOException("Unsupported stack archive version " + h.getInt(8) + ": " + filename);
+            }
+            a.keyInterval = h.getInt(12);
+            a.frameCount = h.getInt(16);
+            long indexOffset = h.getLong(24);
+            if (indexOffset < HEADER_SIZE || a.frameCount < 0) {
+                throw new IOException("Stack archive was not closed: " + filename);
+            }
+            ByteBuffer idx = a.readAt(indexOffset, (long) a.frameCount * INDEX_ENTRY_SIZE);
+            a.offsets = new long[a.frameCount];
+            a.lengths = new int[a.frameCount];
+            a.nums = new int[a.frameCount];
+            a.kinds = new byte[a.frameCount];
+            for (int i = 0; i < a.frameCount; i++) {
+                a.offsets[i] = idx.getLong();
+                a.lengths[i] = idx.getInt();
+                a.nums[i] = idx.getInt();
+                a.kinds[i] = idx.get();
+            }
+            return a;
+        } catch (IOException | RuntimeException e) {
+            ch.close();
+            throw e;
+        }
+    }
+
+    /** Number of frames in the archive. */
+    public int size() {
+        return frameCount;
+    }
+
+    /** Frame number (1-based, as in the stack) of record i. */
+    public int frameNumber(int i) {
+        return nums[i];
+    }
+
+    /** True if record i is a keyframe. */
+    public boolean isKeyframe(int i) {
+        return kinds[i] == KEY;
+    }
+
+    /**
+     * Appends a processed frame. Frames must be added in frame order.
+     *
+     * @param frame A frame with at least the boundary-processed image.
+     */
+    public void add(FrameResult_ frame) throws IOException {
+        if (!writing) {
+            throw new IllegalStateException("Archive is open for reading");
+        }
+        Frame f = new Frame();
+        f.num = frame.num;
+        f.cpt = new Point(frame.cpt);
+        f.mesh = frame.mesh;
+        if (frame.image != null) {
+            ImageProcessor ip = frame.image.getProcessor();
+            f.width = ip.getWidth();
+            f.height = ip.getHeight();
+            f.pixels = pixelsOf(ip);
+        }
+
+        byte kind = (frameCount % keyInterval == 0 || previous == null) ? KEY : DELTA;
+        Bytes out = new Bytes();
+        encode(f, kind == DELTA ? previous : null, out);
+
+        if (frameCount == offsets.length) {
+            int n = frameCount * 2;
+            offsets = Arrays.copyOf(offsets, n);
+            lengths = Arrays.copyOf(lengths, n);
+            nums = Arrays.copyOf(nums, n);
+            kinds = Arrays.copyOf(kinds, n);
+        }
+        offsets[frameCount] = end;
+        lengths[frameCount] = out.n;
+        nums[frameCount] = f.num;
+        kinds[frameCount] = kind;
+        writeAt(end, ByteBuffer.wrap(out.a, 0, out.n));
+        end += out.n;
+        frameCount++;
+        previous = f;
+        previousIndex = frameCount - 1;
+    }
+
+    /**
+     * Decodes record i.
+     *
+     * @param i Record index (0-based).
+     * @return The frame.
+     */
+    public Frame read(int i) throws IOException {
+        if (i < 0 || i >= frameCount) {
+            throw new IndexOutOfBoundsException("Frame " + i + " of " + frameCount);
+        }
+        if (previousIndex == i) {
+            return previous;
+        }
+        int from = i;
+        if (!(kinds[i] == DELTA && previousIndex == i - 1)) {
+            while (kinds[from] != KEY) from--;
+        }
+        Frame f = previous;
+        for (int k = from; k <= i; k++) {
+            ByteBuffer rec = readAt(offsets[k], lengths[k]);
+            f = decode(rec, kinds[k] == DELTA ? f : null);
+            previous = f;
+            previousIndex = k;
+        }
+        return f;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (writing) {
+                ByteBuffer idx = ByteBuffer.allocate(frameCount * INDEX_ENTRY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+                for (int i = 0; i < frameCount; i++) {
+                    idx.putLong(offsets[i]).putInt(lengths[i]).putInt(nums[i]).put(kinds[i]);
+                }
+                idx.flip();
+                writeAt(end, idx);
+                writeHeader(end);
+            }
+        } finally {
+            channel.close();
+        }
+    }
+
+    // ------------------------------------------------------------------ encoding
+
+    private static void encode(Frame f, Frame prev, Bytes out) {
+        out.put(prev == null ? KEY : DELTA);
+        out.put((f.mesh != null ? HAS_MESH : 0) | (f.pixels != null ? HAS_IMAGE : 0));
+        out.varint(f.num);
+        out.zigzag(f.cpt.x);
+        out.zigzag(f.cpt.y);
+        if (f.mesh != null) {
+            encodeMesh(f, prev, out);
+        }
+        if (f.pixels != null) {
+            out.varint(f.width);
+            out.varint(f.height);
+            byte[] data = f.pixels;
+            if (prev != null && prev.pixels != null && prev.width == f.width && prev.height == f.height
+                    && prev.cpt.equals(f.cpt)) {
+                data = new byte[f.pixels.length];
+                for (int i = 0; i < data.length; i++) {
+                    data[i] = (byte) (f.pixels[i] ^ prev.pixels[i]);
+                }
+                out.put(IMAGE_XOR);
+            } else {
+                out.put(IMAGE_RAW);
+            }
+            Bytes z = deflate(data);
+            out.varint(z.n);
+            out.put(z.a, 0, z.n);
+        }
+    }
+
+    private static void encodeMesh(Frame f, Frame prev, Bytes out) {
+        Mesh_ m = f.mesh;
+        out.varint(m.vertexCount);
+        out.varint(m.edgeCount);
+        out.varint(m.cellCount);
+
+        // Vertices of the previous frame by uncropped pixel position
+        IntIntMap_ prevAt = null;
+        if (prev != null && prev.mesh != null) {
+            prevAt = new IntIntMap_(prev.mesh.vertexCount);
+            for (int v = 0; v < prev.mesh.vertexCount; v++) {
+                int key = pixelKey((int) prev.mesh.vx[v] + prev.cpt.x, (int) prev.mesh.vy[v] + prev.cpt.y);
+                if (key >= 0) prevAt.put(key, v);
+            }
+        }
+        int lastX = 0, lastY = 0, lastPrev = -1;
+        for (int v = 0; v < m.vertexCount; v++) {
+            int x = (int) m.vx[v] + f.cpt.x;
+            int y = (int) m.vy[v] + f.cpt.y;
+            int flags = (m.vinout[v] == 'o' ? V_EXT : 0) | (m.vctype[v] == 'f' ? V_FOUR_WAY : 0);
+            int p = -1;
+            if (prevAt != null) {
+                int key = pixelKey(x, y);
+                if (key >= 0) p = prevAt.get(key);
+            }
+            if (p >= 0) {
+                out.put(flags | V_MATCHED);
+                out.zigzag(p - (lastPrev + 1));
+                lastPrev = p;
+            } else {
+                out.put(flags);
+                out.zigzag(x - lastX);
+                out.zigzag(y - lastY);
+            }
+            lastX = x;
+            lastY = y;
+        }
+
+        int lastV0 = 0;
+        for (int e = 0; e < m.edgeCount; e++) {
+            out.zigzag(m.ev0[e] - lastV0);
+            out.varint(zz(m.ev1[e] - m.ev0[e]) << 1 | (m.einout[e] == 'o' ? 1 : 0));
+            lastV0 = m.ev0[e];
+        }
+
+        int lastFirst = 0;
+        for (int c = 0; c < m.cellCount; c++) {
+            int s = m.cvertStart[c];
+            int n = m.cvertStart[c + 1] - s;
+            out.varint((long) n << 1 | (m.cinout[c] == 'o' ? 1 : 0));
+            if (n == 0) continue;
+            out.zigzag(m.cvert[s] - lastFirst);
+            lastFirst = m.cvert[s];
+            for (int k = 1; k < n; k++) {
+                out.zigzag(m.cvert[s + k] - m.cvert[s + k - 1]);
+            }
+        }
+    }
+
+    private static Frame decode(ByteBuffer in, Frame prev) throws IOException {
+        byte kind = in.get();
+        if (kind == DELTA && prev == null) {
+            throw new IOException("Delta record without a previous frame");
+        }
+        if (kind == KEY) {
+            prev = null;
+        }
+        int has = in.get();
+        Frame f = new Frame();
+        f.num = (int) varint(in);
+        f.cpt = new Point(unzigzag(in), unzigzag(in));
+        if ((has & HAS_MESH) != 0) {
+            f.mesh = decodeMesh(in, f.cpt, prev);
+        }
+        if ((has & HAS_IMAGE) != 0) {
+            f.width = (int) varint(in);
+            f.height = (int) varint(in);
+            int mode = in.get();
+            int len = (int) varint(in);
+            byte[] z = new byte[len];
+            in.get(z);
+            f.pixels = inflate(z, f.width * f.height);
+            if (mode == IMAGE_XOR) {
+                if (prev == null || prev.pixels == null || prev.pixels.length != f.pixels.length) {
+                    throw new IOException("XOR image without a matching previous image");
+                }
+                for (int i = 0; i < f.pixels.length; i++) {
+                    f.pixels[i] ^= prev.pixels[i];
+                }
+            }
+        }
+        return f;
+    }
+
+    private static Mesh_ decodeMesh(ByteBuffer in, Point cpt, Frame prev) {
+        Mesh_ m = new Mesh_();
+        int nv = (int) varint(in);
+        int ne = (int) varint(in);
+        int nc = (int) varint(in);
+
+        m.vertexCount = nv;
+        m.vx = new double[nv];
+        m.vy = new double[nv];
+        m.vctype = new byte[nv];
+        m.vinout = new byte[nv];
+        m.vcellStart = new int[nv + 1];
+        m.vcell = new int[0];
+        int lastX = 0, lastY = 0, lastPrev = -1;
+        for (int v = 0; v < nv; v++) {
+            int flags = in.get();
+            int x, y;
+            if ((flags & V_MATCHED) != 0) {
+                int p = lastPrev + 1 + unzigzag(in);
+                x = (int) prev.mesh.vx[p] + prev.cpt.x;
+                y = (int) prev.mesh.vy[p] + prev.cpt.y;
+                lastPrev = p;
+            } else {
+                x = lastX + unzigzag(in);
+                y = lastY + unzigzag(in);
+            }
+            m.vx[v] = x - cpt.x;
+            m.vy[v] = y - cpt.y;
+            m.vinout[v] = (byte) ((flags & V_EXT) != 0 ? 'o' : 'i');
+            m.vctype[v] = (byte) ((flags & V_FOUR_WAY) != 0 ? 'f' : (flags & V_EXT) != 0 ? 't' : 'j');
+            lastX = x;
+            lastY = y;
+        }
+
+        m.edgeCount = ne;
+        m.ev0 = new int[ne];
+        m.ev1 = new int[ne];
+        m.einout = new byte[ne];
+        m.esdist = new double[ne];
+        m.eangle = new double[ne];
+        int lastV0 = 0;
+        for (int e = 0; e < ne; e++) {
+            int v0 = lastV0 + unzigzag(in);
+            long w = varint(in);
+            int v1 = v0 + unzz(w >>> 1);
+            m.ev0[e] = v0;
+            m.ev1[e] = v1;
+            m.einout[e] = (byte) ((w & 1) != 0 ? 'o' : 'i');
+            if (v0 >= 0 && v1 >= 0) {
+                double dx = m.vx[v0] - m.vx[v1];
+                double dy = m.vy[v0] - m.vy[v1];
+                m.esdist[e] = Math.sqrt(Math.pow(dx, 2) + Math.pow(dy, 2));
+                double angle = -Math.atan2(dy, dx);
+                m.eangle[e] = angle < 0 ? angle + Math.PI : angle;
+            }
+            lastV0 = v0;
+        }
+
+        m.cellCount = nc;
+        m.cinout = new byte[nc];
+        m.cvertStart = new int[nc + 1];
+        m.cedgeStart = new int[nc + 1];
+        m.cedge = new int[0];
+        int[] cvert = new int[Math.max(16, 6 * nc)];
+        int pos = 0;
+        int lastFirst = 0;
+        for (int c = 0; c < nc; c++) {
+            long w = varint(in);
+            int n = (int) (w >>> 1);
+            m.cinout[c] = (byte) ((w & 1) != 0 ? 'o' : 'i');
+            if (pos + n > cvert.length) {
+                cvert = Arrays.copyOf(cvert, Math.max(cvert.length * 2, pos + n));
+            }
+            int id = 0;
+            for (int k = 0; k < n; k++) {
+                id = (k == 0) ? lastFirst + unzigzag(in) : id + unzigzag(in);
+                cvert[pos + k] = id;
+            }
+            if (n > 0) lastFirst = cvert[pos];
+            pos += n;
+            m.cvertStart[c + 1] = pos;
+        }
+        m.cvert = Arrays.copyOf(cvert, pos);
+        m.setCellCenters();
+        return m;
+    }
+
+    // ------------------------------------------------------------------ helpers
+
+    private static int pixelKey(int x, int y) {
+        return (x >= 0 && x < 65536 && y >= 0 && y < 32768) ? (y << 16 | x) : -1;
+    }
+
+    private static byte[] pixelsOf(ImageProcessor ip) {
+        Object pixels = ip.getPixels();
+        if (pixels instanceof byte[]) {
+            return (byte[]) pixels;
+        }
+        int w = ip.getWidth();
+        byte[] b = new byte[w * ip.getHeight()];
+        for (int i = 0; i < b.length; i++) {
+            b[i] = (byte) ip.getPixel(i % w, i / w);
+        }
+        return b;
+    }
+
+    private static Bytes deflate(byte[] data) {
+        Deflater d = new Deflater();
+        d.setInput(data);
+        d.finish();
+        Bytes z = new Bytes();
+        byte[] buf = new byte[8192];
+        while (!d.finished()) {
+            int k = d.deflate(buf);
+            z.put(buf, 0, k);
+        }
+        d.end();
+        return z;
+    }
+
+    private static byte[] inflate(byte[] z, int size) throws IOException {
+        Inflater inf = new Inflater();
+        inf.setInput(z);
+        byte[] data = new byte[size];
+        try {
+            int n = 0;
+            while (n < size && !inf.finished()) {
+                int k = inf.inflate(data, n, size - n);
+                if (k == 0 && (inf.needsInput() || inf.needsDictionary())) break;
+                n += k;
+            }
+            if (n != size) {
+                throw new IOException("Corrupt image in stack archive");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt image in stack archive", e);
+        } finally {
+            inf.end();
+        }
+        return data;
+    }
+
+    private static long zz(int v) {
+        return ((v << 1) ^ (v >> 31)) & 0xFFFFFFFFL;
+    }
+
+    private static int unzz(long w) {
+        return (int) (w >>> 1) ^ -(int) (w & 1);
+    }
+
+    private static int unzigzag(ByteBuffer in) {
+        return unzz(varint(in));
+    }
+
+    private static long varint(ByteBuffer in) {
+        long v = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = in.get();
+            v |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return v;
+        }
+    }
+
+    private void writeHeader(long indexOffset) throws IOException {
+        ByteBuffer h = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        h.put(MAGIC).putInt(VERSION).putInt(keyInterval).putInt(frameCount).putInt(0).putLong(indexOffset);
+        h.flip();
+        writeAt(0, h);
+    }
+
+    private void writeAt(long position, ByteBuffer b) throws IOException {
+        while (b.hasRemaining()) {
+            position += channel.write(b, position);
+        }
+    }
+
+    private ByteBuffer readAt(long position, long length) throws IOException {
+        if (position + length > channel.size()) {
+            throw new IOException("Truncated stack archive");
+        }
+        ByteBuffer b = ByteBuffer.allocate((int) length).order(ByteOrder.LITTLE_ENDIAN);
+        while (b.hasRemaining()) {
+            if (channel.read(b, position + b.position()) < 0) {
+                throw new IOException("Truncated stack archive");
+            }
+        }
+        b.flip();
+        return b;
+    }
+
+    /** Growable byte buffer with varint output. */
+    private static class Bytes {
+        byte[] a = new byte[1024];
+        int n = 0;
+
+        void put(int b) {
+            if (n == a.length) a = Arrays.copyOf(a, n * 2);
+            a[n++] = (byte) b;
+        }
+
+        void put(byte[] b, int off, int len) {
+            if (n + len > a.length) a = Arrays.copyOf(a, Math.max(a.length * 2, n + len));
+            System.arraycopy(b, off, a, n, len);
+            n += len;
+        }
+
+        void varint(long v) {
+            while ((v & ~0x7FL) != 0) {
+                put((int) (v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            put((int) v);
+        }
+
+        void zigzag(int v) {
+            varint(zz(v));
+        }
+    }
+}
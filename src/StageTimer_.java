@@ -0,0 +1,185 @@
+
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Wall time, CPU time, allocated bytes and item counts per named stage of a frame (or, summed,
+ * of a stack). CPU time and allocations are those of the thread that ran the stage, so work a
+ * stage hands to other threads only shows up in its wall time. Allocations need the HotSpot
+ * ThreadMXBean and are -1 elsewhere.
+ *
+ * Stages may be timed from several threads at once (the output writers).
+ */
+class StageTimer_ {
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private static final boolean CPU = THREADS.isCurrentThreadCpuTimeSupported();
+    private static final com.sun.management.ThreadMXBean ALLOC = allocationBean();
+
+    /**
+     * Totals of one stage.
+     */
+    static class Stage {
+        public final String name;
+        public int calls;
+        public long wallNanos;
+        public long cpuNanos;        // -1 if not supported
+        public long allocatedBytes;  // -1 if not supported
+        public final Map<String, Long> counts = new LinkedHashMap<>();
+
+        Stage(String name) {
+            this.name = name;
+        }
+    }
+
+    /**
+     * A running measurement, started by start and recorded by stop.
+     */
+    class Split {
+        private final String name;
+        private final long wall;
+        private final long cpu;
+        private final long alloc;
+
+        private Split(String name) {
+            this.name = name;
+            this.wall = System.nanoTime();
+            this.cpu = cpuTime();
+            this.alloc = allocatedBytes();
+        }
+
+        /** Adds n items of the given kind to the stage. */
+        public Split count(String item, long n) {
+            StageTimer_.this.count(name, item, n);
+            return this;
+        }
+
+        /** Adds the time and allocations since start to the stage. */
+        public void stop() {
+            long wallNanos = System.nanoTime() - wall;
+            long cpuNanos = cpu < 0 ? -1 : cpuTime() - cpu;
+            long bytes = alloc < 0 ? -1 : allocatedBytes() - alloc;
+            synchronized (StageTimer_.this) {
+                Stage s = stage(name);
+                s.calls++;
+                s.wallNanos += wallNanos;
+                s.cpuNanos = cpuNanos < 0 || s.cpuNanos < 0 ? -1 : s.cpuNanos + cpuNanos;
+                s.allocatedBytes = bytes < 0 || s.allocatedBytes < 0 ? -1 : s.allocatedBytes + bytes;
+            }
+        }
+    }
+
+    private final Map<String, Stage> stages = new LinkedHashMap<>();
+    private int frames; // Frame timers added
+
+    /** Starts timing a stage on the calling thread. */
+    public Split start(String name) {
+        return new Split(name);
+    }
+
+    /** Adds n items of the given kind to a stage. */
+    public synchronized void count(String name, String item, long n) {
+        stage(name).counts.merge(item, n, Long::sum);
+    }
+
+    /** Adds the totals of other to this (for the roll-up of a stack). */
+    public synchronized void add(StageTimer_ other) {
+        frames++;
+        for (Stage o : other.stages()) {
+            Stage s = stage(o.name);
+            s.calls += o.calls;
+            s.wallNanos += o.wallNanos;
+            s.cpuNanos = o.cpuNanos < 0 || s.cpuNanos < 0 ? -1 : s.cpuNanos + o.cpuNanos;
+            s.allocatedBytes = o.allocatedBytes < 0 || s.allocatedBytes < 0 ? -1 : s.allocatedBytes + o.allocatedBytes;
+            for (Map.Entry<String, Long> e : o.counts.entrySet()) {
+                s.counts.merge(e.getKey(), e.getValue(), Long::sum);
+            }
+        }
+    }
+
+    /** Number of frame timers added. */
+    public synchronized int frames() {
+        return frames;
+    }
+
+    /** A snapshot of the stages, in the order they were first timed. */
+    public synchronized List<Stage> stages() {
+        List<Stage> copy = new ArrayList<>();
+        for (Stage s : stages.values()) {
+            Stage c = new Stage(s.name);
+            c.calls = s.calls;
+            c.wallNanos = s.wallNanos;
+            c.cpuNanos = s.cpuNanos;
+            c.allocatedBytes = s.allocatedBytes;
+            c.counts.putAll(s.counts);
+            copy.add(c);
+        }
+        return copy;
+    }
+
+    /**
+     * Writes the stages as a JSON file:
+     * {"frame": 3, "stages": {"utlBoundaryProcessing": {"calls": 1, "wall_ns": ..., "cpu_ns": ...,
+     * "allocated_bytes": ..., "counts": {"pixels": ...}}, ...}}
+     *
+     * @param filename The name of the output file.
+     * @param key      Name of the leading field ("frame" or "frames").
+     * @param value    Its value.
+     */
+    public void writeJson(String filename, String key, long value) {
+        try (TextWriter_ fp = new TextWriter_(filename)) {
+            fp.text("{\n  \"").text(key).text("\": ").integer(value).text(",\n  \"stages\": {");
+            String sep = "\n";
+            for (Stage s : stages()) {
+                fp.text(sep).text("    \"").text(s.name).text("\": {");
+                fp.text("\"calls\": ").integer(s.calls);
+                fp.text(", \"wall_ns\": ").integer(s.wallNanos);
+                fp.text(", \"cpu_ns\": ").integer(s.cpuNanos);
+                fp.text(", \"allocated_bytes\": ").integer(s.allocatedBytes);
+                fp.text(", \"counts\": {");
+                String csep = "";
+                for (Map.Entry<String, Long> e : s.counts.entrySet()) {
+                    fp.text(csep).text("\"").text(e.getKey()).text("\": ").integer(e.getValue());
+                    csep = ", ";
+                }
+                fp.text("}}");
+                sep = ",\n";
+            }
+            fp.text("\n  }\n}\n");
+        } catch (IOException e) {
+            throw new RuntimeException("Error writing to file: " + filename, e);
+        }
+    }
+
+    private Stage stage(String name) {
+        return stages.computeIfAbsent(name, Stage::new);
+    }
+
+    private static long cpuTime() {
+        return CPU ? THREADS.getCurrentThreadCpuTime() : -1;
+    }
+
+    private static long allocatedBytes() {
+        return ALLOC != null ? ALLOC.getThreadAllocatedBytes(Thread.currentThread().getId()) : -1;
+    }
+
+    private static com.sun.management.ThreadMXBean allocationBean() {
+        try {
+            if (THREADS instanceof com.sun.management.ThreadMXBean) {
+                com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) THREADS;
+                if (bean.isThreadAllocatedMemorySupported()) {
+                    bean.setThreadAllocatedMemoryEnabled(true);
+                    return bean;
+                }
+            }
+        } catch (LinkageError | UnsupportedOperationException e) {
+            // Not a HotSpot JVM
+        }
+        return null;
+    }
+}
@@ -0,0 +1,808 @@
+
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.io.FileSaver;
+import ij.process.ByteProcessor;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Synthetic skeleton images for scale testing: a seeded, Lloyd-relaxed Voronoi tessellation
+ * rasterized into a one-pixel-wide 8-connected skeleton that follows the input rules
+ * (no four-blocks, no z/b patterns, three-way junctions only). Lines run to the image border
+ * like in a cropped tissue image.
+ *
+ * Each frame comes with an oracle: the cell, edge and vertex counts the pipeline should report
+ * for it (see Oracle). Stacks simulate time-lapse by moving every seed a small random step
+ * per frame, so cells keep their seed and neighbor exchanges happen naturally.
+ *
+ * Usage: java -cp ij.jar:Get_Vertex.jar SyntheticTissue_ [options] -o output.tif
+ */
+public class SyntheticTissue_ {
+    public static final double DEFAULT_CELL_AREA = 400.0;  // Mean cell area in pixels
+    public static final int DEFAULT_LLOYD_ITERATIONS = 10;
+
+    private static final double MIN_EDGE = 5.0;       // Shortest edge in pixels, keeps junctions apart
+    private static final int PADDING_CELLS = 3;       // Rows of seeds outside the image on each side
+    private static final int MAX_REPAIR_ROUNDS = 20;  // Junction moves per tessellation
+    private static final double REPAIR_STEP = 1.5;    // Largest move of a junction per repair round
+    private static final int MAX_REBUILDS = 200;      // Tessellations per frame
+    private static final double SEED_STEP = 0.1;      // Seed move per rebuild, in cell diameters
+    private static final double PULL = 0.05;          // Move of the seeds around a short edge per rebuild, as a fraction of their distance
+    private static final double SEPARATION = 0.01;    // Seeds closer than this on both axes count as coincident
+    private static final int MAX_SEPARATE_ROUNDS = 100;
+
+    private static final String USAGE =
+        "Usage: SyntheticTissue_ [options] -o output.tif\n"
+        + "  -o, --output FILE      Output TIFF; the oracle goes to FILE without extension + _oracle.txt\n"
+        + "  --width N              Image width (default: 1024)\n"
+        + "  --height N             Image height (default: 1024)\n"
+        + "  --cell-area A          Mean cell area in pixels (default: " + DEFAULT_CELL_AREA + ")\n"
+        + "  --lloyd N              Lloyd relaxation iterations (default: " + DEFAULT_LLOYD_ITERATIONS + ")\n"
+        + "  --seed N               Random seed (default: 1)\n"
+        + "  --frames N             Number of frames (default: 1)\n"
+        + "  --jitter S             Per-frame seed displacement in pixels (default: 1.0)\n"
+        + "  -h, --help             Show this message\n";
+
+    // 8-neighborhood in the bit order of CVUtil_.CVUTIL_NCELL_TYPE
+    private static final int[] NX = {-1, 0, 1, -1, 1, -1, 0, 1};
+    private static final int[] NY = {-1, -1, -1, 0, 0, 1, 1, 1};
+
+    // Neighbor triples of a valid three-way junction: classified 'j' and no two of them adjacent
+    private static final int[][] JUNCTIONS;
+    static {
+        List<int[]> triples = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            for (int j = i + 1; j < 8; j++) {
+                for (int k = j + 1; k < 8; k++) {
+                    int mask = (1 << i) | (1 << j) | (1 << k);
+                    if (CVUtil_.CVUTIL_NCELL_TYPE[mask] == 'j'
+                            && !adjacent(i, j) && !adjacent(j, k) && !adjacent(i, k)) {
+                        triples.add(new int[] { i, j, k });
+                    }
+                }
+            }
+        }
+        JUNCTIONS = triples.toArray(new int[0][]);
+    }
+
+    /**
+     * Counts the pipeline reports for a frame, in the terms of the .txt header: inner cells,
+     * edges and vertices, and the outer (Ext) elements, one vertex, edge and cell per edge that
+     * leaves the tissue.
+     *
+     * Boundary processing removes the cells open to the image border (layer 0) and then the
+     * cells that shared an edge with them (layer 1); the remaining cells are the inner cells.
+     * Every junction touching exactly one inner cell keeps its edge between two layer 1 cells
+     * as an Ext edge.
+     */
+    public static class Oracle {
+        public int innerCells;
+        public int innerEdges;
+        public int innerVertices;
+        public int ext;
+        public int bridges;   // Layer 1 edges with inner cells at both ends; the counts above may be off by these
+
+        public int cells() {
+            return innerCells + ext;
+        }
+
+        public int edges() {
+            return innerEdges + ext;
+        }
+
+        public int vertices() {
+            return innerVertices + ext;
+        }
+
+        /** Writes the counts like the header of the .txt output. */
+        public void write(TextWriter_ fp) throws IOException {
+            fp.text("### C_NUM ").integer(cells()).text(" \n");
+            fp.text("###  IN_CNUM ").integer(innerCells).text(" \n");
+            fp.text("###  EX_CNUM ").integer(ext).text(" \n");
+            fp.text("### E_NUM ").integer(edges()).text(" \n");
+            fp.text("###  IN_E_NUM ").integer(innerEdges).text(" \n");
+            fp.text("###  EX_E_NUM ").integer(ext).text(" \n");
+            fp.text("### V_NUM ").integer(vertices()).text(" \n");
+            fp.text("###  IN_V_NUM ").integer(innerVertices).text(" \n");
+            fp.text("###  EX_V_NUM ").integer(ext).text(" \n");
+        }
+    }
+
+    /**
+     * A generated frame.
+     */
+    public static class Frame {
+        public ByteProcessor image;
+        public Oracle oracle;
+        public int rebuilds;      // Tessellations thrown away because of short edges or stuck repairs
+        public int repairRounds;  // Rounds of junction moves, over all tessellations
+    }
+
+    public final int width;
+    public final int height;
+    private final Random rnd;
+    private final double spacing;
+    private final double minx, miny, maxx, maxy;  // Seed domain: the image plus padding
+    private final int n;
+    private double[] sx;
+    private double[] sy;
+    private int[] stack = new int[1024];  // Flood fill stack
+    private int sp;
+
+    /**
+     * Places the seeds and relaxes them.
+     *
+     * @param width    Image width.
+     * @param height   Image height.
+     * @param cellArea Mean cell area in pixels.
+     * @param lloyd    Number of Lloyd relaxation iterations.
+     * @param seed     Random seed.
+     */
+    public SyntheticTissue_(int width, int height, double cellArea, int lloyd, long seed) {
+        if (width < 3 || height < 3 || !(cellArea >= 8 * MIN_EDGE * MIN_EDGE)) {
+            throw new IllegalArgumentException("Image too small or cells too small: " + width + "x" + height + ", area " + cellArea);
+        }
+        this.width = width;
+        this.height = height;
+        this.rnd = new Random(seed);
+        this.spacing = Math.sqrt(cellArea);
+        double pad = PADDING_CELLS * spacing;
+        this.minx = -pad;
+        this.miny = -pad;
+        this.maxx = width + pad;
+        this.maxy = height + pad;
+        this.n = (int) Math.max(4, Math.round((maxx - minx) * (maxy - miny) / cellArea));
+        this.sx = new double[n];
+        this.sy = new double[n];
+        for (int i = 0; i < n; i++) {
+            sx[i] = minx + rnd.nextDouble() * (maxx - minx);
+            sy[i] = miny + rnd.nextDouble() * (maxy - miny);
+        }
+        for (int i = 0; i < lloyd; i++) {
+            relax();
+        }
+    }
+
+    /**
+     * Moves every seed a random step (normal, sigma pixels per axis) for the next frame.
+     */
+    public void jitter(double sigma) {
+        for (int i = 0; i < n; i++) {
+            sx[i] = reflect(sx[i] + rnd.nextGaussian() * sigma, minx, maxx);
+            sy[i] = reflect(sy[i] + rnd.nextGaussian() * sigma, miny, maxy);
+        }
+    }
+
+    /**
+     * Rasterizes the current tessellation and computes its oracle.
+     *
+     * Seeds next to edges shorter than MIN_EDGE are moved and the tessellation rebuilt. Where
+     * the rasterized lines still break the input rules, the nearest junctions are moved by a
+     * pixel or two and the lines redrawn; if that does not settle, the nearest seeds are moved.
+     *
+     * @throws IllegalStateException If the frame cannot be made valid, or has no inner cells.
+     */
+    public Frame render() {
+        Frame frame = new Frame();
+        for (int attempt = 0; ; attempt++) {
+            List<int[]> bad = draw(frame);
+            if (bad != null && bad.isEmpty()) {
+                return frame;
+            }
+            if (attempt == MAX_REBUILDS) {
+                throw new IllegalStateException(bad == null
+                    ? "Edges still shorter than " + MIN_EDGE + " pixels after " + attempt + " rebuilds"
+                    : bad.size() + " pixels still break the input rules after " + attempt + " rebuilds, first at "
+                        + bad.get(0)[0] + " " + bad.get(0)[1]);
+            }
+            if (bad != null) {
+                moveSeeds(bad);
+            }
+            frame.rebuilds++;
+        }
+    }
+
+    // Draws the current seeds. Returns null if seeds were moved to lengthen short edges,
+    // else the pixels that still break the rules after the junction moves (none on success)
+    private List<int[]> draw(Frame frame) {
+        separate();
+        Delaunay_ d = new Delaunay_(sx, sy, n);
+        int tc = d.triangleCount;
+        double[] vx = Arrays.copyOf(d.cx, tc);
+        double[] vy = Arrays.copyOf(d.cy, tc);
+
+        // Voronoi edges between finite vertices: edge i joins triangles et[i] and en[i] and separates seeds ea[i], eb[i]
+        int ec = 0;
+        int[] et = new int[3 * tc / 2 + 1];
+        int[] en = new int[et.length];
+        int[] ea = new int[et.length];
+        int[] eb = new int[et.length];
+        int jc = 0;
+        int[] junctions = new int[tc];
+        for (int t = 0; t < tc; t++) {
+            if (!d.isFinite(t)) continue;
+            junctions[jc++] = t;
+            for (int k = 0; k < 3; k++) {
+                int nb = d.tn[3 * t + k];
+                if (nb > t && d.isFinite(nb)) {
+                    et[ec] = t;
+                    en[ec] = nb;
+                    ea[ec] = d.tv[3 * t + (k + 1) % 3];
+                    eb[ec] = d.tv[3 * t + (k + 2) % 3];
+                    ec++;
+                }
+            }
+        }
+        if (jc == 0) {
+            throw new IllegalStateException("The tessellation has no finite triangles");
+        }
+        if (lengthenEdges(d, vx, vy, ec, et, en, ea, eb)) {
+            return null;
+        }
+
+        byte[] px = new byte[width * height];
+        long[] visited = new long[(width * height + 63) / 64];
+        boolean[] layer0 = new boolean[n];
+        int[] dir = new int[3 * tc];
+        for (int round = 0; ; round++) {
+            chooseDirections(d, vx, vy, dir);
+            Arrays.fill(px, (byte) 0);
+            for (int i = 0; i < ec; i++) {
+                drawEdge(px, d, vx, vy, dir, et[i], en[i]);
+            }
+            List<int[]> bad = new ArrayList<>();
+            checkPatterns(px, bad);
+            checkRegions(px, d, visited, layer0, bad);
+            if (bad.isEmpty()) {
+                break;
+            }
+            if (round == MAX_REPAIR_ROUNDS) {
+                return bad;
+            }
+            frame.repairRounds++;
+            boolean[] moved = new boolean[tc];
+            for (int t : nearest(vx, vy, junctions, jc, bad)) {
+                if (t < 0 || moved[t]) continue;
+                moved[t] = true;
+                vx[t] += (2 * rnd.nextDouble() - 1) * REPAIR_STEP;
+                vy[t] += (2 * rnd.nextDouble() - 1) * REPAIR_STEP;
+            }
+        }
+
+        frame.image = new ByteProcessor(width, height, px);
+        frame.oracle = oracle(d, layer0, ec, et, en, ea, eb);
+        if (frame.oracle.innerCells == 0) {
+            throw new IllegalStateException("The frame has no inner cells");
+        }
+        return new ArrayList<>();
+    }
+
+    // Moves every seed with a bounded Voronoi cell to the centroid of its cell
+    private void relax() {
+        separate();
+        Delaunay_ d = new Delaunay_(sx, sy, n);
+        int[] pt = d.pointTriangles();
+        double[] nx = sx.clone();
+        double[] ny = sy.clone();
+        for (int s = 0; s < n; s++) {
+            int start = pt[s];
+            if (start < 0) continue;
+            double area = 0, cx = 0, cy = 0;
+            boolean bounded = true;
+            int t = start;
+            do {
+                int u = d.next(t, s);
+                if (u < 0 || !d.isFinite(t) || !d.isFinite(u)) {
+                    bounded = false;
+                    break;
+                }
+                double a = d.cx[t] * d.cy[u] - d.cx[u] * d.cy[t];
+                area += a;
+                cx += (d.cx[t] + d.cx[u]) * a;
+                cy += (d.cy[t] + d.cy[u]) * a;
+                t = u;
+            } while (t != start);
+            if (!bounded || area == 0 || !Double.isFinite(cx / area) || !Double.isFinite(cy / area)) continue;
+            nx[s] = reflect(cx / (3 * area), minx, maxx);
+            ny[s] = reflect(cy / (3 * area), miny, maxy);
+        }
+        sx = nx;
+        sy = ny;
+    }
+
+    /**
+     * Lengthens every edge inside the image that is shorter than MIN_EDGE: pulls the two seeds
+     * it separates together and pushes the two seeds whose triangles meet at it apart.
+     * Returns false if there were none.
+     */
+    private boolean lengthenEdges(Delaunay_ d, double[] vx, double[] vy, int ec, int[] et, int[] en, int[] ea, int[] eb) {
+        boolean moved = false;
+        for (int i = 0; i < ec; i++) {
+            int t = et[i];
+            int u = en[i];
+            double mx = (vx[t] + vx[u]) / 2;
+            double my = (vy[t] + vy[u]) / 2;
+            if (mx < -MIN_EDGE || my < -MIN_EDGE || mx > width + MIN_EDGE || my > height + MIN_EDGE) continue;
+            double dx = vx[u] - vx[t];
+            double dy = vy[u] - vy[t];
+            if (dx * dx + dy * dy >= MIN_EDGE * MIN_EDGE) continue;
+            // Pulls the seeds on both sides of the edge together ...
+            int a = ea[i];
+            int b = eb[i];
+            double px = (d.x[b] - d.x[a]) * PULL;
+            double py = (d.y[b] - d.y[a]) * PULL;
+            sx[a] += px;
+            sy[a] += py;
+            sx[b] -= px;
+            sy[b] -= py;
+            // ... and pushes the two seeds at its ends apart
+            int c = third(d, t, a, b);
+            int e = third(d, u, a, b);
+            double qx = (d.x[e] - d.x[c]) * PULL;
+            double qy = (d.y[e] - d.y[c]) * PULL;
+            sx[c] -= qx;
+            sy[c] -= qy;
+            sx[e] += qx;
+            sy[e] += qy;
+            moved = true;
+        }
+        return moved;
+    }
+
+    // Picks the first step of each edge out of a junction (dir[3t + k] for the edge across side k)
+    private static void chooseDirections(Delaunay_ d, double[] vx, double[] vy, int[] dir) {
+        int tc = d.triangleCount;
+        double[] angle = new double[3];
+        int[] side = new int[3];
+        for (int t = 0; t < tc; t++) {
+            if (!d.isFinite(t)) continue;
+            int m = 0;
+            for (int k = 0; k < 3; k++) {
+                int nb = d.tn[3 * t + k];
+                if (nb >= 0 && d.isFinite(nb)) {
+                    angle[m] = Math.atan2(vy[nb] - vy[t], vx[nb] - vx[t]);
+                    side[m++] = k;
+                }
+            }
+            if (m == 3) {
+                double best = Double.MAX_VALUE;
+                for (int[] triple : JUNCTIONS) {
+                    for (int p = 0; p < 6; p++) {
+                        int a = triple[p % 3];
+                        int b = triple[(p + 1 + p / 3) % 3];
+                        int c = triple[(p + 2 - p / 3) % 3];
+                        double cost = error(angle[0], a) + error(angle[1], b) + error(angle[2], c);
+                        if (cost < best) {
+                            best = cost;
+                            dir[3 * t + side[0]] = a;
+                            dir[3 * t + side[1]] = b;
+                            dir[3 * t + side[2]] = c;
+                        }
+                    }
+                }
+            } else {
+                for (int i = 0; i < m; i++) {
+                    int bestDir = 0;
+                    for (int q = 1; q < 8; q++) {
+                        if (error(angle[i], q) < error(angle[i], bestDir)) {
+                            bestDir = q;
+                        }
+                    }
+                    dir[3 * t + side[i]] = bestDir;
+                }
+            }
+        }
+    }
+
+    // Draws the junction pixels of t and u and the line between their first steps
+    private void drawEdge(byte[] px, Delaunay_ d, double[] vx, double[] vy, int[] dir, int t, int u) {
+        int tx = (int) Math.round(vx[t]);
+        int ty = (int) Math.round(vy[t]);
+        int ux = (int) Math.round(vx[u]);
+        int uy = (int) Math.round(vy[u]);
+        if ((tx < -1 && ux < -1) || (ty < -1 && uy < -1)
+                || (tx > width && ux > width) || (ty > height && uy > height)) {
+            return;
+        }
+        int dt = dir[3 * t + side(d, t, u)];
+        int du = dir[3 * u + side(d, u, t)];
+        set(px, tx, ty);
+        set(px, ux, uy);
+        line(px, tx + NX[dt], ty + NY[dt], ux + NX[du], uy + NY[du]);
+    }
+
+    // Bresenham line, clipped to the image
+    private void line(byte[] px, int x0, int y0, int x1, int y1) {
+        int dx = Math.abs(x1 - x0);
+        int dy = -Math.abs(y1 - y0);
+        int stepx = x0 < x1 ? 1 : -1;
+        int stepy = y0 < y1 ? 1 : -1;
+        int err = dx + dy;
+        while (true) {
+            set(px, x0, y0);
+            if (x0 == x1 && y0 == y1) break;
+            int e2 = 2 * err;
+            if (e2 >= dy) {
+                err += dy;
+                x0 += stepx;
+            }
+            if (e2 <= dx) {
+                err += dx;
+                y0 += stepy;
+            }
+        }
+    }
+
+    private void set(byte[] px, int x, int y) {
+        if (x >= 0 && x < width && y >= 0 && y < height) {
+            px[y * width + x] = (byte) 255;
+        }
+    }
+
+    // Adds the pixels that break the input rules: four-blocks anywhere, z/b/f patterns, dots and terminals inside
+    private void checkPatterns(byte[] px, List<int[]> bad) {
+        int w = width;
+        for (int y = 0; y < height - 1; y++) {
+            for (int x = 0; x < w - 1; x++) {
+                int i = y * w + x;
+                if (px[i] != 0 && px[i + 1] != 0 && px[i + w] != 0 && px[i + w + 1] != 0) {
+                    bad.add(new int[] { x, y });
+                }
+            }
+        }
+        for (int y = 1; y < height - 1; y++) {
+            for (int x = 1; x < w - 1; x++) {
+                int i = y * w + x;
+                if (px[i] == 0) continue;
+                int code = 0;
+                for (int k = 0; k < 8; k++) {
+                    if (px[i + NY[k] * w + NX[k]] != 0) {
+                        code |= 1 << k;
+                    }
+                }
+                char type = CVUtil_.CVUTIL_NCELL_TYPE[code];
+                if (type == 'z' || type == 'b' || type == 'f' || type == 'd' || type == 't') {
+                    bad.add(new int[] { x, y });
+                }
+            }
+        }
+    }
+
+    /**
+     * Floods the cells open to the image border (layer 0) and then each other cell from its seed.
+     * Adds seeds on a line, cells split into several regions, and cells merged with another cell.
+     */
+    private void checkRegions(byte[] px, Delaunay_ d, long[] visited, boolean[] layer0, List<int[]> bad) {
+        int w = width;
+        int h = height;
+        Arrays.fill(visited, 0L);
+
+        // The pipeline zeroes the border ring before flooding from (0, 0)
+        for (int x = 0; x < w; x++) {
+            visit(visited, x);
+            visit(visited, (h - 1) * w + x);
+        }
+        for (int y = 1; y < h - 1; y++) {
+            visit(visited, y * w);
+            visit(visited, y * w + w - 1);
+        }
+        flood(px, visited);
+
+        for (int s = 0; s < n; s++) {
+            int x = (int) Math.round(d.x[s]);
+            int y = (int) Math.round(d.y[s]);
+            layer0[s] = x < 1 || y < 1 || x > w - 2 || y > h - 2 || isSet(visited, y * w + x);
+        }
+        for (int s = 0; s < n; s++) {
+            if (layer0[s]) continue;
+            int x = (int) Math.round(d.x[s]);
+            int y = (int) Math.round(d.y[s]);
+            int i = y * w + x;
+            if (px[i] != 0 || isSet(visited, i)) {
+                bad.add(new int[] { x, y });
+                continue;
+            }
+            visit(visited, i);
+            flood(px, visited);
+        }
+
+        // Zero pixels reached by neither flood are pieces of a cell cut off from its seed
+        for (int y = 1; y < h - 1; y++) {
+            for (int x = 1; x < w - 1; x++) {
+                int i = y * w + x;
+                if (px[i] == 0 && !isSet(visited, i)) {
+                    bad.add(new int[] { x, y });
+                    visit(visited, i);
+                    flood(px, visited);
+                }
+            }
+        }
+    }
+
+    // 4-connected flood through zero pixels inside the border ring
+    private void flood(byte[] px, long[] visited) {
+        int w = width;
+        int h = height;
+        while (sp > 0) {
+            int i = stack[--sp];
+            int x = i % w;
+            int y = i / w;
+            if (x > 1 && px[i - 1] == 0) visit(visited, i - 1);
+            if (x < w - 2 && px[i + 1] == 0) visit(visited, i + 1);
+            if (y > 1 && px[i - w] == 0) visit(visited, i - w);
+            if (y < h - 2 && px[i + w] == 0) visit(visited, i + w);
+        }
+    }
+
+    private void visit(long[] visited, int i) {
+        if (!isSet(visited, i)) {
+            visited[i >>> 6] |= 1L << i;
+            if (sp == stack.length) {
+                stack = Arrays.copyOf(stack, 2 * stack.length);
+            }
+            stack[sp++] = i;
+        }
+    }
+
+    private static boolean isSet(long[] bits, int i) {
+        return (bits[i >>> 6] & (1L << i)) != 0;
+    }
+
+    // Moves seeds off each other until no two coincide: Delaunay_ needs distinct points
+    private void separate() {
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        double sigma = SEED_STEP * spacing;
+        for (int round = 0; ; round++) {
+            Arrays.sort(order, (a, b) -> Double.compare(sx[a], sx[b]));
+            boolean moved = false;
+            for (int i = 0; i < n; i++) {
+                int a = order[i];
+                for (int j = i + 1; j < n && sx[order[j]] - sx[a] < SEPARATION; j++) {
+                    int b = order[j];
+                    if (Math.abs(sy[b] - sy[a]) < SEPARATION) {
+                        sx[b] = reflect(sx[b] + rnd.nextGaussian() * sigma, minx, maxx);
+                        sy[b] = reflect(sy[b] + rnd.nextGaussian() * sigma, miny, maxy);
+                        moved = true;
+                    }
+                }
+            }
+            if (!moved) {
+                return;
+            }
+            if (round == MAX_SEPARATE_ROUNDS) {
+                throw new IllegalStateException("Seeds still coincide after " + round + " rounds");
+            }
+        }
+    }
+
+    // Moves the seed nearest to each bad pixel by a random step
+    private void moveSeeds(List<int[]> bad) {
+        int[] ids = new int[n];
+        for (int i = 0; i < n; i++) {
+            ids[i] = i;
+        }
+        boolean[] moved = new boolean[n];
+        double sigma = SEED_STEP * spacing;
+        for (int s : nearest(sx, sy, ids, n, bad)) {
+            if (s < 0 || moved[s]) continue;
+            moved[s] = true;
+            sx[s] = reflect(sx[s] + rnd.nextGaussian() * sigma, minx, maxx);
+            sy[s] = reflect(sy[s] + rnd.nextGaussian() * sigma, miny, maxy);
+        }
+    }
+
+    /**
+     * For each point, the nearest of the given positions within about one cell (-1 if none),
+     * found through a grid of cell-sized buckets over the image.
+     */
+    private int[] nearest(double[] xs, double[] ys, int[] ids, int count, List<int[]> points) {
+        int gw = (int) Math.ceil(width / spacing) + 3;
+        int gh = (int) Math.ceil(height / spacing) + 3;
+        int[] head = new int[gw * gh];
+        int[] next = new int[xs.length];
+        Arrays.fill(head, -1);
+        for (int i = 0; i < count; i++) {
+            int id = ids[i];
+            int gx = (int) Math.floor(xs[id] / spacing) + 1;
+            int gy = (int) Math.floor(ys[id] / spacing) + 1;
+            if (gx < 0 || gy < 0 || gx >= gw || gy >= gh) continue;
+            next[id] = head[gy * gw + gx];
+            head[gy * gw + gx] = id;
+        }
+        int[] found = new int[points.size()];
+        for (int i = 0; i < found.length; i++) {
+            int[] p = points.get(i);
+            int gx = (int) Math.floor(p[0] / spacing) + 1;
+            int gy = (int) Math.floor(p[1] / spacing) + 1;
+            int best = -1;
+            double bestDist = Double.MAX_VALUE;
+            for (int y = Math.max(0, gy - 1); y <= Math.min(gh - 1, gy + 1); y++) {
+                for (int x = Math.max(0, gx - 1); x <= Math.min(gw - 1, gx + 1); x++) {
+                    for (int id = head[y * gw + x]; id >= 0; id = next[id]) {
+                        double dx = xs[id] - p[0];
+                        double dy = ys[id] - p[1];
+                        if (dx * dx + dy * dy < bestDist) {
+                            bestDist = dx * dx + dy * dy;
+                            best = id;
+                        }
+                    }
+                }
+            }
+            found[i] = best;
+        }
+        return found;
+    }
+
+    private Oracle oracle(Delaunay_ d, boolean[] layer0, int ec, int[] et, int[] en, int[] ea, int[] eb) {
+        boolean[] layer1 = new boolean[n];
+        for (int i = 0; i < ec; i++) {
+            if (layer0[ea[i]] && !layer0[eb[i]]) layer1[eb[i]] = true;
+            if (layer0[eb[i]] && !layer0[ea[i]]) layer1[ea[i]] = true;
+        }
+        boolean[] inner = new boolean[n];
+        Oracle o = new Oracle();
+        for (int s = 0; s < n; s++) {
+            inner[s] = !layer0[s] && !layer1[s];
+            if (inner[s]) o.innerCells++;
+        }
+        int tc = d.triangleCount;
+        int[] touching = new int[tc];
+        for (int t = 0; t < tc; t++) {
+            if (!d.isFinite(t)) continue;
+            int k = 0;
+            for (int j = 0; j < 3; j++) {
+                if (inner[d.tv[3 * t + j]]) k++;
+            }
+            touching[t] = k;
+            if (k >= 1) o.innerVertices++;
+            if (k == 1) o.ext++;
+        }
+        for (int i = 0; i < ec; i++) {
+            if (inner[ea[i]] || inner[eb[i]]) {
+                o.innerEdges++;
+            } else if (layer1[ea[i]] && layer1[eb[i]] && touching[et[i]] > 0 && touching[en[i]] > 0) {
+                o.bridges++;
+            }
+        }
+        return o;
+    }
+
+    // Vertex of triangle t other than a and b
+    private static int third(Delaunay_ d, int t, int a, int b) {
+        int v = d.tv[3 * t];
+        if (v != a && v != b) {
+            return v;
+        }
+        v = d.tv[3 * t + 1];
+        return v != a && v != b ? v : d.tv[3 * t + 2];
+    }
+
+    // Index of the side of t across which u lies
+    private static int side(Delaunay_ d, int t, int u) {
+        return d.tn[3 * t] == u ? 0 : d.tn[3 * t + 1] == u ? 1 : 2;
+    }
+
+    private static boolean adjacent(int a, int b) {
+        return Math.abs(NX[a] - NX[b]) <= 1 && Math.abs(NY[a] - NY[b]) <= 1;
+    }
+
+    // Squared angle between angle and neighbor direction q
+    private static double error(double angle, int q) {
+        double e = Math.abs(angle - Math.atan2(NY[q], NX[q]));
+        if (e > Math.PI) {
+            e = 2 * Math.PI - e;
+        }
+        return e * e;
+    }
+
+    // Mirrors v back into [lo, hi] at the side it left, so that seeds pushed out of the domain
+    // do not pile up on its border or corners
+    private static double reflect(double v, double lo, double hi) {
+        if (v < lo) {
+            v = 2 * lo - v;
+        } else if (v > hi) {
+            v = 2 * hi - v;
+        }
+        return Math.max(lo, Math.min(hi, v));
+    }
+
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+
+        String output = null;
+        int width = 1024;
+        int height = 1024;
+        double cellArea = DEFAULT_CELL_AREA;
+        int lloyd = DEFAULT_LLOYD_ITERATIONS;
+        long seed = 1;
+        int frames = 1;
+        double jitter = 1.0;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String a = args[i];
+                if (a.equals("-o") || a.equals("--output")) {
+                    output = value(args, ++i, a);
+                } else if (a.equals("--width")) {
+                    width = Integer.parseInt(value(args, ++i, a));
+                } else if (a.equals("--height")) {
+                    height = Integer.parseInt(value(args, ++i, a));
+                } else if (a.equals("--cell-area")) {
+                    cellArea = Double.parseDouble(value(args, ++i, a));
+                } else if (a.equals("--lloyd")) {
+                    lloyd = Math.max(0, Integer.parseInt(value(args, ++i, a)));
+                } else if (a.equals("--seed")) {
+                    seed = Long.parseLong(value(args, ++i, a));
+                } else if (a.equals("--frames")) {
+                    frames = Math.max(1, Integer.parseInt(value(args, ++i, a)));
+                } else if (a.equals("--jitter")) {
+                    jitter = Double.parseDouble(value(args, ++i, a));
+                } else if (a.equals("-h") || a.equals("--help")) {
+                    System.out.print(USAGE);
+                    return;
+                } else {
+                    throw new IllegalArgumentException("Unknown option: " + a);
+                }
+            }
+            if (output == null) {
+                throw new IllegalArgumentException("An output file is required.");
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.print(USAGE);
+            System.exit(2);
+            return;
+        }
+
+        String base = output.contains(".") ? output.substring(0, output.lastIndexOf('.')) : output;
+        String oracleFilename = base + "_oracle.txt";
+        try {
+            SyntheticTissue_ tissue = new SyntheticTissue_(width, height, cellArea, lloyd, seed);
+            ImageStack stack = new ImageStack(width, height);
+            try (TextWriter_ fp = new TextWriter_(oracleFilename)) {
+                for (int f = 1; f <= frames; f++) {
+                    if (f > 1) {
+                        tissue.jitter(jitter);
+                    }
+                    Frame frame = tissue.render();
+                    stack.addSlice("", frame.image);
+                    fp.text("### FRAME ").integer(f).text(" \n");
+                    frame.oracle.write(fp);
+                    IJ.log("frame " + f + ": " + frame.oracle.innerCells + " inner cells, "
+                        + frame.rebuilds + " rebuilds, " + frame.repairRounds + " repair rounds"
+                        + (frame.oracle.bridges > 0 ? ", " + frame.oracle.bridges + " bridge edges" : ""));
+                }
+            }
+            ImagePlus imp = new ImagePlus(new File(base).getName(), stack);
+            boolean saved = frames == 1 ? new FileSaver(imp).saveAsTiff(output) : new FileSaver(imp).saveAsTiffStack(output);
+            if (!saved) {
+                System.err.println("Cannot write image: " + output);
+                System.exit(1);
+                return;
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Error: " + e.getMessage());
+            System.exit(1);
+            return;
+        }
+        IJ.log("> Output image: " + output);
+        IJ.log("> Output oracle: " + oracleFilename);
+    }
+
+    private static String value(String[] args, int i, String option) {
+        if (i >= args.length) {
+            throw new IllegalArgumentException("Missing value for " + option);
+        }
+        return args[i];
+    }
+}
@@ -0,0 +1,122 @@
+
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Buffered text writer for the vertex data files. Integers and "%f" doubles are formatted by
+ * hand into a reusable byte buffer that is written through a FileChannel, producing the same
+ * bytes as String.format with the default locale.
+ *
+ * Only integral doubles (all vertex coordinates are pixel positions) take the hand-formatted
+ * path; other values, and every value if the default locale does not format numbers with
+ * ASCII digits and a '.' separator, go through String.format.
+ */
+class TextWriter_ implements Closeable {
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final double MAX_INTEGRAL = 1e15; // Integral doubles below this are formatted by hand
+
+    private final FileChannel channel;
+    private final byte[] buf;
+    private final byte[] digits;
+    private final boolean plain; // Default locale formats numbers like the ROOT locale
+    private int pos;
+
+    public TextWriter_(String filename) throws IOException {
+        this.channel = FileChannel.open(Paths.get(filename),
+            StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        this.buf = new byte[BUFFER_SIZE];
+        this.digits = new byte[20];
+        this.plain = String.format("%d %f", -1234567890, -0.5).equals("-1234567890 -0.500000");
+        this.pos = 0;
+    }
+
+    /** Writes a string (ASCII fast path, default charset otherwise). */
+    public TextWriter_ text(String s) throws IOException {
+        int n = s.length();
+        for (int i = 0; i < n; i++) {
+            if (s.charAt(i) >= 0x80) {
+                return bytes(s.getBytes(Charset.defaultCharset()));
+            }
+        }
+        if (pos + n > buf.length) {
+            flush();
+        }
+        if (n > buf.length) {
+            return bytes(s.getBytes(Charset.defaultCharset()));
+        }
+        for (int i = 0; i < n; i++) {
+            buf[pos++] = (byte) s.charAt(i);
+        }
+        return this;
+    }
+
+    /** Writes an int like "%d". */
+    public TextWriter_ integer(long v) throws IOException {
+        if (!plain) {
+            return text(String.format("%d", v));
+        }
+        if (pos + 21 > buf.length) {
+            flush();
+        }
+        if (v < 0) {
+            buf[pos++] = '-';
+        }
+        // Accumulate negatively so that Long.MIN_VALUE works too
+        long r = v < 0 ? v : -v;
+        int n = 0;
+        do {
+            digits[n++] = (byte) ('0' - (r % 10));
+            r /= 10;
+        } while (r != 0);
+        while (n > 0) {
+            buf[pos++] = digits[--n];
+        }
+        return this;
+    }
+
+    /** Writes a double like "%f" (six decimals). */
+    public TextWriter_ fixed(double v) throws IOException {
+        if (!plain || v != Math.rint(v) || Math.abs(v) >= MAX_INTEGRAL) {
+            return text(String.format("%f", v));
+        }
+        if (v == 0.0 && Double.doubleToRawLongBits(v) != 0L) {
+            text("-0");
+        } else {
+            integer((long) v);
+        }
+        return text(".000000");
+    }
+
+    /** Writes buffered bytes to the file. */
+    public void flush() throws IOException {
+        ByteBuffer bb = ByteBuffer.wrap(buf, 0, pos);
+        while (bb.hasRemaining()) {
+            channel.write(bb);
+        }
+        pos = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private TextWriter_ bytes(byte[] b) throws IOException {
+        flush();
+        ByteBuffer bb = ByteBuffer.wrap(b);
+        while (bb.hasRemaining()) {
+            channel.write(bb);
+        }
+        return this;
+    }
+}
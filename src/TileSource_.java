@@ -0,0 +1,136 @@
+
+
+import ij.io.FileInfo;
+import ij.io.TiffDecoder;
+import ij.process.ImageProcessor;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Read access to rectangles of an 8-bit frame, for TiledMesh_. The frame is either held in
+ * memory (an ImageProcessor) or is an uncompressed 8-bit TIFF on disk, which is read one row
+ * segment at a time so that the whole frame never has to fit in memory.
+ *
+ * read may be called from several threads at once.
+ */
+class TileSource_ implements Closeable {
+    public final int width;
+    public final int height;
+
+    private final byte[] pixels;       // In memory, or null
+    private final FileChannel channel; // On disk, or null
+    private final long offset;         // Disk: file offset of row 0, if the rows are contiguous
+    private final long[] stripOffset;  // Disk: file offset of each strip, or null if contiguous
+    private final int rowsPerStrip;
+
+    private TileSource_(int width, int height, byte[] pixels, FileChannel channel, long offset, long[] stripOffset, int rowsPerStrip) {
+        this.width = width;
+        this.height = height;
+        this.pixels = pixels;
+        this.channel = channel;
+        this.offset = offset;
+        this.stripOffset = stripOffset;
+        this.rowsPerStrip = rowsPerStrip;
+    }
+
+    /**
+     * A frame in memory.
+     *
+     * @param ip An 8-bit frame.
+     */
+    public static TileSource_ of(ImageProcessor ip) {
+        if (!(ip.getPixels() instanceof byte[])) {
+            throw new IllegalArgumentException("Tiled processing needs an 8-bit image.");
+        }
+        return new TileSource_(ip.getWidth(), ip.getHeight(), (byte[]) ip.getPixels(), null, 0, null, 0);
+    }
+
+    /**
+     * Opens a single-image, uncompressed 8-bit TIFF for reading in place.
+     *
+     * @param path The file.
+     * @return The source, or null if the file is not such a TIFF (it then has to be opened as an image).
+     */
+    public static TileSource_ openTiff(String path) throws IOException {
+        String name = new File(path).getName().toLowerCase();
+        if (!name.endsWith(".tif") && !name.endsWith(".tiff")) {
+            return null;
+        }
+        File file = new File(path).getAbsoluteFile();
+        FileInfo[] info;
+        try {
+            info = new TiffDecoder(file.getParent() + File.separator, file.getName()).getTiffInfo();
+        } catch (IOException e) {
+            return null;
+        }
+        if (info == null || info.length != 1) {
+            return null;
+        }
+        FileInfo fi = info[0];
+        if (fi.fileType != FileInfo.GRAY8 || fi.compression != FileInfo.COMPRESSION_NONE || fi.nImages > 1 || fi.whiteIsZero) {
+            return null;
+        }
+
+        // Strips, unless they follow each other
+        long[] strips = null;
+        int rows = fi.height;
+        if (fi.stripOffsets != null && fi.stripOffsets.length > 1 && fi.stripLengths != null) {
+            rows = Math.max(1, fi.stripLengths[0] / fi.width);
+            strips = new long[fi.stripOffsets.length];
+            boolean contiguous = true;
+            for (int i = 0; i < strips.length; i++) {
+                strips[i] = fi.stripOffsets[i] & 0xFFFFFFFFL;
+                contiguous &= strips[i] == strips[0] + (long) i * rows * fi.width;
+            }
+            if (contiguous) {
+                strips = null;
+            }
+        }
+        long first = strips == null && fi.stripOffsets != null && fi.stripOffsets.length > 0
+            ? fi.stripOffsets[0] & 0xFFFFFFFFL : fi.getOffset();
+        FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+        return new TileSource_(fi.width, fi.height, null, channel, first, strips, rows);
+    }
+
+    /** True if the frame is read from disk. */
+    public boolean onDisk() {
+        return channel != null;
+    }
+
+    /**
+     * Copies the w x h rectangle at (x, y) into out, row by row.
+     */
+    public void read(int x, int y, int w, int h, byte[] out) throws IOException {
+        if (x < 0 || y < 0 || x + w > width || y + h > height) {
+            throw new IllegalArgumentException(String.format("Rectangle %d %d %d x %d outside the frame", x, y, w, h));
+        }
+        for (int r = 0; r < h; r++) {
+            if (pixels != null) {
+                System.arraycopy(pixels, (y + r) * width + x, out, r * w, w);
+                continue;
+            }
+            int row = y + r;
+            long position = stripOffset == null
+                ? offset + (long) row * width + x
+                : stripOffset[row / rowsPerStrip] + (long) (row % rowsPerStrip) * width + x;
+            ByteBuffer buffer = ByteBuffer.wrap(out, r * w, w);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position() - r * w) < 0) {
+                    throw new IOException("Unexpected end of file");
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+    }
+}
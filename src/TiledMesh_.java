@@ -0,0 +1,677 @@
+
+
+import ij.ImagePlus;
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+import java.awt.Point;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Tiled vertex extraction for frames too large to process whole: only one tile (with its halo)
+ * per thread is held as pixel planes, so memory is bounded by the tile size, not the frame size.
+ *
+ * The cropped frame is cut into tile x tile cores. Each core is extended by halo pixels on every
+ * side and the extended tile goes through the usual steps (utlBoundaryProcessing, vxSet_Mesh) as
+ * if it were a frame of its own. Near its cut sides the tile mesh is wrong (the cut cells and
+ * their neighbors become background), but away from them it is the mesh of the whole frame.
+ * From each tile only the vertices and edges anchored in its core are kept, with their global
+ * pixel keys:
+ * <pre>
+ *   vertex      its pixel
+ *   edge        the start pixel and first step of its contour (as CVUtil_.trace emits it)
+ *   cell ID     the first pixel of the cell (as Labeler_ numbers them)
+ * </pre>
+ * The pieces are stitched into one Mesh_ by these keys and ordered as a whole-frame extraction
+ * orders them; the cells are then built from the stitched mesh (HalfEdge_), so the outputs are
+ * the same, IDs included. Edges keep only the first two and last two points of their contour
+ * (enough for the angular order at the vertices and the drawings).
+ *
+ * Every tile also reports what it sees in its checked window, the core plus halo / 2 on every
+ * side, and the stitched mesh must match each view exactly: same vertices with the same cells,
+ * same edges. A halo too small for the cells (it should be more than four times the largest cell
+ * diameter) makes the views disagree, and extraction stops with an error instead of stitching a
+ * wrong mesh.
+ */
+class TiledMesh_ {
+    public static final int DEFAULT_TILE = 2048; // Tile core size in pixels
+    public static final int DEFAULT_HALO = 256;  // Extra pixels read around each core
+
+    private final int tile;
+    private final int halo;
+    private final int minimal_cell_size;
+    private final int threads;
+
+    /**
+     * @param tile              Tile core size in pixels.
+     * @param halo              Extra pixels read around each core.
+     * @param minimal_cell_size Threshold for minimum cell area.
+     * @param threads           Number of tiles processed at once.
+     */
+    public TiledMesh_(int tile, int halo, int minimal_cell_size, int threads) {
+        this.tile = tile;
+        this.halo = halo;
+        this.minimal_cell_size = minimal_cell_size;
+        this.threads = Math.max(1, threads);
+    }
+
+    // What one tile sees in its checked window, in global pixel keys of the cropped frame;
+    // the elements anchored in its core are kept
+    private static class Piece {
+        Diagnostics_ diagnostics; // Events in the core (all events and errors if the tile failed)
+        boolean failed;
+        int wx0, wy0, wx1, wy1;   // Checked window, in pixels of the cropped frame
+
+        int[] regions = new int[16];  // First pixel of each cell ID in the core
+        int nregions;
+
+        int nv;
+        boolean[] vkept = new boolean[16];
+        int[] vpix = new int[16];
+        byte[] vctype = new byte[16];
+        int[] vcellStart = { 0 };     // Vertex -> cell ID first pixels (ascending)
+        int[] vcell = new int[16];
+
+        int ne;
+        boolean[] ekept = new boolean[16];
+        long[] ekey = new long[16];   // Start pixel * 8 + first step
+        long[] eorder = new long[16]; // Sort key of the edge order
+        int[] ev0 = new int[16];      // End pixels
+        int[] ev1 = new int[16];
+        byte[] einout = new byte[16];
+        double[] esdist = new double[16];
+        double[] eangle = new double[16];
+        int[] epts = new int[64];     // Up to 4 contour points per edge
+        byte[] elen = new byte[16];
+
+        boolean inWindow(int x, int y) {
+            return x >= wx0 && x < wx1 && y >= wy0 && y < wy1;
+        }
+    }
+
+    /**
+     * Extracts a frame tile by tile.
+     *
+     * @param source    The frame.
+     * @param num       Frame number (1-based).
+     * @param stackSize Number of frames in the stack (for reporting).
+     * @param crop      Whether to crop the frame to its non-zero bounding box.
+     * @return The frame result, with tiled set; mesh is null if the frame was rejected.
+     * @throws RuntimeException If the tiles disagree (the halo is too small for the cells).
+     */
+    public FrameResult_ extract(TileSource_ source, int num, int stackSize, boolean crop) throws IOException {
+        FrameResult_ frame = new FrameResult_(num, null);
+        frame.tiled = true;
+        frame.diagnostics.log("## frame: " + num + " / " + stackSize);
+        if ((long) source.width * source.height > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Frame too large for pixel indices: " + source.width + " x " + source.height);
+        }
+
+        // Pre-scan in bands of whole rows for the crop bounds and the input defects
+        StageTimer_.Split split = frame.timings.start("utlCropImage");
+        PreScan_ scan = PreScan_.create(source.width, source.height);
+        int bandRows = Math.max(1, (int) Math.min(source.height, (long) tile * tile / source.width));
+        byte[] band = new byte[(bandRows + 2) * source.width];
+        for (int y = 0; y < source.height; y += bandRows) {
+            int to = Math.min(source.height, y + bandRows);
+            int y0 = Math.max(0, y - 1);
+            int y1 = Math.min(source.height, to + 1);
+            source.read(0, y0, source.width, y1 - y0, band);
+            scan.add(band, y0, y, to);
+        }
+        band = null;
+        Point cpt;
+        int W, H;
+        if (crop) {
+            if (!scan.hasPixels()) {
+                throw new IllegalArgumentException("No non-zero pixels found in the image.");
+            }
+            cpt = new Point(scan.minx, scan.miny);
+            W = scan.maxx - scan.minx + 1;
+            H = scan.maxy - scan.miny + 1;
+        } else {
+            cpt = new Point(0, 0);
+            W = source.width;
+            H = source.height;
+        }
+        frame.cpt = cpt;
+        split.count("pixels", (long) source.width * source.height).stop();
+        frame.diagnostics.log(" img: W x H = " + W + " x " + H);
+
+        split = frame.timings.start("utlCheckFourBlock");
+        ImageUtils_.utlCheckPatterns(scan, frame.diagnostics);
+        boolean rejected = ImageUtils_.utlCheckFourBlock(scan, frame.diagnostics);
+        split.stop();
+        if (rejected) {
+            return frame;
+        }
+
+        // Tiles, processed independently
+        int nx = (W + tile - 1) / tile;
+        int ny = (H + tile - 1) / tile;
+        frame.diagnostics.log(String.format(" > Tiled extraction: %d x %d tiles of %d pixels, halo %d", nx, ny, tile, halo));
+        List<Callable<Piece>> tasks = new ArrayList<>();
+        for (int ty = 0; ty < ny; ty++) {
+            for (int tx = 0; tx < nx; tx++) {
+                int x0 = tx * tile;
+                int y0 = ty * tile;
+                tasks.add(() -> piece(source, cpt, W, H, x0, y0, num, frame.timings));
+            }
+        }
+        List<Piece> pieces = run(tasks);
+        boolean failed = false;
+        for (Piece p : pieces) {
+            Diagnostics_ d = p.diagnostics;
+            for (int i = 0; i < d.size; i++) {
+                frame.diagnostics.add(d.type[i], d.x[i], d.y[i], d.value[i]);
+            }
+            for (String message : d.errors) {
+                frame.diagnostics.error(message);
+            }
+            failed |= p.failed;
+        }
+        if (failed) {
+            return frame;
+        }
+
+        // Stitch
+        split = frame.timings.start("stitch");
+        Mesh_ mesh = stitch(pieces, nx, W, cpt);
+        split.count("vertices", mesh.vertexCount).count("edges", mesh.edgeCount).count("cells", mesh.cellCount).stop();
+        frame.mesh = mesh;
+        frame.diagnostics.log(String.format(" ... Finish tiled extraction: %d vertices, %d edges, %d cells", mesh.vertexCount, mesh.edgeCount, mesh.cellCount));
+        return frame;
+    }
+
+    // Extracts one extended tile: the vertices and edges in its checked window, the ones anchored
+    // in its core [x0, x0 + tile) x [y0, y0 + tile) marked as kept
+    private Piece piece(TileSource_ source, Point cpt, int W, int H, int x0, int y0, int num, StageTimer_ timings) throws IOException {
+        Piece p = new Piece();
+        int ex0 = Math.max(0, x0 - halo);
+        int ey0 = Math.max(0, y0 - halo);
+        int ex1 = Math.min(W, x0 + tile + halo);
+        int ey1 = Math.min(H, y0 + tile + halo);
+        int ew = ex1 - ex0;
+        int eh = ey1 - ey0;
+        int cx0 = x0 - ex0, cy0 = y0 - ey0;                                  // Core, in tile pixels
+        int cx1 = Math.min(W, x0 + tile) - ex0, cy1 = Math.min(H, y0 + tile) - ey0;
+        int sx0 = Math.max(0, cx0 - halo / 2), sy0 = Math.max(0, cy0 - halo / 2); // Checked window
+        int sx1 = Math.min(ew, cx1 + halo / 2), sy1 = Math.min(eh, cy1 + halo / 2);
+        p.wx0 = sx0 + ex0;
+        p.wy0 = sy0 + ey0;
+        p.wx1 = sx1 + ex0;
+        p.wy1 = sy1 + ey0;
+        Point tcpt = new Point(cpt.x + ex0, cpt.y + ey0);
+
+        byte[] pix = new byte[ew * eh];
+        source.read(cpt.x + ex0, cpt.y + ey0, ew, eh, pix);
+        ImagePlus image = new ImagePlus("Tile", new ByteProcessor(ew, eh, pix));
+        Diagnostics_ diagnostics = new Diagnostics_(num);
+        StageTimer_.Split split = timings.start("utlBoundaryProcessing");
+        ImageProcessor processed = ImageUtils_.utlBoundaryProcessing(image, tcpt, diagnostics);
+        split.count("pixels", (long) ew * eh).stop();
+        Mesh_ m = null;
+        if (processed != null) {
+            image.setProcessor(processed);
+            split = timings.start("vxSet_Vertex");
+            m = ImageUtils_.vxSet_Mesh(image, minimal_cell_size, tcpt, 1, timings, diagnostics);
+            split.stop();
+        }
+        if (m == null) {
+            p.failed = true;
+            p.diagnostics = diagnostics;
+            return p;
+        }
+
+        // Diagnostics of the core only; the others belong to the neighboring tiles
+        p.diagnostics = new Diagnostics_(num);
+        for (int i = 0; i < diagnostics.size; i++) {
+            int lx = diagnostics.x[i] - tcpt.x;
+            int ly = diagnostics.y[i] - tcpt.y;
+            if (lx >= cx0 && lx < cx1 && ly >= cy0 && ly < cy1) {
+                p.diagnostics.add(diagnostics.type[i], diagnostics.x[i], diagnostics.y[i], diagnostics.value[i]);
+            }
+        }
+
+        // First pixel of each cell ID
+        int[] cellID = m.cellID;
+        int labels = 1;
+        for (int l : cellID) {
+            labels = Math.max(labels, l);
+        }
+        int[] first = new int[labels + 1];
+        Arrays.fill(first, -1);
+        for (int i = 0; i < cellID.length; i++) {
+            if (first[cellID[i]] < 0) first[cellID[i]] = i;
+        }
+        for (int l = 2; l <= labels; l++) {
+            if (first[l] >= 0 && inside(first[l], ew, cx0, cy0, cx1, cy1)) {
+                p.regions = grow(p.regions, p.nregions + 1);
+                p.regions[p.nregions++] = global(first[l], ew, ex0, ey0, W);
+            }
+        }
+
+        // Vertices on their pixel
+        for (int v = 0; v < m.vertexCount; v++) {
+            int li = (int) m.vy[v] * ew + (int) m.vx[v];
+            if (!inside(li, ew, sx0, sy0, sx1, sy1)) continue;
+            int i = p.nv++;
+            p.vkept = grow(p.vkept, i + 1);
+            p.vpix = grow(p.vpix, i + 1);
+            p.vctype = grow(p.vctype, i + 1);
+            p.vcellStart = grow(p.vcellStart, i + 2);
+            p.vkept[i] = inside(li, ew, cx0, cy0, cx1, cy1);
+            p.vpix[i] = global(li, ew, ex0, ey0, W);
+            p.vctype[i] = m.vctype[v];
+            int s = p.vcellStart[i];
+            int n = m.vcellStart[v + 1] - m.vcellStart[v];
+            p.vcell = grow(p.vcell, s + n);
+            for (int k = 0; k < n; k++) {
+                p.vcell[s + k] = global(first[m.vcell[m.vcellStart[v] + k]], ew, ex0, ey0, W);
+            }
+            p.vcellStart[i + 1] = s + n;
+        }
+
+        // Edges on the start pixel of their contour
+        ContourStore_ conts = m.contours;
+        for (int e = 0; e < m.edgeCount; e++) {
+            int c = m.econtour[e];
+            int len = conts.length(c);
+            int start = conts.first(c);
+            if (!inside(start, ew, sx0, sy0, sx1, sy1)) continue;
+            int end = conts.last(c);
+            boolean kept = inside(start, ew, cx0, cy0, cx1, cy1);
+            if (kept && !inside(end, ew, sx0, sy0, sx1, sy1)) {
+                throw tooLarge(end, ew, tcpt);
+            }
+            int i = p.ne++;
+            if (i == p.ekey.length) {
+                int n = i * 2;
+                p.ekept = Arrays.copyOf(p.ekept, n);
+                p.ekey = Arrays.copyOf(p.ekey, n);
+                p.eorder = Arrays.copyOf(p.eorder, n);
+                p.ev0 = Arrays.copyOf(p.ev0, n);
+                p.ev1 = Arrays.copyOf(p.ev1, n);
+                p.einout = Arrays.copyOf(p.einout, n);
+                p.esdist = Arrays.copyOf(p.esdist, n);
+                p.eangle = Arrays.copyOf(p.eangle, n);
+                p.epts = Arrays.copyOf(p.epts, n * 4);
+                p.elen = Arrays.copyOf(p.elen, n);
+            }
+            long key = (long) global(start, ew, ex0, ey0, W) * 8 + step(start, len > 1 ? conts.point(c, 1) : start, ew);
+            // Outer edges first, each group with the traced contours in trace order before the
+            // reconnected ones in the order of their isolated terminals
+            long order = c < m.tracedContours ? key
+                : 1L << 40 | global(m.reconnected[c - m.tracedContours], ew, ex0, ey0, W);
+            p.ekept[i] = kept;
+            p.ekey[i] = key;
+            p.eorder[i] = (m.einout[e] == 'o' ? 0 : 1L << 41) | order;
+            p.ev0[i] = global(start, ew, ex0, ey0, W);
+            p.ev1[i] = global(end, ew, ex0, ey0, W);
+            p.einout[i] = m.einout[e];
+            p.esdist[i] = m.esdist[e];
+            p.eangle[i] = m.eangle[e];
+            int n = Math.min(len, 4);
+            for (int k = 0; k < n; k++) {
+                int pt = conts.point(c, k < 2 ? k : len - n + k);
+                p.epts[i * 4 + k] = global(pt, ew, ex0, ey0, W);
+            }
+            p.elen[i] = (byte) n;
+        }
+        return p;
+    }
+
+    // Merges the kept elements of the pieces into one mesh of the cropped frame (width W) and
+    // builds its cells
+    private Mesh_ stitch(List<Piece> pieces, int nx, int W, Point cpt) {
+        Mesh_ mesh = new Mesh_();
+        mesh.width = W;
+
+        // Cell IDs: by first pixel, from 2 (1 is the background)
+        int nregions = 0;
+        for (Piece p : pieces) nregions += p.nregions;
+        int[] regions = new int[nregions];
+        nregions = 0;
+        for (Piece p : pieces) {
+            System.arraycopy(p.regions, 0, regions, nregions, p.nregions);
+            nregions += p.nregions;
+        }
+        Arrays.sort(regions);
+
+        // Vertices: by number of cells, then in row-major order
+        int nv = 0;
+        int total = 0;
+        for (Piece p : pieces) {
+            for (int i = 0; i < p.nv; i++) {
+                if (!p.vkept[i]) continue;
+                nv++;
+                total += p.vcellStart[i + 1] - p.vcellStart[i];
+            }
+        }
+        long[] vorder = new long[nv];
+        IntIntMap_ vraw = new IntIntMap_(nv); // Pixel -> raw index
+        int[] vpiece = new int[nv];
+        int[] vlocal = new int[nv];
+        int r = 0;
+        for (int pi = 0; pi < pieces.size(); pi++) {
+            Piece p = pieces.get(pi);
+            for (int i = 0; i < p.nv; i++) {
+                if (!p.vkept[i]) continue;
+                long ncells = p.vcellStart[i + 1] - p.vcellStart[i];
+                vorder[r] = ncells << 32 | p.vpix[i];
+                vpiece[r] = pi;
+                vlocal[r] = i;
+                if (vraw.containsKey(p.vpix[i])) {
+                    throw disagree(p.vpix[i], W, cpt);
+                }
+                vraw.put(p.vpix[i], r);
+                r++;
+            }
+        }
+        Arrays.sort(vorder);
+        IntIntMap_ vertexID = new IntIntMap_(nv); // Pixel -> vertex
+        mesh.vertexCount = nv;
+        mesh.vx = new double[nv];
+        mesh.vy = new double[nv];
+        mesh.vctype = new byte[nv];
+        mesh.vinout = new byte[nv];
+        mesh.vcellStart = new int[nv + 1];
+        mesh.vcell = new int[total];
+        int pos = 0;
+        for (int v = 0; v < nv; v++) {
+            int pix = (int) vorder[v];
+            int raw = vraw.get(pix);
+            Piece p = pieces.get(vpiece[raw]);
+            int i = vlocal[raw];
+            vertexID.put(pix, v);
+            mesh.vx[v] = pix % W;
+            mesh.vy[v] = pix / W;
+            mesh.vctype[v] = p.vctype[i];
+            mesh.vinout[v] = (byte) (p.vcellStart[i + 1] == p.vcellStart[i] ? 'o' : 'i');
+            mesh.vcellStart[v] = pos;
+            for (int k = p.vcellStart[i]; k < p.vcellStart[i + 1]; k++) {
+                mesh.vcell[pos++] = label(regions, p.vcell[k], W, cpt);
+            }
+        }
+        mesh.vcellStart[nv] = pos;
+
+        // Edges: outer first, each group in contour order
+        int ne = 0;
+        for (Piece p : pieces) {
+            for (int i = 0; i < p.ne; i++) {
+                if (p.ekept[i]) ne++;
+            }
+        }
+        long[] eorder = new long[ne];
+        LongIntMap_ eraw = new LongIntMap_(ne); // Order key -> raw index + 1
+        int[] epiece = new int[ne];
+        int[] elocal = new int[ne];
+        r = 0;
+        for (int pi = 0; pi < pieces.size(); pi++) {
+            Piece p = pieces.get(pi);
+            for (int i = 0; i < p.ne; i++) {
+                if (!p.ekept[i]) continue;
+                eorder[r] = p.eorder[i];
+                epiece[r] = pi;
+                elocal[r] = i;
+                if (eraw.get(p.eorder[i]) != 0) {
+                    throw disagree(p.ev0[i], W, cpt);
+                }
+                eraw.add(p.eorder[i], r + 1);
+                r++;
+            }
+        }
+        Arrays.sort(eorder);
+        LongIntMap_ edgeID = new LongIntMap_(ne); // Edge key -> edge + 1
+        mesh.edgeCount = ne;
+        mesh.ev0 = new int[ne];
+        mesh.ev1 = new int[ne];
+        mesh.einout = new byte[ne];
+        mesh.esdist = new double[ne];
+        mesh.eangle = new double[ne];
+        mesh.econtour = new int[ne];
+        mesh.contours = new ContourStore_(W);
+        mesh.tracedContours = ne;
+        mesh.reconnected = new int[0];
+        int outer = 0;
+        for (int e = 0; e < ne; e++) {
+            int raw = eraw.get(eorder[e]) - 1;
+            Piece p = pieces.get(epiece[raw]);
+            int i = elocal[raw];
+            if (edgeID.get(p.ekey[i]) != 0) {
+                throw disagree(p.ev0[i], W, cpt);
+            }
+            edgeID.add(p.ekey[i], e + 1);
+            mesh.ev0[e] = vertex(vertexID, p.ev0[i], W, cpt);
+            mesh.ev1[e] = vertex(vertexID, p.ev1[i], W, cpt);
+            mesh.einout[e] = p.einout[i];
+            mesh.esdist[e] = p.esdist[i];
+            mesh.eangle[e] = p.eangle[i];
+            mesh.econtour[e] = mesh.contours.beginContour();
+            for (int k = 0; k < p.elen[i]; k++) {
+                mesh.contours.addPoint(p.epts[i * 4 + k]);
+            }
+            mesh.contours.endContour();
+            if (p.einout[i] == 'o') outer++;
+        }
+        int jr_num = 0;
+        for (int v = 0; v < nv; v++) {
+            if (mesh.vinout[v] == 'o') jr_num++;
+        }
+        if (jr_num != outer) {
+            throw new RuntimeException(String.format("! Inconsistent out-vertex and out-edge, jr_num= %d, er_num= %d", jr_num, outer));
+        }
+
+        // Every tile must agree with the stitched vertices and edges in its checked window
+        check(pieces, nx, mesh, vertexID, edgeID, regions, W, cpt);
+
+        // Cells from the stitched vertices and edges, as vxSet_Mesh builds them
+        mesh.setVertexEdges();
+        new HalfEdge_(mesh).setCells(threads);
+        mesh.setCellCenters();
+        return mesh;
+    }
+
+    // Compares every tile's view of its checked window with the stitched vertices and edges:
+    // each tile must see exactly the stitched vertices in its window, with the same cells, and
+    // the stitched edges starting there, between the same vertices
+    private void check(List<Piece> pieces, int nx, Mesh_ mesh, IntIntMap_ vertexID, LongIntMap_ edgeID, int[] regions, int W, Point cpt) {
+        int[] vcount = new int[pieces.size()];
+        for (int v = 0; v < mesh.vertexCount; v++) {
+            cover(pieces, nx, (int) mesh.vx[v], (int) mesh.vy[v], vcount);
+        }
+        int[] ecount = new int[pieces.size()];
+        for (int e = 0; e < mesh.edgeCount; e++) {
+            cover(pieces, nx, (int) mesh.vx[mesh.ev0[e]], (int) mesh.vy[mesh.ev0[e]], ecount);
+        }
+        for (int pi = 0; pi < pieces.size(); pi++) {
+            Piece p = pieces.get(pi);
+            for (int i = 0; i < p.nv; i++) {
+                int v = vertex(vertexID, p.vpix[i], W, cpt);
+                int s = p.vcellStart[i];
+                int n = p.vcellStart[i + 1] - s;
+                if (p.vctype[i] != mesh.vctype[v] || n != mesh.vcellStart[v + 1] - mesh.vcellStart[v]) {
+                    throw disagree(p.vpix[i], W, cpt);
+                }
+                for (int k = 0; k < n; k++) {
+                    if (label(regions, p.vcell[s + k], W, cpt) != mesh.vcell[mesh.vcellStart[v] + k]) {
+                        throw disagree(p.vpix[i], W, cpt);
+                    }
+                }
+            }
+            for (int i = 0; i < p.ne; i++) {
+                int e = edgeID.get(p.ekey[i]) - 1;
+                if (e < 0 || pixel(mesh, mesh.ev0[e], W) != p.ev0[i] || pixel(mesh, mesh.ev1[e], W) != p.ev1[i]
+                        || mesh.einout[e] != p.einout[i]) {
+                    throw disagree(p.ev0[i], W, cpt);
+                }
+            }
+            if (p.nv != vcount[pi]) {
+                throw disagree(missingVertex(p, mesh, W), W, cpt);
+            }
+            if (p.ne != ecount[pi]) {
+                throw disagree(missingEdge(p, mesh, W), W, cpt);
+            }
+        }
+    }
+
+    // Counts (x, y) for every piece whose checked window holds it
+    private void cover(List<Piece> pieces, int nx, int x, int y, int[] count) {
+        int h2 = halo / 2;
+        int ny = pieces.size() / nx;
+        for (int ty = Math.max(0, Math.floorDiv(y - h2, tile)); ty <= Math.min(ny - 1, Math.floorDiv(y + h2, tile)); ty++) {
+            for (int tx = Math.max(0, Math.floorDiv(x - h2, tile)); tx <= Math.min(nx - 1, Math.floorDiv(x + h2, tile)); tx++) {
+                int pi = ty * nx + tx;
+                if (pieces.get(pi).inWindow(x, y)) count[pi]++;
+            }
+        }
+    }
+
+    // Pixel of a stitched vertex in the window of p that p does not see
+    private static int missingVertex(Piece p, Mesh_ mesh, int W) {
+        IntIntMap_ seen = new IntIntMap_(p.nv);
+        for (int i = 0; i < p.nv; i++) {
+            seen.put(p.vpix[i], i);
+        }
+        for (int v = 0; v < mesh.vertexCount; v++) {
+            int pix = pixel(mesh, v, W);
+            if (p.inWindow((int) mesh.vx[v], (int) mesh.vy[v]) && !seen.containsKey(pix)) return pix;
+        }
+        return p.wy0 * W + p.wx0;
+    }
+
+    // Start pixel of a stitched edge in the window of p that p does not see
+    private static int missingEdge(Piece p, Mesh_ mesh, int W) {
+        IntIntMap_ seen = new IntIntMap_(p.ne);
+        for (int i = 0; i < p.ne; i++) {
+            seen.put(p.ev0[i], i);
+        }
+        for (int e = 0; e < mesh.edgeCount; e++) {
+            int v = mesh.ev0[e];
+            if (p.inWindow((int) mesh.vx[v], (int) mesh.vy[v]) && !seen.containsKey(pixel(mesh, v, W))) return pixel(mesh, v, W);
+        }
+        return p.wy0 * W + p.wx0;
+    }
+
+    private static int pixel(Mesh_ mesh, int v, int W) {
+        return (int) mesh.vy[v] * W + (int) mesh.vx[v];
+    }
+
+    // Runs the tile tasks, threads at a time, and returns their pieces in tile order
+    private List<Piece> run(List<Callable<Piece>> tasks) throws IOException {
+        List<Piece> pieces = new ArrayList<>(tasks.size());
+        int nthreads = Math.min(threads, tasks.size());
+        if (nthreads <= 1) {
+            for (Callable<Piece> task : tasks) {
+                pieces.add(call(task));
+            }
+            return pieces;
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(nthreads);
+        try {
+            List<Future<Piece>> futures = new ArrayList<>(tasks.size());
+            for (Callable<Piece> task : tasks) {
+                futures.add(pool.submit(task));
+            }
+            for (Future<Piece> f : futures) {
+                pieces.add(f.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Tiled extraction interrupted", e);
+        } catch (ExecutionException e) {
+            rethrow(e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+        return pieces;
+    }
+
+    private static Piece call(Callable<Piece> task) throws IOException {
+        try {
+            return task.call();
+        } catch (Exception e) {
+            rethrow(e);
+            return null;
+        }
+    }
+
+    private static void rethrow(Throwable t) throws IOException {
+        if (t instanceof IOException) throw (IOException) t;
+        if (t instanceof RuntimeException) throw (RuntimeException) t;
+        if (t instanceof Error) throw (Error) t;
+        throw new RuntimeException("Tile extraction failed", t);
+    }
+
+    // A kept element reaches too far from the core: the halo does not cover its cells
+    private RuntimeException tooLarge(int li, int ew, Point tcpt) {
+        return new RuntimeException(String.format("Cell too large for the tile halo at (%d, %d); use a larger halo than %d",
+            li % ew + tcpt.x, li / ew + tcpt.y, halo));
+    }
+
+    private static RuntimeException disagree(int pix, int W, Point cpt) {
+        return new RuntimeException(String.format("Tiles disagree at (%d, %d); use a larger halo", pix % W + cpt.x, pix / W + cpt.y));
+    }
+
+    private static int vertex(IntIntMap_ vertexID, int pix, int W, Point cpt) {
+        int v = vertexID.get(pix);
+        if (v < 0) {
+            throw disagree(pix, W, cpt);
+        }
+        return v;
+    }
+
+    private static int label(int[] regions, int pix, int W, Point cpt) {
+        int i = Arrays.binarySearch(regions, pix);
+        if (i < 0) {
+            throw disagree(pix, W, cpt);
+        }
+        return i + 2;
+    }
+
+    private static boolean inside(int li, int ew, int x0, int y0, int x1, int y1) {
+        int x = li % ew;
+        int y = li / ew;
+        return x >= x0 && x < x1 && y >= y0 && y < y1;
+    }
+
+    // Pixel of the extended tile -> pixel of the cropped frame
+    private static int global(int li, int ew, int ex0, int ey0, int W) {
+        return (li / ew + ey0) * W + li % ew + ex0;
+    }
+
+    // Direction of the step p0 -> p1 in the neighbor order of CVUtil_.trace
+    private static int step(int p0, int p1, int w) {
+        int dx = p1 % w - p0 % w;
+        int dy = p1 / w - p0 / w;
+        int[] sx = { 0, -1, 1, 0, -1, 1, -1, 1 };
+        int[] sy = { -1, 0, 0, 1, -1, -1, 1, 1 };
+        for (int k = 0; k < 8; k++) {
+            if (sx[k] == dx && sy[k] == dy) return k;
+        }
+        return 0;
+    }
+
+    private static int[] grow(int[] a, int n) {
+        return n <= a.length ? a : Arrays.copyOf(a, Math.max(n, a.length * 2));
+    }
+
+    private static boolean[] grow(boolean[] a, int n) {
+        return n <= a.length ? a : Arrays.copyOf(a, Math.max(n, a.length * 2));
+    }
+
+    private static long[] grow(long[] a, int n) {
+        return n <= a.length ? a : Arrays.copyOf(a, Math.max(n, a.length * 2));
+    }
+
+    private static byte[] grow(byte[] a, int n) {
+        return n <= a.length ? a : Arrays.copyOf(a, Math.max(n, a.length * 2));
+    }
+}
@@ -0,0 +1,269 @@
+
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Neighbor exchanges (T1), divisions and extrusions between consecutive frames of a stack,
+ * found from the cell adjacency of the tracked meshes (see Tracker_).
+ *
+ * Two inner cells are neighbors when they share an edge (Mesh_ cell -> edge lists). The
+ * neighbor pairs of a frame are kept as a hashed set of track ID pairs, so comparing a frame
+ * with the previous one takes time linear in the number of cells:
+ * <pre>
+ *   T1   p q r s   p and q, both still present, stop being neighbors and their two common
+ *                  neighbors r and s become neighbors (position: the new r-s edge)
+ *   DIV  m d       a new track d appears next to the track m it overlapped most, and the
+ *                  area of m dropped to DIVISION_SHRINK or less (position: the m-d edge)
+ *   EXT  t         track t ends without a successor (position: its last center)
+ * </pre>
+ * Cells with an edge on the tissue border may enter and leave without an event.
+ *
+ * Events are written one per line, "frame type tracks... x y", with (x, y) in frame
+ * coordinates and y reversed, like the vertex coordinates of the .txt output.
+ * Frames must be passed in order, from one thread, right after Tracker_.track.
+ */
+class TopologyEvents_ implements Closeable {
+    public static final double DIVISION_SHRINK = 0.85; // Area of the dividing cell after / before, at most
+
+    public static final int T1 = 0;
+    public static final int DIVISION = 1;
+    public static final int EXTRUSION = 2;
+    public static final String[] NAMES = { "T1", "DIV", "EXT" };
+    private static final int[] TRACKS = { 4, 2, 1 }; // Tracks per event of each type
+
+    /** The events of one frame. */
+    public static class Batch {
+        public int num;          // Frame number
+        public int size;
+        public int[] type = new int[16];
+        public int[] tracks = new int[16 * 4]; // 4 per event, unused ones 0
+        public double[] x = new double[16];
+        public double[] y = new double[16];
+        public final int[] counts = new int[NAMES.length];
+
+        void add(int t, int a, int b, int c, int d, double px, double py) {
+            if (size == type.length) {
+                type = Arrays.copyOf(type, size * 2);
+                tracks = Arrays.copyOf(tracks, size * 8);
+                x = Arrays.copyOf(x, size * 2);
+                y = Arrays.copyOf(y, size * 2);
+            }
+            type[size] = t;
+            tracks[size * 4] = a;
+            tracks[size * 4 + 1] = b;
+            tracks[size * 4 + 2] = c;
+            tracks[size * 4 + 3] = d;
+            x[size] = px;
+            y[size] = py;
+            size++;
+            counts[t]++;
+        }
+    }
+
+    // Adjacency of one frame, indexed by inner cell
+    private static class Snapshot {
+        int n;
+        int[] track;
+        int[] origin;       // Tracker_.origin of each cell
+        boolean[] border;   // Has an edge without a second inner cell
+        double[] area;
+        double[] cx;        // Center, in output coordinates
+        double[] cy;
+        int[] nbrStart;     // cell -> neighbor cells (CSR)
+        int[] nbr;
+        IntIntMap_ cellOf;  // Track -> cell
+        LongIntMap_ pairs;  // Neighbor track pair -> shared edge + 1
+        double[] ex;        // Edge midpoints, in output coordinates
+        double[] ey;
+    }
+
+    private final TextWriter_ out; // null: events are not written
+    private Snapshot previous;
+
+    public TopologyEvents_() {
+        this.out = null;
+    }
+
+    /**
+     * @param filename The event log to write.
+     */
+    public TopologyEvents_(String filename) throws IOException {
+        this.out = new TextWriter_(filename);
+        out.text("### frame type tracks x y\n");
+    }
+
+    /**
+     * Compares a tracked frame with the previous one.
+     *
+     * @param frame   The next frame, with mesh.ctrack set by tracker.
+     * @param tracker The tracker that has just tracked the frame.
+     * @return The events of the frame (none for the first frame or after a frame without a mesh).
+     */
+    public Batch detect(FrameResult_ frame, Tracker_ tracker) {
+        Batch batch = new Batch();
+        batch.num = frame.num;
+        Mesh_ mesh = frame.mesh;
+        if (mesh == null || mesh.ctrack == null) {
+            previous = null;
+            return batch;
+        }
+        Snapshot cur = snapshot(mesh, frame.cpt.x, frame.cpt.y, tracker);
+        Snapshot prev = previous;
+        previous = cur;
+        if (prev == null) {
+            return batch;
+        }
+
+        // T1: a lost pair whose two common neighbors have become neighbors
+        for (int i = 0; i < prev.pairs.slots(); i++) {
+            long key = prev.pairs.keyAt(i);
+            if (key < 0 || cur.pairs.get(key) != 0) continue;
+            int p = (int) (key >>> 32);
+            int q = (int) key;
+            if (!cur.cellOf.containsKey(p) || !cur.cellOf.containsKey(q)) continue;
+            int pc = prev.cellOf.get(p);
+            int qc = prev.cellOf.get(q);
+            int r = 0, s = 0, common = 0;
+            for (int k = prev.nbrStart[pc]; k < prev.nbrStart[pc + 1]; k++) {
+                int c = prev.nbr[k];
+                for (int j = prev.nbrStart[qc]; j < prev.nbrStart[qc + 1]; j++) {
+                    if (prev.nbr[j] == c) {
+                        if (common == 0) r = prev.track[c]; else s = prev.track[c];
+                        common++;
+                        break;
+                    }
+                }
+            }
+            if (common != 2) continue;
+            long gained = pair(r, s);
+            int e = cur.pairs.get(gained) - 1;
+            if (e < 0 || prev.pairs.get(gained) != 0) continue;
+            batch.add(T1, Math.min(p, q), Math.max(p, q), Math.min(r, s), Math.max(r, s), cur.ex[e], cur.ey[e]);
+        }
+
+        // Divisions: a new track next to the shrunken track it came from
+        IntIntMap_ successors = new IntIntMap_(16); // Origins of the new tracks
+        for (int c = 0; c < cur.n; c++) {
+            int d = cur.track[c];
+            if (prev.cellOf.containsKey(d)) continue;
+            int m = cur.origin[c];
+            if (m <= 0) continue;
+            successors.put(m, d);
+            int mc = cur.cellOf.get(m);
+            int pm = prev.cellOf.get(m);
+            int e = cur.pairs.get(pair(m, d)) - 1;
+            if (mc < 0 || pm < 0 || e < 0 || cur.border[c]) continue;
+            if (cur.area[mc] > DIVISION_SHRINK * prev.area[pm]) continue;
+            batch.add(DIVISION, m, d, 0, 0, cur.ex[e], cur.ey[e]);
+        }
+
+        // Extrusions: inner tracks that end and live on in no new track
+        for (int c = 0; c < prev.n; c++) {
+            int t = prev.track[c];
+            if (prev.border[c] || cur.cellOf.containsKey(t) || successors.containsKey(t)) continue;
+            batch.add(EXTRUSION, t, 0, 0, 0, prev.cx[c], prev.cy[c]);
+        }
+        return batch;
+    }
+
+    /**
+     * Writes the events of a frame to the event log. Must be called in frame order.
+     */
+    public void write(Batch batch) throws IOException {
+        if (out == null) {
+            return;
+        }
+        for (int i = 0; i < batch.size; i++) {
+            out.integer(batch.num).text(" ").text(NAMES[batch.type[i]]);
+            for (int k = 0; k < TRACKS[batch.type[i]]; k++) {
+                out.text(" ").integer(batch.tracks[i * 4 + k]);
+            }
+            out.text(" ").fixed(batch.x[i]).text(" ").fixed(batch.y[i]).text("\n");
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (out != null) {
+            out.close();
+        }
+    }
+
+    private static Snapshot snapshot(Mesh_ mesh, int cptx, int cpty, Tracker_ tracker) {
+        Snapshot s = new Snapshot();
+        int[] index = new int[mesh.cellCount]; // Mesh cell -> inner cell, -1 if none
+        for (int c = 0; c < mesh.cellCount; c++) {
+            index[c] = (mesh.cinout[c] == 'i' && mesh.ctrack[c] > 0) ? s.n++ : -1;
+        }
+        s.track = new int[s.n];
+        s.origin = new int[s.n];
+        s.border = new boolean[s.n];
+        s.area = new double[s.n];
+        s.cx = new double[s.n];
+        s.cy = new double[s.n];
+        s.cellOf = new IntIntMap_(s.n);
+
+        // The (up to) two inner cells of each edge
+        int[] side0 = new int[mesh.edgeCount];
+        int[] side1 = new int[mesh.edgeCount];
+        Arrays.fill(side0, -1);
+        Arrays.fill(side1, -1);
+        for (int c = 0; c < mesh.cellCount; c++) {
+            int i = index[c];
+            if (i < 0) continue;
+            s.track[i] = mesh.ctrack[c];
+            s.origin[i] = tracker.origin(mesh.clabel[c]);
+            s.area[i] = mesh.carea[c];
+            s.cx[i] = mesh.ccx[c] + cptx;
+            s.cy[i] = mesh.ccy[c] - cpty;
+            s.cellOf.put(mesh.ctrack[c], i);
+            for (int k = mesh.cedgeStart[c]; k < mesh.cedgeStart[c + 1]; k++) {
+                int e = mesh.cedge[k];
+                if (side0[e] < 0) side0[e] = i; else side1[e] = i;
+            }
+        }
+
+        // Neighbor pairs, both as a hashed set and as per-cell lists
+        s.pairs = new LongIntMap_(mesh.edgeCount);
+        s.nbrStart = new int[s.n + 1];
+        s.ex = new double[mesh.edgeCount];
+        s.ey = new double[mesh.edgeCount];
+        for (int e = 0; e < mesh.edgeCount; e++) {
+            int a = side0[e];
+            int b = side1[e];
+            if (a < 0) continue;
+            if (b < 0) {
+                s.border[a] = true;
+                continue;
+            }
+            s.nbrStart[a + 1]++;
+            s.nbrStart[b + 1]++;
+            long key = pair(s.track[a], s.track[b]);
+            if (s.pairs.get(key) == 0) {
+                s.pairs.add(key, e + 1);
+            }
+            s.ex[e] = 0.5 * (mesh.vx[mesh.ev0[e]] + mesh.vx[mesh.ev1[e]]) + cptx;
+            s.ey[e] = -(0.5 * (mesh.vy[mesh.ev0[e]] + mesh.vy[mesh.ev1[e]]) + cpty);
+        }
+        for (int i = 0; i < s.n; i++) {
+            s.nbrStart[i + 1] += s.nbrStart[i];
+        }
+        s.nbr = new int[s.nbrStart[s.n]];
+        int[] fill = Arrays.copyOf(s.nbrStart, s.n);
+        for (int e = 0; e < mesh.edgeCount; e++) {
+            int a = side0[e];
+            int b = side1[e];
+            if (a < 0 || b < 0) continue;
+            s.nbr[fill[a]++] = b;
+            s.nbr[fill[b]++] = a;
+        }
+        return s;
+    }
+
+    // Set key of an unordered track pair
+    private static long pair(int a, int b) {
+        return a < b ? (long) a << 32 | b : (long) b << 32 | a;
+    }
+}
@@ -0,0 +1,179 @@
+
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Links the cells of consecutive frames of a stack and gives every cell a track ID.
+ *
+ * The cell ID rasters of two consecutive frames (utlSet_CellID, kept on the mesh) are compared
+ * in one pass over the pixels they share in frame coordinates, counting the overlap of every
+ * (cell ID in t, cell ID in t + 1) pair in a LongIntMap_. A cell of t + 1 continues the track of
+ * the cell of t it overlaps most if that cell also overlaps it most; every other cell starts a
+ * new track. Resolving the links takes one pass over the histogram entries.
+ *
+ * Frames must be passed in order, from one thread. A frame without a mesh ends all tracks.
+ * With a file, the track IDs of each frame are written as "C[cell] track" lines (in cell order,
+ * -1 for outer cells) after a "### FRAME n" line.
+ */
+class Tracker_ implements Closeable {
+    private final TextWriter_ out; // null: tracks are not written
+
+    private int[] previous;       // Cell ID raster of the previous frame, null if none
+    private int previousX;        // Its crop offset and size
+    private int previousY;
+    private int previousWidth;
+    private int previousHeight;
+    private int[] previousTrack;  // Track ID of each cell ID of the previous frame
+    private int[] origin;         // Per cell ID of the last frame: track it overlapped most in the frame before (0: none)
+    private final LongIntMap_ overlaps = new LongIntMap_(1 << 12);
+
+    public int trackCount; // Tracks started so far (IDs are 1..trackCount)
+
+    public Tracker_() {
+        this.out = null;
+        this.trackCount = 0;
+    }
+
+    /**
+     * @param filename The track file to write.
+     */
+    public Tracker_(String filename) throws IOException {
+        this.out = new TextWriter_(filename);
+        this.trackCount = 0;
+    }
+
+    /**
+     * Sets frame.mesh.ctrack from the cell ID raster in frame.mesh.cellID, which is then dropped
+     * from the mesh (the tracker keeps it for the next frame).
+     *
+     * @param frame The next frame.
+     * @return The number of cell IDs that continue a track of the previous frame.
+     */
+    public int track(FrameResult_ frame) {
+        Mesh_ mesh = frame.mesh;
+        if (mesh == null || mesh.cellID == null || frame.image == null) {
+            previous = null;
+            origin = null;
+            return 0;
+        }
+        int[] cellID = mesh.cellID;
+        int w = frame.image.getWidth();
+        int h = frame.image.getHeight();
+        int cx = frame.cpt.x;
+        int cy = frame.cpt.y;
+        int labels = 1;
+        for (int l : cellID) {
+            labels = Math.max(labels, l);
+        }
+
+        // Overlap histogram over the pixels both frames cover, one map update per run of equal pairs
+        overlaps.clear();
+        if (previous != null) {
+            int x0 = Math.max(cx, previousX);
+            int x1 = Math.min(cx + w, previousX + previousWidth);
+            int y0 = Math.max(cy, previousY);
+            int y1 = Math.min(cy + h, previousY + previousHeight);
+            for (int y = y0; y < y1; y++) {
+                int row = (y - cy) * w - cx;
+                int prow = (y - previousY) * previousWidth - previousX;
+                long run = -1;
+                int length = 0;
+                for (int x = x0; x < x1; x++) {
+                    int b = cellID[row + x];
+                    int a = previous[prow + x];
+                    long pair = (a < 2 || b < 2) ? -1 : (long) a << 32 | b;
+                    if (pair != run) {
+                        if (run >= 0) overlaps.add(run, length);
+                        run = pair;
+                        length = 0;
+                    }
+                    length++;
+                }
+                if (run >= 0) overlaps.add(run, length);
+            }
+        }
+
+        // Best partner of each cell ID on either side (largest overlap, then smallest ID)
+        int previousLabels = previous != null ? previousTrack.length - 1 : 1;
+        int[] bestNext = new int[previousLabels + 1];
+        int[] bestNextOverlap = new int[previousLabels + 1];
+        int[] bestPrevious = new int[labels + 1];
+        int[] bestPreviousOverlap = new int[labels + 1];
+        for (int i = 0; i < overlaps.slots(); i++) {
+            long key = overlaps.keyAt(i);
+            if (key < 0) continue;
+            int a = (int) (key >>> 32);
+            int b = (int) key;
+            int n = overlaps.valueAt(i);
+            if (n > bestNextOverlap[a] || (n == bestNextOverlap[a] && b < bestNext[a])) {
+                bestNext[a] = b;
+                bestNextOverlap[a] = n;
+            }
+            if (n > bestPreviousOverlap[b] || (n == bestPreviousOverlap[b] && a < bestPrevious[b])) {
+                bestPrevious[b] = a;
+                bestPreviousOverlap[b] = n;
+            }
+        }
+
+        // Mutual best partners share the track; the rest start new ones in cell ID order
+        int[] track = new int[labels + 1];
+        origin = new int[labels + 1];
+        int linked = 0;
+        for (int b = 2; b <= labels; b++) {
+            int a = bestPrevious[b];
+            origin[b] = a >= 2 ? previousTrack[a] : 0;
+            if (a >= 2 && bestNext[a] == b) {
+                track[b] = previousTrack[a];
+                linked++;
+            } else {
+                track[b] = ++trackCount;
+            }
+        }
+
+        mesh.ctrack = new int[mesh.cellCount];
+        for (int c = 0; c < mesh.cellCount; c++) {
+            int l = mesh.clabel[c];
+            mesh.ctrack[c] = l >= 2 ? track[l] : -1;
+        }
+        mesh.cellID = null;
+
+        previous = cellID;
+        previousX = cx;
+        previousY = cy;
+        previousWidth = w;
+        previousHeight = h;
+        previousTrack = track;
+        return linked;
+    }
+
+    /**
+     * The track that a cell ID of the last tracked frame overlapped most in the frame before, or 0
+     * if none. For a cell that continues a track this is its own track; for a new track it is
+     * the cell it split from or grew into.
+     */
+    public int origin(int label) {
+        return origin != null && label >= 0 && label < origin.length ? origin[label] : 0;
+    }
+
+    /**
+     * Writes the track IDs of a tracked frame to the track file. Must be called in frame order.
+     */
+    public void write(FrameResult_ frame) throws IOException {
+        if (out == null || frame.mesh == null || frame.mesh.ctrack == null) {
+            return;
+        }
+        int[] ctrack = frame.mesh.ctrack;
+        out.text("### FRAME ").integer(frame.num).text(" \n");
+        for (int c = 0; c < ctrack.length; c++) {
+            out.text("C[").integer(c).text("] ").integer(ctrack[c]).text("\n");
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (out != null) {
+            out.close();
+        }
+    }
+}
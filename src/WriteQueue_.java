@@ -0,0 +1,121 @@
+
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs output encoding and writing on dedicated I/O threads, so that the frame pipeline does
+ * not wait for the disk. The number of pending jobs is bounded: submit blocks while the queue
+ * is full. The first failure of a job is rethrown by the next submit or by close.
+ */
+class WriteQueue_ implements AutoCloseable {
+
+    /**
+     * A write job. Called from an I/O thread.
+     */
+    public interface Job {
+        void run() throws Exception;
+    }
+
+    private static final AtomicInteger POOL_ID = new AtomicInteger();
+
+    private final ExecutorService pool;     // Jobs in any order
+    private final ExecutorService ordered;  // Jobs in submission order
+    private final Semaphore slots;
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    /**
+     * @param threads Number of I/O threads (the ordered lane has its own thread).
+     */
+    public WriteQueue_(int threads) {
+        this(threads, Math.max(8, 4 * threads));
+    }
+
+    /**
+     * @param threads  Number of I/O threads (the ordered lane has its own thread).
+     * @param capacity Maximum number of jobs submitted but not yet finished.
+     */
+    public WriteQueue_(int threads, int capacity) {
+        int id = POOL_ID.incrementAndGet();
+        AtomicInteger n = new AtomicInteger();
+        this.pool = Executors.newFixedThreadPool(Math.max(1, threads), r -> daemon(r, "GetVertex-io-" + id + "-" + n.incrementAndGet()));
+        this.ordered = Executors.newSingleThreadExecutor(r -> daemon(r, "GetVertex-io-" + id + "-ordered"));
+        this.slots = new Semaphore(Math.max(1, capacity));
+    }
+
+    /** Queues a job that may run concurrently with other jobs. */
+    public void submit(Job job) {
+        submit(pool, job);
+    }
+
+    /** Queues a job that runs after every job previously queued with this method. */
+    public void submitOrdered(Job job) {
+        submit(ordered, job);
+    }
+
+    /** Waits for every queued job to finish, then rethrows the first failure. */
+    @Override
+    public void close() {
+        pool.shutdown();
+        ordered.shutdown();
+        try {
+            while (!pool.awaitTermination(1, TimeUnit.SECONDS) || !ordered.awaitTermination(1, TimeUnit.SECONDS)) {
+                // Keep waiting; jobs are never abandoned half-written
+            }
+        } catch (InterruptedException e) {
+            pool.shutdownNow();
+            ordered.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while writing outputs", e);
+        }
+        check();
+    }
+
+    private void submit(ExecutorService executor, Job job) {
+        check();
+        try {
+            slots.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while queueing outputs", e);
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    job.run();
+                } catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                } finally {
+                    slots.release();
+                }
+            });
+        } catch (RuntimeException e) {
+            slots.release();
+            throw e;
+        }
+    }
+
+    private void check() {
+        Throwable t = failure.get();
+        if (t == null) {
+            return;
+        }
+        if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        }
+        if (t instanceof Error) {
+            throw (Error) t;
+        }
+        throw new RuntimeException("Error writing outputs", t);
+    }
+
+    private static Thread daemon(Runnable r, String name) {
+        Thread t = new Thread(r, name);
+        t.setDaemon(true);
+        return t;
+    }
+}
@@ -1,4 +1,4 @@
-javac -classpath ..\..\..\..\..\ij.jar -d .\classes\ GetVertex_.java ImageUtils_.java Edge_.java Vertex_.java VCell_.java CVUtil_.java
+javac -classpath ..\..\..\..\..\ij.jar -d .\classes\ GetVertex_.java ImageUtils_.java Edge_.java Vertex_.java VCell_.java CVUtil_.java FrameEngine_.java FrameResult_.java GetVertexCLI_.java FloodFill_.java Labeler_.java CtypeKernel_.java PreScan_.java ContourStore_.java IntIntMap_.java EndpointIndex_.java Mesh_.java HalfEdge_.java TextWriter_.java MeshFile_.java OutputOptions_.java StackArchive_.java WriteQueue_.java OverlayRenderer_.java Delaunay_.java SyntheticTissue_.java StageTimer_.java Diagnostics_.java IncrementalMesh_.java LongIntMap_.java Tracker_.java TopologyEvents_.java SpatialGrid_.java TileSource_.java TiledMesh_.java
 :: javac -cp ..\..\jars\* -d .\classes\ get_vertex\GetVertex.java get_vertex\ImageUtils.java get_vertex\Edge.java get_vertex\Junction.java get_vertex\VCell.java get_vertex\CVUtil.java
 
 jar cf Get_Vertex.jar -C .\classes\ .